@@ -0,0 +1,292 @@
+package com.virtualclassroom.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.virtualclassroom.dto.WhiteboardAction;
+import com.virtualclassroom.dto.WhiteboardFrame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.http.HttpHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.messaging.StompSubProtocolHandler;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU cost of one server-originated broadcast against the number of subscribed sessions,
+ * for a chat message and a whiteboard frame.
+ *
+ * A simple broker fans each publish out to N STOMP sessions through the real
+ * {@link StompSubProtocolHandler}; the sessions are stubs that UTF-8 encode text frames,
+ * as the container does when it writes them. The work runs on the calling thread, so the
+ * score is the whole cost of a broadcast and score / N the cost per session.
+ * {@code send=convertAndSend} is the template converting the payload itself, as the
+ * application does; {@code send=serialized} hands the broker a payload serialized to JSON
+ * up front. The two cost the same: the per-session work (STOMP headers, encoding the
+ * frame, the text message) happens in Spring's STOMP handler either way.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BroadcastFanOutBenchmark {
+
+    private static final String DESTINATION = "/topic/course/1";
+
+    @Param({"1", "16", "128"})
+    public int subscribers;
+
+    @Param({"chat", "whiteboard"})
+    public String payload;
+
+    @Param({"convertAndSend", "serialized"})
+    public String send;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, WebSocketSession> sessions = new HashMap<>();
+    private SimpleBrokerMessageHandler broker;
+    private SimpMessagingTemplate template;
+    private Object body;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        ExecutorSubscribableChannel inbound = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel outbound = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+
+        StompSubProtocolHandler stompHandler = new StompSubProtocolHandler();
+        outbound.subscribe(message -> {
+            if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.MESSAGE) {
+                String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+                stompHandler.handleMessageToClient(sessions.get(sessionId), message);
+            }
+        });
+
+        broker = new SimpleBrokerMessageHandler(inbound, outbound, brokerChannel, List.of("/topic"));
+        broker.start();
+        for (int i = 0; i < subscribers; i++) {
+            String sessionId = "s" + i;
+            sessions.put(sessionId, new CountingSession(sessionId));
+            broker.handleMessage(control(SimpMessageType.CONNECT, sessionId));
+            SimpMessageHeaderAccessor subscribe = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+            subscribe.setSessionId(sessionId);
+            subscribe.setSubscriptionId("sub-0");
+            subscribe.setDestination(DESTINATION);
+            broker.handleMessage(MessageBuilder.createMessage(new byte[0], subscribe.getMessageHeaders()));
+        }
+
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
+        converter.setObjectMapper(objectMapper);
+        template = new SimpMessagingTemplate(brokerChannel);
+        template.setMessageConverter(converter);
+        body = "whiteboard".equals(payload) ? whiteboardFrame() : chatMessage();
+    }
+
+    @TearDown
+    public void tearDown() {
+        broker.stop();
+    }
+
+    @Benchmark
+    public void broadcast() throws Exception {
+        switch (send) {
+            case "convertAndSend":
+                template.convertAndSend(DESTINATION, body);
+                break;
+            case "serialized":
+                template.send(DESTINATION, serialize(objectMapper.writeValueAsBytes(body)));
+                break;
+        }
+    }
+
+    private static Message<byte[]> serialize(byte[] json) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        return MessageBuilder.createMessage(json, accessor.getMessageHeaders());
+    }
+
+    private static Message<byte[]> control(SimpMessageType type, String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    // Roughly what ChatMessage serializes to
+    private static Map<String, Object> chatMessage() {
+        Map<String, Object> sender = new LinkedHashMap<>();
+        sender.put("id", 42L);
+        sender.put("username", "student42");
+        sender.put("fullName", "Student Forty-Two");
+        sender.put("role", "STUDENT");
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("id", 123456789L);
+        message.put("content", "Could someone explain the second half of today's lecture again? "
+                + "I got lost after the part about amortized analysis and the potential method.");
+        message.put("type", "TEXT");
+        message.put("isEdited", false);
+        message.put("isDeleted", false);
+        message.put("createdAt", "2026-10-17T10:15:30.123");
+        message.put("updatedAt", "2026-10-17T10:15:30.123");
+        message.put("sender", sender);
+        message.put("clientMessageId", "c0ffee00-1234-5678-9abc-def012345678");
+        return message;
+    }
+
+    // A coalesced tick of a busy board: 40 merged pen strokes
+    private static WhiteboardFrame whiteboardFrame() {
+        List<WhiteboardAction> actions = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            WhiteboardAction action = new WhiteboardAction("draw", "pen");
+            action.setSeq(1000 + i);
+            action.setStrokeId("stroke-" + (i / 4));
+            action.setColor("#1e88e5");
+            action.setStrokeWidth(3);
+            double[] points = new double[16];
+            for (int p = 0; p < points.length; p++) {
+                points[p] = 100.5 + i * 3.25 + p * 1.75;
+            }
+            action.setPoints(points);
+            action.setUserId(7L);
+            action.setUserName("Teacher Seven");
+            action.setTimestamp(1_760_000_000_000L + i);
+            actions.add(action);
+        }
+        return new WhiteboardFrame(1L, 999, 1039, false, actions);
+    }
+
+    /**
+     * Stands in for a container session: text frames are UTF-8 encoded, as the container
+     * does on write.
+     */
+    private final class CountingSession implements WebSocketSession {
+
+        private final String id;
+
+        CountingSession(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+            if (message instanceof TextMessage text) {
+                blackhole.consume(text.getPayload().getBytes(StandardCharsets.UTF_8));
+            } else if (message instanceof BinaryMessage binary) {
+                blackhole.consume(binary.getPayload());
+            }
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public URI getUri() {
+            return null;
+        }
+
+        @Override
+        public HttpHeaders getHandshakeHeaders() {
+            return new HttpHeaders();
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public Principal getPrincipal() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public String getAcceptedProtocol() {
+            return null;
+        }
+
+        @Override
+        public void setTextMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getTextMessageSizeLimit() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getBinaryMessageSizeLimit() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public List<WebSocketExtension> getExtensions() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void close(CloseStatus status) {
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.virtualclassroom.service;
+
+import com.virtualclassroom.dto.WhiteboardAction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Draw throughput and state-fetch latency of one board's action log with 1, 8 and 64
+ * concurrent drawers.
+ *
+ * Each group runs its drawers against a shared board while one thread fetches the full
+ * state (a client joining) and one follows the log by deltas (the frame coalescer). With
+ * {@code log=synchronized} the same load runs against a monitor-guarded list, the
+ * structure the lock-free log replaced, as a baseline. Throughput is reported per method,
+ * and sample-time percentiles give the fetch latency.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WhiteboardActionLogBenchmark {
+
+    @State(Scope.Group)
+    public static class Board {
+
+        @Param({"lock-free", "synchronized"})
+        public String log;
+
+        @Param("500")
+        public int compactionThreshold;
+
+        ActionLog board;
+
+        // A fresh board per iteration, so the baseline's unbounded list doesn't skew later ones
+        @Setup(Level.Iteration)
+        public void setUp() {
+            board = "synchronized".equals(log)
+                    ? new SynchronizedLog()
+                    : new LockFreeLog(new WhiteboardActionLog(compactionThreshold));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Drawer {
+        private long segments;
+        private String strokeId;
+
+        WhiteboardAction nextSegment() {
+            // Strokes of 20 segments, like a short pen stroke
+            if (segments++ % 20 == 0) {
+                strokeId = Thread.currentThread().getId() + "-" + segments;
+            }
+            WhiteboardAction action = new WhiteboardAction("draw", "pen");
+            action.setStrokeId(strokeId);
+            action.setStartX(segments);
+            action.setStartY(segments);
+            action.setEndX(segments + 1);
+            action.setEndY(segments + 1);
+            action.setTimestamp(segments);
+            return action;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Follower {
+        private long cursor;
+    }
+
+    @Benchmark
+    @Group("drawers1")
+    @GroupThreads(1)
+    public WhiteboardAction draw1(Board board, Drawer drawer) {
+        return board.board.append(drawer.nextSegment());
+    }
+
+    @Benchmark
+    @Group("drawers1")
+    @GroupThreads(1)
+    public int fetchState1(Board board) {
+        return board.board.read();
+    }
+
+    @Benchmark
+    @Group("drawers1")
+    @GroupThreads(1)
+    public int fetchDelta1(Board board, Follower follower) {
+        return fetchDelta(board, follower);
+    }
+
+    @Benchmark
+    @Group("drawers8")
+    @GroupThreads(8)
+    public WhiteboardAction draw8(Board board, Drawer drawer) {
+        return board.board.append(drawer.nextSegment());
+    }
+
+    @Benchmark
+    @Group("drawers8")
+    @GroupThreads(1)
+    public int fetchState8(Board board) {
+        return board.board.read();
+    }
+
+    @Benchmark
+    @Group("drawers8")
+    @GroupThreads(1)
+    public int fetchDelta8(Board board, Follower follower) {
+        return fetchDelta(board, follower);
+    }
+
+    @Benchmark
+    @Group("drawers64")
+    @GroupThreads(64)
+    public WhiteboardAction draw64(Board board, Drawer drawer) {
+        return board.board.append(drawer.nextSegment());
+    }
+
+    @Benchmark
+    @Group("drawers64")
+    @GroupThreads(1)
+    public int fetchState64(Board board) {
+        return board.board.read();
+    }
+
+    @Benchmark
+    @Group("drawers64")
+    @GroupThreads(1)
+    public int fetchDelta64(Board board, Follower follower) {
+        return fetchDelta(board, follower);
+    }
+
+    private static int fetchDelta(Board board, Follower follower) {
+        int read = board.board.readSince(follower.cursor);
+        follower.cursor = read < 0 ? board.board.lastSeq() : follower.cursor + read;
+        return read;
+    }
+
+    /**
+     * The operations the benchmark drives, over either implementation.
+     */
+    interface ActionLog {
+        WhiteboardAction append(WhiteboardAction action);
+
+        /**
+         * @return Number of actions in the full state
+         */
+        int read();
+
+        /**
+         * @return Number of actions after the cursor, or -1 if the cursor was compacted away
+         */
+        int readSince(long since);
+
+        long lastSeq();
+    }
+
+    static final class LockFreeLog implements ActionLog {
+        private final WhiteboardActionLog log;
+
+        LockFreeLog(WhiteboardActionLog log) {
+            this.log = log;
+        }
+
+        @Override
+        public WhiteboardAction append(WhiteboardAction action) {
+            return log.append(action);
+        }
+
+        @Override
+        public int read() {
+            WhiteboardActionLog.View view = log.read();
+            return view.getSnapshot().size() + view.getTail().size();
+        }
+
+        @Override
+        public int readSince(long since) {
+            WhiteboardActionLog.View view = log.readSince(since);
+            return view != null ? view.getTail().size() : -1;
+        }
+
+        @Override
+        public long lastSeq() {
+            return log.getLastSeq();
+        }
+    }
+
+    /**
+     * Baseline: one monitor around a list, copied on every read.
+     */
+    static final class SynchronizedLog implements ActionLog {
+        private final List<WhiteboardAction> actions = new ArrayList<>();
+
+        @Override
+        public synchronized WhiteboardAction append(WhiteboardAction action) {
+            action.setSeq(actions.size() + 1);
+            actions.add(action);
+            return action;
+        }
+
+        @Override
+        public synchronized int read() {
+            return new ArrayList<>(actions).size();
+        }
+
+        @Override
+        public synchronized int readSince(long since) {
+            return new ArrayList<>(actions.subList((int) Math.min(since, actions.size()), actions.size())).size();
+        }
+
+        @Override
+        public synchronized long lastSeq() {
+            return actions.size();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.virtualclassroom.config;
+
+import org.apache.activemq.artemis.core.config.Configuration;
+import org.apache.activemq.artemis.core.config.impl.ConfigurationImpl;
+import org.apache.activemq.artemis.core.server.embedded.EmbeddedActiveMQ;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.nio.file.Path;
+
+/**
+ * In-process Artemis broker with a STOMP acceptor, so relay mode can be run on a single
+ * machine without installing a broker. Several app instances started on one host can
+ * share it by enabling it on the first one only.
+ *
+ * Nothing is persisted: chat and whiteboard state is stored by the application, and the
+ * broker only carries live frames.
+ *
+ * Only built with the {@code embedded-broker} Maven profile, so Artemis isn't bundled
+ * with the application otherwise.
+ */
+@Component
+@ConditionalOnProperty(name = "app.websocket.broker.embedded", havingValue = "true")
+public class EmbeddedStompBroker {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedStompBroker.class);
+
+    @Autowired
+    @Qualifier("initStorage")
+    private Path storageRoot;
+
+    @Value("${app.websocket.broker.relay-host:localhost}")
+    private String host;
+
+    @Value("${app.websocket.broker.relay-port:61613}")
+    private int port;
+
+    private EmbeddedActiveMQ broker;
+
+    @PostConstruct
+    public void start() throws Exception {
+        Path dataDir = storageRoot.resolve("stomp-broker");
+        Configuration configuration = new ConfigurationImpl()
+                .setPersistenceEnabled(false)
+                .setSecurityEnabled(false)
+                .setJMXManagementEnabled(false)
+                .setPagingDirectory(dataDir.resolve("paging").toString())
+                .setBindingsDirectory(dataDir.resolve("bindings").toString())
+                .setJournalDirectory(dataDir.resolve("journal").toString())
+                .setLargeMessagesDirectory(dataDir.resolve("large-messages").toString())
+                // /topic/... is publish-subscribe and /queue/... point-to-point, as with the simple broker
+                .addAcceptorConfiguration("stomp", "tcp://" + host + ":" + port
+                        + "?protocols=STOMP;anycastPrefix=/queue/;multicastPrefix=/topic/");
+
+        broker = new EmbeddedActiveMQ();
+        broker.setConfiguration(configuration);
+        broker.start();
+        logger.info("Embedded STOMP broker listening on {}:{}", host, port);
+    }
+
+    @PreDestroy
+    public void stop() throws Exception {
+        if (broker != null) {
+            broker.stop();
+        }
+    }
+}
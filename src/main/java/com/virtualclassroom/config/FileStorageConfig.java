@@ -77,6 +77,31 @@ public class FileStorageConfig {
         }
     }
     
+    public String store(byte[] content, String subdirectory, String filename) {
+        try {
+            Path targetDir = rootLocation.resolve(subdirectory);
+            Files.createDirectories(targetDir);
+            
+            // Write to a temp file first so readers never see a half-written file
+            Path destinationFile = targetDir.resolve(filename);
+            Path tempFile = targetDir.resolve(filename + ".tmp");
+            Files.write(tempFile, content);
+            Files.move(tempFile, destinationFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            
+            return subdirectory + "/" + filename;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to store file", e);
+        }
+    }
+    
+    public Path resolve(String filename) {
+        Path file = rootLocation.resolve(filename).normalize();
+        if (!file.startsWith(rootLocation.normalize())) {
+            throw new RuntimeException("Cannot access file outside the storage directory: " + filename);
+        }
+        return file;
+    }
+    
     public Resource loadAsResource(String filename) {
         try {
             Path file = rootLocation.resolve(filename);
@@ -0,0 +1,266 @@
+package com.virtualclassroom.config;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.virtualclassroom.dto.WhiteboardFrame;
+import com.virtualclassroom.service.WhiteboardBinaryCodec;
+import com.virtualclassroom.service.WhiteboardFrameCoalescer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.messaging.support.MessageHeaderInitializer;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.web.socket.CloseStatus;
+
+import jakarta.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a slow client's outbound backlog from growing without bound.
+ *
+ * Broker frames queue per session before they reach the client outbound channel (publish
+ * order is preserved), and every session's copy of a frame is timestamped as it is queued.
+ * A frame handed on long after that belongs to a session that is falling behind, and is
+ * treated by kind:
+ * <ul>
+ *   <li>typing and presence frames (any destination listed as droppable) are discarded;
+ *       typing state is resent on every change and presence frames carry the online count,
+ *       so a client can tell it missed one and reload the list</li>
+ *   <li>whiteboard frames are coalesced: the stale frame is replaced with one catch-up frame
+ *       covering everything broadcast since, and the queued frames it covers are skipped</li>
+ *   <li>everything else, chat included, is delivered as is</li>
+ * </ul>
+ * A client too slow even for that hits the socket's send buffer and time limits (see
+ * {@link WebSocketConfig}) and is disconnected. Dropped and coalesced frames and
+ * disconnected sessions are counted as metrics.
+ */
+@Component
+public class OutboundBackpressureInterceptor implements ChannelInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundBackpressureInterceptor.class);
+
+    // Set by the coalescer on whiteboard frames. Native headers, so a broker relay carries
+    // them too; removed here before frames go to clients
+    public static final String WHITEBOARD_NODE_HEADER = "x-whiteboard-node";
+    public static final String WHITEBOARD_COURSE_HEADER = "x-whiteboard-course";
+    public static final String WHITEBOARD_FROM_SEQ_HEADER = "x-whiteboard-from-seq";
+    public static final String WHITEBOARD_TO_SEQ_HEADER = "x-whiteboard-to-seq";
+    private static final List<String> WHITEBOARD_HEADERS = List.of(WHITEBOARD_NODE_HEADER,
+            WHITEBOARD_COURSE_HEADER, WHITEBOARD_FROM_SEQ_HEADER, WHITEBOARD_TO_SEQ_HEADER);
+
+    // Set by the broker on each session's copy of a frame (see QueueTimestamps); internal
+    public static final String QUEUED_AT_HEADER = "queuedAt";
+
+    // Lazy: depends on the messaging template, which depends on the WebSocket config
+    @Autowired
+    @Lazy
+    private WhiteboardFrameCoalescer whiteboardFrameCoalescer;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private WhiteboardBinaryCodec binaryCodec;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.websocket.outbound.drop-after-millis:1000}")
+    private long dropAfterMillis;
+
+    @Value("${app.websocket.outbound.coalesce-after-millis:250}")
+    private long coalesceAfterMillis;
+
+    @Value("${app.websocket.outbound.droppable:/topic/course/*/typing,/topic/course/*/presence}")
+    private String[] droppable;
+
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+
+    // Droppable destination pattern -> frames dropped
+    private final Map<String, Counter> dropped = new LinkedHashMap<>();
+    private Counter coalescedJson;
+    private Counter coalescedBinary;
+    private Counter terminated;
+
+    // sessionId -> whiteboard destination -> last seq sent in a catch-up frame; only
+    // sessions with covered frames still queued have an entry
+    private final Map<String, Map<String, Long>> whiteboardCursors = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        for (String pattern : droppable) {
+            if (!pattern.isBlank()) {
+                dropped.put(pattern.trim(), Counter.builder("websocket.outbound.dropped")
+                        .description("Frames dropped for sessions lagging behind")
+                        .tag("destination", pattern.trim())
+                        .register(meterRegistry));
+            }
+        }
+        coalescedJson = coalescedCounter("json");
+        coalescedBinary = coalescedCounter("binary");
+        terminated = Counter.builder("websocket.outbound.terminated")
+                .description("Sessions closed for exceeding the send buffer or time limit")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        MessageHeaders headers = message.getHeaders();
+        if (SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE) {
+            return message;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        if (destination == null) {
+            return message;
+        }
+        if (SimpMessageHeaderAccessor.getFirstNativeHeader(WHITEBOARD_TO_SEQ_HEADER, headers) != null) {
+            return whiteboardFrame(message, destination);
+        }
+        if (lagMillis(headers) > dropAfterMillis) {
+            Counter counter = droppedCounter(destination);
+            if (counter != null) {
+                counter.increment();
+                logger.debug("Dropped frame to {} for lagging session {}", destination,
+                        SimpMessageHeaderAccessor.getSessionId(headers));
+                return null;
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Forget a closed session, counting it if it was closed for being too slow.
+     */
+    public void sessionClosed(String sessionId, CloseStatus status) {
+        whiteboardCursors.remove(sessionId);
+        if (status != null && status.equalsCode(CloseStatus.SESSION_NOT_RELIABLE)) {
+            terminated.increment();
+        }
+    }
+
+    private Message<?> whiteboardFrame(Message<?> message, String destination) {
+        MessageHeaders headers = message.getHeaders();
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        // Frames another node broadcast carry its sequence numbers; only ours can be coalesced
+        boolean local = whiteboardFrameCoalescer.getNodeId().equals(
+                SimpMessageHeaderAccessor.getFirstNativeHeader(WHITEBOARD_NODE_HEADER, headers));
+        Long courseId = nativeLong(headers, WHITEBOARD_COURSE_HEADER);
+        Long fromSeq = nativeLong(headers, WHITEBOARD_FROM_SEQ_HEADER);
+        Long toSeq = nativeLong(headers, WHITEBOARD_TO_SEQ_HEADER);
+        boolean binary = destination.endsWith(WhiteboardSubscriptionInterceptor.BINARY_SUFFIX);
+        if (!local || sessionId == null || courseId == null || fromSeq == null || toSeq == null) {
+            return withoutWhiteboardHeaders(message, message.getPayload());
+        }
+
+        Map<String, Long> cursors = whiteboardCursors.get(sessionId);
+        Long cursor = cursors != null ? cursors.get(destination) : null;
+        if (cursor != null) {
+            if (toSeq <= cursor) {
+                // Already sent as part of a catch-up frame
+                (binary ? coalescedBinary : coalescedJson).increment();
+                return null;
+            }
+            // Caught up: this frame starts where the catch-up frame ended
+            cursors.remove(destination);
+        }
+
+        if (lagMillis(headers) <= coalesceAfterMillis) {
+            return withoutWhiteboardHeaders(message, message.getPayload());
+        }
+        WhiteboardFrame catchUp = whiteboardFrameCoalescer.catchUpFrame(courseId, fromSeq);
+        if (catchUp == null || catchUp.getToSeq() <= toSeq) {
+            // Nothing newer has been broadcast, so nothing is queued behind this frame
+            return withoutWhiteboardHeaders(message, message.getPayload());
+        }
+
+        byte[] payload = binary ? binaryCodec.encode(catchUp) : toJson(catchUp);
+        whiteboardCursors.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>())
+                .put(destination, catchUp.getToSeq());
+        (binary ? coalescedBinary : coalescedJson).increment();
+        logger.debug("Coalesced whiteboard frames {}..{} to {} for lagging session {}",
+                fromSeq, catchUp.getToSeq(), destination, sessionId);
+        return withoutWhiteboardHeaders(message, payload);
+    }
+
+    // Keeps the original's other headers, including the ordered-delivery callback
+    private static Message<?> withoutWhiteboardHeaders(Message<?> message, Object payload) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        for (String header : WHITEBOARD_HEADERS) {
+            accessor.removeNativeHeader(header);
+        }
+        return MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+    }
+
+    private static Long nativeLong(MessageHeaders headers, String name) {
+        String value = SimpMessageHeaderAccessor.getFirstNativeHeader(name, headers);
+        try {
+            return value != null ? Long.valueOf(value) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * How long ago the broker queued this session's copy of the frame.
+     */
+    private static long lagMillis(MessageHeaders headers) {
+        Long queuedAt = headers.get(QUEUED_AT_HEADER, Long.class);
+        return queuedAt != null ? System.currentTimeMillis() - queuedAt : 0L;
+    }
+
+    // Same ObjectMapper as the STOMP message converter, so clients see the usual JSON
+    private byte[] toJson(WhiteboardFrame frame) {
+        try {
+            return objectMapper.writeValueAsBytes(frame);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to serialize whiteboard frame: " + e.getMessage());
+        }
+    }
+
+    private Counter droppedCounter(String destination) {
+        for (Map.Entry<String, Counter> entry : dropped.entrySet()) {
+            if (pathMatcher.match(entry.getKey(), destination)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private Counter coalescedCounter(String format) {
+        return Counter.builder("websocket.outbound.coalesced")
+                .description("Whiteboard frames merged into catch-up frames for lagging sessions")
+                .tag("format", format)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Stamps the broker's messages with the time they were created. The broker creates one
+     * per subscribed session and queues it for that session, so this is when the session's
+     * copy of a frame was queued. The messages' own timestamp can't be used: the broker
+     * builds them from fresh headers, which carry none.
+     */
+    public static class QueueTimestamps implements MessageHeaderInitializer {
+
+        @Override
+        public void initHeaders(MessageHeaderAccessor headerAccessor) {
+            headerAccessor.setHeader(QUEUED_AT_HEADER, System.currentTimeMillis());
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.virtualclassroom.config;
+
+import com.virtualclassroom.service.PresenceRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts every inbound frame of a session, heart-beats included, as a sign of life for
+ * {@link PresenceRegistry}.
+ */
+@Component
+public class PresenceHeartbeatInterceptor implements ChannelInterceptor {
+
+    // Lazy: the registry sends through the messaging template, which needs this interceptor's channel
+    @Autowired
+    @Lazy
+    private PresenceRegistry presenceRegistry;
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (sessionId != null) {
+            presenceRegistry.heartbeat(sessionId);
+        }
+        return message;
+    }
+}
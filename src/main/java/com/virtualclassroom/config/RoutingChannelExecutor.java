@@ -0,0 +1,219 @@
+package com.virtualclassroom.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.MessageHandlingRunnable;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor for a STOMP message channel that gives each group of destinations its own
+ * threads, so e.g. slow chat handlers can't hold up whiteboard frames.
+ *
+ * Each lane is matched by destination prefix; messages matching no lane (including
+ * CONNECT, heartbeats and user destinations not listed) run on the default lane, which is
+ * this pool itself. Lanes are platform thread pools, or, with virtual threads enabled on a
+ * JDK that has them, virtual threads capped at the lane's concurrency. Every lane reports
+ * its queued tasks, how long tasks waited and how long they ran, tagged by channel and lane.
+ */
+public class RoutingChannelExecutor extends ThreadPoolTaskExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoutingChannelExecutor.class);
+
+    private static final String DEFAULT_LANE = "default";
+
+    private final String channel;
+    private final int threads;
+    private final int queueCapacity;
+    private final boolean virtualThreads;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, List<String>> lanePrefixes = new LinkedHashMap<>();
+    private final List<Lane> lanes = new ArrayList<>();
+    private Lane defaultLane;
+
+    /**
+     * @param channel Channel name used for thread names and metric tags
+     * @param threads Threads (or concurrent virtual threads) per lane
+     * @param queueCapacity Queued tasks per lane before the sender blocks in the caller
+     * @param virtualThreads Whether to run tasks on virtual threads if the JDK supports them
+     */
+    public RoutingChannelExecutor(String channel, int threads, int queueCapacity, boolean virtualThreads,
+                                  MeterRegistry meterRegistry) {
+        this.channel = channel;
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.virtualThreads = virtualThreads && virtualThreadsSupported();
+        this.meterRegistry = meterRegistry;
+        if (virtualThreads && !this.virtualThreads) {
+            logger.warn("Virtual threads requested for {} but JDK {} doesn't support them; using platform threads",
+                    channel, Runtime.version().feature());
+        }
+        // With virtual threads this pool only runs tasks sent before initialize()
+        setCorePoolSize(this.virtualThreads ? 1 : threads);
+        setMaxPoolSize(this.virtualThreads ? 1 : threads);
+        setQueueCapacity(queueCapacity);
+        setThreadNamePrefix(channel + "-");
+        // A full lane runs the task on the sending thread rather than dropping a frame
+        setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Route destinations starting with any of the prefixes to a lane of their own.
+     * Lanes are matched in the order they were added.
+     */
+    public RoutingChannelExecutor lane(String name, List<String> prefixes) {
+        List<String> trimmed = new ArrayList<>();
+        for (String prefix : prefixes) {
+            if (!prefix.isBlank()) {
+                trimmed.add(prefix.trim());
+            }
+        }
+        if (!trimmed.isEmpty()) {
+            lanePrefixes.put(name, trimmed);
+        }
+        return this;
+    }
+
+    @Override
+    public void initialize() {
+        super.initialize();
+        defaultLane = new Lane(DEFAULT_LANE, List.of(), virtualThreads ? virtualExecutor(DEFAULT_LANE) : super::execute);
+        for (Map.Entry<String, List<String>> entry : lanePrefixes.entrySet()) {
+            String name = entry.getKey();
+            lanes.add(new Lane(name, entry.getValue(), virtualThreads ? virtualExecutor(name) : poolExecutor(name)));
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        Lane lane = defaultLane;
+        if (lane == null) {
+            super.execute(task); // not initialized yet
+            return;
+        }
+        String destination = destinationOf(task);
+        if (destination != null) {
+            for (Lane candidate : lanes) {
+                if (candidate.matches(destination)) {
+                    lane = candidate;
+                    break;
+                }
+            }
+        }
+        lane.submit(task);
+    }
+
+    @Override
+    public void shutdown() {
+        for (Lane lane : lanes) {
+            lane.shutdown();
+        }
+        if (defaultLane != null) {
+            defaultLane.shutdown();
+        }
+        super.shutdown();
+    }
+
+    private static String destinationOf(Runnable task) {
+        if (task instanceof MessageHandlingRunnable) {
+            Message<?> message = ((MessageHandlingRunnable) task).getMessage();
+            return SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        }
+        return null;
+    }
+
+    private Executor poolExecutor(String lane) {
+        ThreadPoolTaskExecutor pool = new ThreadPoolTaskExecutor();
+        pool.setCorePoolSize(threads);
+        pool.setMaxPoolSize(threads);
+        pool.setQueueCapacity(queueCapacity);
+        pool.setThreadNamePrefix(channel + "-" + lane + "-");
+        pool.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.initialize();
+        return pool;
+    }
+
+    private Executor virtualExecutor(String lane) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(channel + "-" + lane + "-");
+        executor.setVirtualThreads(true);
+        // Bounds concurrency like the pool does; senders wait for a free slot
+        executor.setConcurrencyLimit(threads);
+        return executor;
+    }
+
+    private static boolean virtualThreadsSupported() {
+        return Runtime.version().feature() >= 21;
+    }
+
+    /**
+     * One group of destinations with its executor and meters.
+     */
+    private final class Lane {
+        private final List<String> prefixes;
+        private final Executor executor;
+        private final AtomicInteger queued = new AtomicInteger();
+        private final Timer wait;
+        private final Timer run;
+
+        Lane(String name, List<String> prefixes, Executor executor) {
+            this.prefixes = prefixes;
+            this.executor = executor;
+            meterRegistry.gauge("websocket.channel.queued",
+                    Tags.of("channel", channel, "lane", name), queued);
+            wait = Timer.builder("websocket.channel.wait")
+                    .description("Time STOMP channel tasks spent queued")
+                    .tags("channel", channel, "lane", name)
+                    .register(meterRegistry);
+            run = Timer.builder("websocket.channel.task")
+                    .description("Time STOMP channel tasks took to run")
+                    .tags("channel", channel, "lane", name)
+                    .register(meterRegistry);
+        }
+
+        boolean matches(String destination) {
+            for (String prefix : prefixes) {
+                if (destination.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void submit(Runnable task) {
+            long submitted = System.nanoTime();
+            queued.incrementAndGet();
+            executor.execute(() -> {
+                long started = System.nanoTime();
+                queued.decrementAndGet();
+                wait.record(started - submitted, TimeUnit.NANOSECONDS);
+                try {
+                    task.run();
+                } finally {
+                    run.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                }
+            });
+        }
+
+        void shutdown() {
+            if (executor instanceof ThreadPoolTaskExecutor) {
+                ((ThreadPoolTaskExecutor) executor).shutdown();
+            } else if (executor instanceof SimpleAsyncTaskExecutor) {
+                ((SimpleAsyncTaskExecutor) executor).close();
+            }
+        }
+    }
+}
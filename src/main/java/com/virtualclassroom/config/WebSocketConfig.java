@@ -1,25 +1,158 @@
 package com.virtualclassroom.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.simp.config.StompBrokerRelayRegistration;
+import org.springframework.messaging.simp.stomp.StompBrokerRelayMessageHandler;
+import org.springframework.messaging.support.MessageHeaderInitializer;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+
+import jakarta.annotation.PostConstruct;
+import java.util.Arrays;
 
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    private static final Logger logger = LoggerFactory.getLogger(WebSocketConfig.class);
+
+    @Autowired
+    private WhiteboardSubscriptionInterceptor whiteboardSubscriptionInterceptor;
+
+    @Autowired
+    private PresenceHeartbeatInterceptor presenceHeartbeatInterceptor;
+
+    @Autowired
+    private OutboundBackpressureInterceptor outboundBackpressureInterceptor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // 0 = two per CPU core, Spring's default
+    @Value("${app.websocket.inbound.threads:0}")
+    private int inboundThreads;
+
+    @Value("${app.websocket.inbound.queue-capacity:10000}")
+    private int inboundQueueCapacity;
+
+    @Value("${app.websocket.outbound.threads:0}")
+    private int outboundThreads;
+
+    @Value("${app.websocket.outbound.queue-capacity:10000}")
+    private int outboundQueueCapacity;
+
+    // 0 = the broker channel hands messages on in the sending thread
+    @Value("${app.websocket.broker.threads:0}")
+    private int brokerThreads;
+
+    @Value("${app.websocket.broker.queue-capacity:10000}")
+    private int brokerQueueCapacity;
+
+    // simple = in-memory broker in this JVM; relay = external STOMP broker shared by all nodes
+    @Value("${app.websocket.broker.mode:simple}")
+    private String brokerMode;
+
+    @Value("${app.websocket.broker.relay-host:localhost}")
+    private String relayHost;
+
+    @Value("${app.websocket.broker.relay-port:61613}")
+    private int relayPort;
+
+    @Value("${app.websocket.broker.login:guest}")
+    private String relayLogin;
+
+    @Value("${app.websocket.broker.passcode:guest}")
+    private String relayPasscode;
+
+    @Value("${app.websocket.broker.virtual-host:}")
+    private String relayVirtualHost;
+
+    @Value("${app.websocket.broker.embedded:false}")
+    private boolean embeddedBroker;
+
+    @Value("${app.websocket.send-time-limit-millis:10000}")
+    private int sendTimeLimitMillis;
+
+    @Value("${app.websocket.send-buffer-size-limit:524288}")
+    private int sendBufferSizeLimit;
+
+    @Value("${app.websocket.virtual-threads:false}")
+    private boolean virtualThreads;
+
+    @Value("${app.websocket.lanes.chat:/app/chat,/topic/chat,/topic/course,/queue/messages}")
+    private String[] chatPrefixes;
+
+    @Value("${app.websocket.lanes.whiteboard:/app/whiteboard,/topic/whiteboard}")
+    private String[] whiteboardPrefixes;
+
+    @Value("${app.websocket.lanes.video:/app/video,/topic/video,/queue/video}")
+    private String[] videoPrefixes;
+
+    @PostConstruct
+    public void checkBrokerMode() {
+        if (embeddedBroker && !ClassUtils.isPresent("org.apache.activemq.artemis.core.server.embedded.EmbeddedActiveMQ",
+                getClass().getClassLoader())) {
+            throw new RuntimeException("app.websocket.broker.embedded=true, but the embedded broker is not part "
+                    + "of this build; build with the embedded-broker Maven profile (-Pembedded-broker)");
+        }
+        if ("relay".equalsIgnoreCase(brokerMode)) {
+            // Only the broker is shared; see "Running several nodes" in the README
+            logger.warn("Broker relay mode: frames reach clients on every node, but whiteboard logs and "
+                    + "sequence numbers, presence, typing, the chat history cache, unread totals, resend "
+                    + "deduplication, the search index, chat archive segments and cached course authorization "
+                    + "are kept per node. Route all clients of a course to the same node, or whiteboard "
+                    + "sequences will conflict and those views will differ between nodes");
+        }
+    }
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        // Enable a simple memory-based message broker to carry messages back to the client
-        config.enableSimpleBroker("/topic", "/queue", "/user");
+        if ("relay".equalsIgnoreCase(brokerMode)) {
+            // Subscriptions live in the external broker, so every node reaches every client.
+            // Unresolved user destinations and the user registry are shared through it too,
+            // so /user/... sends find sessions connected to other nodes
+            StompBrokerRelayRegistration relay = config.enableStompBrokerRelay("/topic", "/queue")
+                    .setRelayHost(relayHost)
+                    .setRelayPort(relayPort)
+                    .setClientLogin(relayLogin)
+                    .setClientPasscode(relayPasscode)
+                    .setSystemLogin(relayLogin)
+                    .setSystemPasscode(relayPasscode)
+                    .setUserDestinationBroadcast("/topic/unresolved-user-destination")
+                    .setUserRegistryBroadcast("/topic/simp-user-registry");
+            if (!relayVirtualHost.isBlank()) {
+                relay.setVirtualHost(relayVirtualHost);
+            }
+        } else {
+            // Enable a simple memory-based message broker to carry messages back to the client
+            config.enableSimpleBroker("/topic", "/queue", "/user");
+        }
         
         // Prefix for messages that are bound for @MessageMapping methods
         config.setApplicationDestinationPrefixes("/app");
         
         // Prefix for user-specific destinations
         config.setUserDestinationPrefix("/user");
+        
+        // Deliver broker messages to each session in publish order (whiteboard frames rely on it)
+        config.setPreservePublishOrder(true);
+
+        if (brokerThreads > 0) {
+            config.configureBrokerChannel().taskExecutor(channelExecutor("brokerChannel", brokerThreads, brokerQueueCapacity));
+        }
     }
 
     @Override
@@ -40,5 +173,63 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         registry.addEndpoint("/ws-whiteboard")
                 .setAllowedOriginPatterns("*")
                 .withSockJS();
+        
+        // Raw WebSocket for clients negotiating binary whiteboard frames (SockJS is text-only)
+        registry.addEndpoint("/ws-whiteboard-binary")
+                .setAllowedOriginPatterns("*");
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.taskExecutor(channelExecutor("clientInboundChannel", inboundThreads, inboundQueueCapacity));
+        registration.interceptors(presenceHeartbeatInterceptor, whiteboardSubscriptionInterceptor);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.taskExecutor(channelExecutor("clientOutboundChannel", outboundThreads, outboundQueueCapacity));
+        // Drops or coalesces frames for sessions that have fallen behind
+        registration.interceptors(outboundBackpressureInterceptor);
+    }
+
+    /**
+     * Has the broker (simple or relay) stamp each session's copy of a frame as it is queued,
+     * which is what the backpressure interceptor measures lag against. Static, so it doesn't
+     * pull this configuration in early.
+     */
+    @Bean
+    public static BeanPostProcessor brokerQueueTimestamps() {
+        MessageHeaderInitializer initializer = new OutboundBackpressureInterceptor.QueueTimestamps();
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof SimpleBrokerMessageHandler handler) {
+                    handler.setHeaderInitializer(initializer);
+                } else if (bean instanceof StompBrokerRelayMessageHandler handler) {
+                    handler.setHeaderInitializer(initializer);
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Per-session socket limits: a client whose sends stall past the time limit, or whose
+        // unsent frames outgrow the buffer, is disconnected instead of buffered without bound
+        registration.setSendTimeLimit(sendTimeLimitMillis)
+                .setSendBufferSizeLimit(sendBufferSizeLimit);
+    }
+
+    /**
+     * Channel executor with separate chat, whiteboard and video lanes, so a slow handler or
+     * a backed-up topic in one feature doesn't delay the others.
+     */
+    private RoutingChannelExecutor channelExecutor(String channel, int threads, int queueCapacity) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors() * 2;
+        return new RoutingChannelExecutor(channel, poolSize, queueCapacity, virtualThreads, meterRegistry)
+                .lane("whiteboard", Arrays.asList(whiteboardPrefixes))
+                .lane("video", Arrays.asList(videoPrefixes))
+                .lane("chat", Arrays.asList(chatPrefixes));
     }
 }
@@ -1,6 +1,8 @@
 package com.virtualclassroom.config;
 
 import com.virtualclassroom.dto.ChatMessage;
+import com.virtualclassroom.security.StompAuthorizationCache;
+import com.virtualclassroom.service.PresenceRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,6 +13,8 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.socket.messaging.SessionConnectedEvent;
 import org.springframework.web.socket.messaging.SessionDisconnectEvent;
 
+import java.util.Map;
+
 /**
  * Event listener for WebSocket connection and disconnection events
  */
@@ -22,6 +26,15 @@ public class WebSocketEventListener {
     @Autowired
     private SimpMessageSendingOperations messagingTemplate;
 
+    @Autowired
+    private StompAuthorizationCache authorizationCache;
+
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+
+    @Autowired
+    private OutboundBackpressureInterceptor outboundBackpressure;
+
     /**
      * Handle WebSocket connection events
      * @param event The session connected event
@@ -38,9 +51,18 @@ public class WebSocketEventListener {
     @EventListener
     public void handleWebSocketDisconnectListener(SessionDisconnectEvent event) {
         StompHeaderAccessor headerAccessor = StompHeaderAccessor.wrap(event.getMessage());
+        authorizationCache.evictSession(event.getSessionId());
+        // Course chat members are reported offline in the next presence frame
+        presenceRegistry.disconnect(event.getSessionId());
+        outboundBackpressure.sessionClosed(event.getSessionId(), event.getCloseStatus());
 
-        String username = (String) headerAccessor.getSessionAttributes().get("username");
-        String courseId = (String) headerAccessor.getSessionAttributes().get("courseId");
+        Map<String, Object> attributes = headerAccessor.getSessionAttributes();
+        if (attributes == null) {
+            return;
+        }
+        String username = (String) attributes.get("username");
+        // ChatController.addUser stores a Long, WebSocketController.addUser a String
+        Object courseId = attributes.get("courseId");
         
         if(username != null && courseId != null) {
             logger.info("User Disconnected : " + username);
@@ -0,0 +1,155 @@
+package com.virtualclassroom.config;
+
+import com.virtualclassroom.service.WhiteboardBinaryCodec;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Negotiates the wire format of whiteboard topic subscriptions.
+ *
+ * A SUBSCRIBE to /topic/whiteboard/{courseId} whose {@code accept} header lists
+ * application/octet-stream is moved to /topic/whiteboard/{courseId}/binary, where frames
+ * are published in {@link WhiteboardBinaryCodec} format. Other clients keep receiving JSON.
+ * Binary STOMP frames need a raw WebSocket, so binary clients connect to the
+ * /ws-whiteboard-binary endpoint; SockJS transports only carry text.
+ *
+ * Subscriber counts per format are kept so each frame is only encoded for formats that
+ * someone is actually listening to.
+ */
+@Component
+public class WhiteboardSubscriptionInterceptor implements ChannelInterceptor {
+
+    public static final String BINARY_SUFFIX = "/binary";
+
+    private static final Pattern WHITEBOARD_TOPIC = Pattern.compile("^/topic/whiteboard/(\\d+)$");
+    private static final String ACCEPT_HEADER = "accept";
+
+    // sessionId -> subscriptionId -> subscription
+    private final Map<String, Map<String, Subscription>> sessions = new ConcurrentHashMap<>();
+    private final Map<Long, AtomicInteger> jsonSubscribers = new ConcurrentHashMap<>();
+    private final Map<Long, AtomicInteger> binarySubscribers = new ConcurrentHashMap<>();
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+        StompCommand command = accessor.getCommand();
+        if (command == null || accessor.getSessionId() == null) {
+            return message;
+        }
+
+        switch (command) {
+            case SUBSCRIBE:
+                return handleSubscribe(message, accessor);
+            case UNSUBSCRIBE:
+                removeSubscription(accessor.getSessionId(), accessor.getSubscriptionId());
+                return message;
+            case DISCONNECT:
+                Map<String, Subscription> removed = sessions.remove(accessor.getSessionId());
+                if (removed != null) {
+                    removed.values().forEach(this::decrement);
+                }
+                return message;
+            default:
+                return message;
+        }
+    }
+
+    public boolean hasJsonSubscribers(Long courseId) {
+        AtomicInteger count = jsonSubscribers.get(courseId);
+        return count != null && count.get() > 0;
+    }
+
+    public boolean hasBinarySubscribers(Long courseId) {
+        AtomicInteger count = binarySubscribers.get(courseId);
+        return count != null && count.get() > 0;
+    }
+
+    private Message<?> handleSubscribe(Message<?> message, StompHeaderAccessor accessor) {
+        String destination = accessor.getDestination();
+        if (destination == null || accessor.getSubscriptionId() == null) {
+            return message;
+        }
+        Matcher matcher = WHITEBOARD_TOPIC.matcher(destination);
+        if (!matcher.matches()) {
+            return message;
+        }
+
+        Long courseId = Long.valueOf(matcher.group(1));
+        boolean binary = acceptsBinary(accessor.getFirstNativeHeader(ACCEPT_HEADER));
+
+        Subscription subscription = new Subscription(courseId, binary);
+        Subscription previous = sessions.computeIfAbsent(accessor.getSessionId(), k -> new ConcurrentHashMap<>())
+                .put(accessor.getSubscriptionId(), subscription);
+        if (previous != null) {
+            decrement(previous);
+        }
+        (binary ? binarySubscribers : jsonSubscribers)
+                .computeIfAbsent(courseId, k -> new AtomicInteger())
+                .incrementAndGet();
+
+        if (!binary) {
+            return message;
+        }
+        accessor.setDestination(destination + BINARY_SUFFIX);
+        return MessageBuilder.createMessage(message.getPayload(), accessor.getMessageHeaders());
+    }
+
+    private void removeSubscription(String sessionId, String subscriptionId) {
+        Map<String, Subscription> subscriptions = sessions.get(sessionId);
+        if (subscriptions == null || subscriptionId == null) {
+            return;
+        }
+        Subscription removed = subscriptions.remove(subscriptionId);
+        if (removed != null) {
+            decrement(removed);
+        }
+    }
+
+    private void decrement(Subscription subscription) {
+        AtomicInteger count = (subscription.binary ? binarySubscribers : jsonSubscribers).get(subscription.courseId);
+        if (count != null) {
+            count.decrementAndGet();
+        }
+    }
+
+    private static boolean acceptsBinary(String accept) {
+        if (accept == null) {
+            return false;
+        }
+        for (String type : accept.split(",")) {
+            try {
+                // Wildcards like */* don't count: binary has to be asked for explicitly
+                MimeType mimeType = MimeType.valueOf(type.trim());
+                if (!mimeType.isWildcardType() && !mimeType.isWildcardSubtype()
+                        && WhiteboardBinaryCodec.CONTENT_TYPE.isCompatibleWith(mimeType)) {
+                    return true;
+                }
+            } catch (IllegalArgumentException ignored) {
+                // Unparseable media types simply don't count as an opt-in
+            }
+        }
+        return false;
+    }
+
+    private static final class Subscription {
+        private final Long courseId;
+        private final boolean binary;
+
+        Subscription(Long courseId, boolean binary) {
+            this.courseId = courseId;
+            this.binary = binary;
+        }
+    }
+}
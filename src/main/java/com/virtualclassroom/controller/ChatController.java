@@ -1,26 +1,42 @@
 package com.virtualclassroom.controller;
 
 import com.virtualclassroom.dto.ChatMessageRequest;
+import com.virtualclassroom.dto.ConversationDTO;
+import com.virtualclassroom.dto.MessageAck;
+import com.virtualclassroom.dto.MessageCursor;
+import com.virtualclassroom.dto.PresenceFrame;
 import com.virtualclassroom.model.ChatMessage;
 import com.virtualclassroom.model.Course;
 import com.virtualclassroom.model.MessageType;
 import com.virtualclassroom.model.User;
+import com.virtualclassroom.security.StompAuthorizationCache;
+import com.virtualclassroom.security.StompAuthorizationCache.CourseAccess;
+import com.virtualclassroom.service.ChatEnrichmentService;
+import com.virtualclassroom.service.ChatSearchIndex;
 import com.virtualclassroom.service.ChatService;
 import com.virtualclassroom.service.CourseService;
+import com.virtualclassroom.service.PresenceRegistry;
+import com.virtualclassroom.service.TypingAggregator;
 import com.virtualclassroom.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.handler.annotation.SendTo;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 
+import jakarta.validation.Valid;
 import java.security.Principal;
 import java.util.List;
+import java.util.Map;
 
 @Controller
 public class ChatController {
@@ -37,53 +53,88 @@ public class ChatController {
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
     
+    @Autowired
+    private StompAuthorizationCache authorizationCache;
+    
+    @Autowired
+    private ChatSearchIndex searchIndex;
+    
+    @Autowired
+    private TypingAggregator typingAggregator;
+    
+    @Autowired
+    private ChatEnrichmentService enrichmentService;
+    
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+    
+    // Sent explicitly rather than through @SendTo so the message is out before enrichment is queued
     @MessageMapping("/chat.sendMessage/{courseId}")
-    @SendTo("/topic/course/{courseId}")
-    public ChatMessage sendMessage(@DestinationVariable Long courseId, 
-                                 @Payload ChatMessageRequest messageRequest,
-                                 Principal principal) {
+    public void sendMessage(@DestinationVariable Long courseId, 
+                            @Valid @Payload ChatMessageRequest messageRequest,
+                            SimpMessageHeaderAccessor headerAccessor,
+                            Principal principal) {
         
-        User sender = userService.getUserByUsername(principal.getName());
-        Course course = courseService.getCourseById(courseId);
+        String sessionId = headerAccessor.getSessionId();
+        User sender = authorizationCache.resolveUser(sessionId, principal);
+        CourseAccess access = authorizationCache.getCourseAccess(sessionId, sender, courseId);
         
         // Verify user is enrolled in the course
-        if (!courseService.isStudentEnrolled(sender, course) && 
-            !course.getInstructor().equals(sender) && 
-            !sender.isAdmin()) {
+        if (!access.canAccess()) {
             throw new RuntimeException("Not authorized to send messages in this course");
         }
         
-        ChatMessage message = chatService.createCourseMessage(
-            messageRequest.getContent(), 
-            sender, 
-            course, 
-            MessageType.valueOf(messageRequest.getType().toUpperCase())
-        );
+        ChatMessage message = chatService.createCourseMessage(messageRequest, sender, access.getCourse());
+        if (message == null) {
+            // A resend: redeliver the original if its broadcast failed, otherwise just ack it
+            message = chatService.takeUndelivered(sender, messageRequest.getClientMessageId());
+            if (message == null) {
+                acknowledgeResend(sessionId, sender, messageRequest);
+                return;
+            }
+        }
         
-        return message;
+        try {
+            messagingTemplate.convertAndSend("/topic/course/" + courseId, message);
+        } catch (RuntimeException e) {
+            chatService.sendFailed(message);
+            throw e;
+        }
+        // Link previews, attachment metadata and reply context follow on /topic/course/{courseId}/enrichment
+        enrichmentService.enrichAsync(message);
     }
     
     @MessageMapping("/chat.sendDirectMessage/{recipientId}")
     public void sendDirectMessage(@DestinationVariable Long recipientId,
-                                @Payload ChatMessageRequest messageRequest,
+                                @Valid @Payload ChatMessageRequest messageRequest,
+                                SimpMessageHeaderAccessor headerAccessor,
                                 Principal principal) {
         
-        User sender = userService.getUserByUsername(principal.getName());
+        String sessionId = headerAccessor.getSessionId();
+        User sender = authorizationCache.resolveUser(sessionId, principal);
         User recipient = userService.getUserById(recipientId);
         
-        ChatMessage message = chatService.createDirectMessage(
-            messageRequest.getContent(),
-            sender,
-            recipient,
-            MessageType.valueOf(messageRequest.getType().toUpperCase())
-        );
+        ChatMessage message = chatService.createDirectMessage(messageRequest, sender, recipient);
+        if (message == null) {
+            message = chatService.takeUndelivered(sender, messageRequest.getClientMessageId());
+            if (message == null) {
+                acknowledgeResend(sessionId, sender, messageRequest);
+                return;
+            }
+        }
         
         // Send to recipient's personal queue
-        messagingTemplate.convertAndSendToUser(
-            recipient.getUsername(),
-            "/queue/messages",
-            message
-        );
+        try {
+            messagingTemplate.convertAndSendToUser(
+                recipient.getUsername(),
+                "/queue/messages",
+                message
+            );
+        } catch (RuntimeException e) {
+            chatService.sendFailed(message);
+            throw e;
+        }
+        enrichmentService.enrichAsync(message);
     }
     
     @MessageMapping("/chat.addUser/{courseId}")
@@ -92,12 +143,20 @@ public class ChatController {
                              SimpMessageHeaderAccessor headerAccessor,
                              Principal principal) {
         
-        User user = userService.getUserByUsername(principal.getName());
-        Course course = courseService.getCourseById(courseId);
+        String sessionId = headerAccessor.getSessionId();
+        User user = authorizationCache.resolveUser(sessionId, principal);
+        CourseAccess access = authorizationCache.getCourseAccess(sessionId, user, courseId);
+        
+        // Only members show up in, and get to follow, the course's presence
+        if (!access.canAccess()) {
+            throw new RuntimeException("Not authorized to join this course's chat");
+        }
+        Course course = access.getCourse();
         
         // Add username in web socket session
         headerAccessor.getSessionAttributes().put("username", user.getUsername());
         headerAccessor.getSessionAttributes().put("courseId", courseId);
+        presenceRegistry.join(sessionId, user, courseId);
         
         ChatMessage message = new ChatMessage();
         message.setType(MessageType.SYSTEM);
@@ -108,26 +167,35 @@ public class ChatController {
         return message;
     }
     
+    // Typing state is aggregated and broadcast as one frame per course per tick
     @MessageMapping("/chat.typing/{courseId}")
-    @SendTo("/topic/course/{courseId}/typing")
-    public ChatMessage userTyping(@DestinationVariable Long courseId,
-                                Principal principal) {
+    public void userTyping(@DestinationVariable Long courseId,
+                           SimpMessageHeaderAccessor headerAccessor,
+                           Principal principal) {
         
-        User user = userService.getUserByUsername(principal.getName());
-        
-        ChatMessage typingMessage = new ChatMessage();
-        typingMessage.setType(MessageType.SYSTEM);
-        typingMessage.setContent("typing");
-        typingMessage.setSender(user);
+        String sessionId = headerAccessor.getSessionId();
+        User user = authorizationCache.resolveUser(sessionId, principal);
+        if (authorizationCache.getCourseAccess(sessionId, user, courseId).canAccess()) {
+            typingAggregator.typing(courseId, user);
+        }
+    }
+    
+    @MessageMapping("/chat.stopTyping/{courseId}")
+    public void userStoppedTyping(@DestinationVariable Long courseId,
+                                  SimpMessageHeaderAccessor headerAccessor,
+                                  Principal principal) {
         
-        return typingMessage;
+        User user = authorizationCache.resolveUser(headerAccessor.getSessionId(), principal);
+        typingAggregator.stoppedTyping(courseId, user.getId());
     }
     
+    // Pass before=<createdAt>,<id> (from X-Next-Cursor) to page back by keyset instead of offset
     @GetMapping("/api/chat/course/{courseId}/messages")
     @ResponseBody
-    public List<ChatMessage> getCourseMessages(@PathVariable Long courseId,
+    public ResponseEntity<List<ChatMessage>> getCourseMessages(@PathVariable Long courseId,
                                              @RequestParam(defaultValue = "0") int page,
                                              @RequestParam(defaultValue = "50") int size,
+                                             @RequestParam(required = false) String before,
                                              Authentication authentication) {
         
         User user = (User) authentication.getPrincipal();
@@ -140,20 +208,77 @@ public class ChatController {
             throw new RuntimeException("Not authorized to view messages in this course");
         }
         
-        return chatService.getCourseMessages(course, page, size);
+        List<ChatMessage> messages = before != null
+            ? chatService.getCourseMessagesBefore(course, MessageCursor.parse(before), size)
+            : chatService.getCourseMessages(course, page, size);
+        return withNextCursor(messages);
+    }
+    
+    @GetMapping("/api/chat/course/{courseId}/search")
+    @ResponseBody
+    public List<ChatMessage> searchCourseMessages(@PathVariable Long courseId,
+                                                @RequestParam("q") String query,
+                                                @RequestParam(defaultValue = "20") int limit,
+                                                Authentication authentication) {
+        
+        User user = (User) authentication.getPrincipal();
+        Course course = courseService.getCourseById(courseId);
+        
+        // Verify access
+        if (!courseService.isStudentEnrolled(user, course) && 
+            !course.getInstructor().equals(user) && 
+            !user.isAdmin()) {
+            throw new RuntimeException("Not authorized to search messages in this course");
+        }
+        
+        return chatService.searchCourseMessages(course, query, limit);
+    }
+    
+    // Changes after this snapshot arrive as frames on /topic/course/{courseId}/presence
+    @GetMapping("/api/chat/course/{courseId}/online")
+    @ResponseBody
+    public List<PresenceFrame.Member> getOnlineUsers(@PathVariable Long courseId,
+                                                     Authentication authentication) {
+        
+        User user = (User) authentication.getPrincipal();
+        Course course = courseService.getCourseById(courseId);
+        
+        // Verify access
+        if (!courseService.isStudentEnrolled(user, course) && 
+            !course.getInstructor().equals(user) && 
+            !user.isAdmin()) {
+            throw new RuntimeException("Not authorized to view this course");
+        }
+        
+        return presenceRegistry.getOnline(courseId);
+    }
+    
+    @PostMapping("/api/chat/search/rebuild")
+    @PreAuthorize("hasRole('ADMIN')")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> rebuildSearchIndex() {
+        long indexed = searchIndex.rebuild();
+        if (indexed < 0) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("message", "Rebuild already in progress"));
+        }
+        return ResponseEntity.ok(Map.of("indexed", indexed));
     }
     
     @GetMapping("/api/chat/direct/{userId}/messages")
     @ResponseBody
-    public List<ChatMessage> getDirectMessages(@PathVariable Long userId,
+    public ResponseEntity<List<ChatMessage>> getDirectMessages(@PathVariable Long userId,
                                              @RequestParam(defaultValue = "0") int page,
                                              @RequestParam(defaultValue = "50") int size,
+                                             @RequestParam(required = false) String before,
                                              Authentication authentication) {
         
         User currentUser = (User) authentication.getPrincipal();
         User otherUser = userService.getUserById(userId);
         
-        return chatService.getDirectMessages(currentUser, otherUser, page, size);
+        List<ChatMessage> messages = before != null
+            ? chatService.getDirectMessagesBefore(currentUser, otherUser, MessageCursor.parse(before), size)
+            : chatService.getDirectMessages(currentUser, otherUser, page, size);
+        return withNextCursor(messages);
     }
     
     @PostMapping("/api/chat/message/{messageId}/edit")
@@ -177,8 +302,46 @@ public class ChatController {
     
     @GetMapping("/api/chat/conversations")
     @ResponseBody
-    public List<ChatMessage> getRecentConversations(Authentication authentication) {
+    public List<ConversationDTO> getRecentConversations(Authentication authentication) {
         User user = (User) authentication.getPrincipal();
         return chatService.getRecentConversations(user);
     }
+    
+    @PostMapping("/api/chat/conversations/{userId}/read")
+    @ResponseBody
+    public void markConversationRead(@PathVariable Long userId,
+                                     @RequestParam(required = false) Long upTo,
+                                     Authentication authentication) {
+        
+        User user = (User) authentication.getPrincipal();
+        chatService.markConversationRead(user, userService.getUserById(userId), upTo);
+    }
+    
+    @GetMapping("/api/chat/unread")
+    @ResponseBody
+    public Map<String, Long> getUnreadCount(Authentication authentication) {
+        User user = (User) authentication.getPrincipal();
+        return Map.of("total", chatService.getUnreadMessageCount(user));
+    }
+    
+    private ResponseEntity<List<ChatMessage>> withNextCursor(List<ChatMessage> messages) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (!messages.isEmpty()) {
+            response.header("X-Next-Cursor", MessageCursor.of(messages.get(messages.size() - 1)).toString());
+        }
+        return response.body(messages);
+    }
+    
+    /**
+     * Tell the sending session that its resend was dropped because the message was already
+     * sent, so the client can settle its pending send instead of retrying again.
+     */
+    private void acknowledgeResend(String sessionId, User sender, ChatMessageRequest request) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setLeaveMutable(true);
+        MessageAck ack = new MessageAck(request.getClientMessageId(),
+            chatService.getResentMessageId(sender, request.getClientMessageId()));
+        messagingTemplate.convertAndSendToUser(sender.getUsername(), "/queue/acks", ack, headers.getMessageHeaders());
+    }
 }
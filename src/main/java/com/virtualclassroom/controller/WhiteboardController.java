@@ -3,16 +3,26 @@ package com.virtualclassroom.controller;
 import com.virtualclassroom.dto.WhiteboardAction;
 import com.virtualclassroom.model.Course;
 import com.virtualclassroom.model.User;
+import com.virtualclassroom.security.StompAuthorizationCache;
 import com.virtualclassroom.service.CourseService;
+import com.virtualclassroom.service.FileStorageService;
+import com.virtualclassroom.service.WhiteboardFrameCoalescer;
+import com.virtualclassroom.service.WhiteboardRasterizer;
+import com.virtualclassroom.service.WhiteboardReplayService;
 import com.virtualclassroom.service.WhiteboardService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.handler.annotation.SendTo;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
 import java.security.Principal;
 import java.util.Map;
@@ -26,19 +36,33 @@ public class WhiteboardController {
     @Autowired
     private CourseService courseService;
     
+    @Autowired
+    private WhiteboardFrameCoalescer frameCoalescer;
+    
+    @Autowired
+    private StompAuthorizationCache authorizationCache;
+    
+    @Autowired
+    private WhiteboardRasterizer rasterizer;
+    
+    @Autowired
+    private FileStorageService fileStorageService;
+    
+    @Autowired
+    private WhiteboardReplayService replayService;
+    
+    // Broadcast happens in batched frames on /topic/whiteboard/{courseId}, see WhiteboardFrameCoalescer
     @MessageMapping("/whiteboard.draw/{courseId}")
-    @SendTo("/topic/whiteboard/{courseId}")
-    public WhiteboardAction drawOnWhiteboard(@DestinationVariable Long courseId,
+    public void drawOnWhiteboard(@DestinationVariable Long courseId,
                                            @Payload WhiteboardAction action,
+                                           SimpMessageHeaderAccessor headerAccessor,
                                            Principal principal) {
         
-        User user = (User) ((Authentication) principal).getPrincipal();
-        Course course = courseService.getCourseById(courseId);
+        String sessionId = headerAccessor.getSessionId();
+        User user = authorizationCache.resolveUser(sessionId, principal);
         
         // Verify access
-        if (!courseService.isStudentEnrolled(user, course) && 
-            !course.getInstructor().equals(user) && 
-            !user.isAdmin()) {
+        if (!authorizationCache.getCourseAccess(sessionId, user, courseId).canAccess()) {
             throw new RuntimeException("Not authorized to use whiteboard");
         }
         
@@ -52,45 +76,43 @@ public class WhiteboardController {
         action.setTimestamp(System.currentTimeMillis());
         
         whiteboardService.saveAction(courseId, action);
-        
-        return action;
+        frameCoalescer.markDirty(courseId);
     }
     
     @MessageMapping("/whiteboard.clear/{courseId}")
-    @SendTo("/topic/whiteboard/{courseId}")
-    public WhiteboardAction clearWhiteboard(@DestinationVariable Long courseId,
+    public void clearWhiteboard(@DestinationVariable Long courseId,
+                                          SimpMessageHeaderAccessor headerAccessor,
                                           Principal principal) {
         
-        User user = (User) ((Authentication) principal).getPrincipal();
-        Course course = courseService.getCourseById(courseId);
+        String sessionId = headerAccessor.getSessionId();
+        User user = authorizationCache.resolveUser(sessionId, principal);
         
         // Only instructors can clear whiteboard
-        if (!course.getInstructor().equals(user) && !user.isAdmin()) {
+        if (!authorizationCache.getCourseAccess(sessionId, user, courseId).canManage()) {
             throw new RuntimeException("Only instructors can clear whiteboard");
         }
         
         WhiteboardAction clearAction = new WhiteboardAction();
-        clearAction.setAction("clear");
         clearAction.setUserId(user.getId());
         clearAction.setUserName(user.getFullName());
         clearAction.setTimestamp(System.currentTimeMillis());
         
-        whiteboardService.clearWhiteboard(courseId);
-        
-        return clearAction;
+        whiteboardService.clearWhiteboard(courseId, clearAction);
+        frameCoalescer.markDirty(courseId);
     }
     
     @MessageMapping("/whiteboard.permission/{courseId}")
     @SendTo("/topic/whiteboard/{courseId}/permission")
     public Map<String, Object> toggleDrawingPermission(@DestinationVariable Long courseId,
                                                       @Payload Map<String, Object> request,
+                                                      SimpMessageHeaderAccessor headerAccessor,
                                                       Principal principal) {
         
-        User instructor = (User) ((Authentication) principal).getPrincipal();
-        Course course = courseService.getCourseById(courseId);
+        String sessionId = headerAccessor.getSessionId();
+        User instructor = authorizationCache.resolveUser(sessionId, principal);
         
         // Only instructors can manage permissions
-        if (!course.getInstructor().equals(instructor) && !instructor.isAdmin()) {
+        if (!authorizationCache.getCourseAccess(sessionId, instructor, courseId).canManage()) {
             throw new RuntimeException("Only instructors can manage whiteboard permissions");
         }
         
@@ -103,6 +125,7 @@ public class WhiteboardController {
     @GetMapping("/api/whiteboard/{courseId}/state")
     @ResponseBody
     public Map<String, Object> getWhiteboardState(@PathVariable Long courseId,
+                                                 @RequestParam(required = false) Long since,
                                                  Authentication authentication) {
         
         User user = (User) authentication.getPrincipal();
@@ -115,7 +138,86 @@ public class WhiteboardController {
             throw new RuntimeException("Not authorized to view whiteboard");
         }
         
-        return whiteboardService.getWhiteboardState(courseId, user);
+        return whiteboardService.getWhiteboardState(courseId, user, since);
+    }
+    
+    @GetMapping("/api/whiteboard/{courseId}/objects")
+    @ResponseBody
+    public Map<String, Object> getObjectsInViewport(@PathVariable Long courseId,
+                                                    @RequestParam double x,
+                                                    @RequestParam double y,
+                                                    @RequestParam double width,
+                                                    @RequestParam double height,
+                                                    Authentication authentication) {
+        
+        User user = (User) authentication.getPrincipal();
+        Course course = courseService.getCourseById(courseId);
+        
+        // Verify access
+        if (!courseService.isStudentEnrolled(user, course) && 
+            !course.getInstructor().equals(user) && 
+            !user.isAdmin()) {
+            throw new RuntimeException("Not authorized to view whiteboard");
+        }
+        
+        return whiteboardService.getObjectsInViewport(courseId, x, y, width, height);
+    }
+    
+    /**
+     * Serve the server-rendered preview of a board. Answers 202 while the first render is
+     * still in progress; afterwards the latest render is served and refreshed in the
+     * background once the board changes.
+     */
+    @GetMapping("/api/whiteboard/{courseId}/preview")
+    public ResponseEntity<Resource> getWhiteboardPreview(@PathVariable Long courseId,
+                                                         @RequestParam(defaultValue = "false") boolean thumbnail,
+                                                         Authentication authentication) {
+        
+        User user = (User) authentication.getPrincipal();
+        Course course = courseService.getCourseById(courseId);
+        
+        // Verify access
+        if (!courseService.isStudentEnrolled(user, course) && 
+            !course.getInstructor().equals(user) && 
+            !user.isAdmin()) {
+            throw new RuntimeException("Not authorized to view whiteboard");
+        }
+        
+        WhiteboardRasterizer.Preview preview = rasterizer.getPreview(courseId);
+        if (preview == null) {
+            return ResponseEntity.accepted().build();
+        }
+        
+        Resource resource = fileStorageService.loadFileAsResource(
+                thumbnail ? preview.getThumbnailPath() : preview.getImagePath());
+        return ResponseEntity.ok()
+                .contentType(MediaType.IMAGE_PNG)
+                .header("X-Whiteboard-Seq", String.valueOf(preview.getSeq()))
+                .body(resource);
+    }
+    
+    /**
+     * Replay the persisted log with its original timing as newline-delimited JSON.
+     * {@code speed} speeds playback up (or slows it down) by a constant factor.
+     */
+    @GetMapping("/api/whiteboard/{courseId}/replay")
+    public ResponseEntity<ResponseBodyEmitter> replayWhiteboard(@PathVariable Long courseId,
+                                                                @RequestParam(defaultValue = "1") double speed,
+                                                                Authentication authentication) {
+        
+        User user = (User) authentication.getPrincipal();
+        Course course = courseService.getCourseById(courseId);
+        
+        // Verify access
+        if (!courseService.isStudentEnrolled(user, course) && 
+            !course.getInstructor().equals(user) && 
+            !user.isAdmin()) {
+            throw new RuntimeException("Not authorized to view whiteboard");
+        }
+        
+        return ResponseEntity.ok()
+                .contentType(WhiteboardReplayService.NDJSON)
+                .body(replayService.startReplay(courseId, speed));
     }
     
     @PostMapping("/api/whiteboard/{courseId}/save")
@@ -132,6 +234,9 @@ public class WhiteboardController {
             throw new RuntimeException("Only instructors can save whiteboard");
         }
         
+        // Refresh the server-side preview alongside the client's snapshot
+        rasterizer.requestRender(courseId);
+        
         return whiteboardService.saveWhiteboardSnapshot(courseId, request, user);
     }
 }
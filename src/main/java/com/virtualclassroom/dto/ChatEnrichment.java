@@ -0,0 +1,203 @@
+package com.virtualclassroom.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * DTO sent after a chat message has been broadcast, carrying what took longer to work out:
+ * link previews, attachment metadata and the context of the message replied to.
+ * Clients merge it into the message with the same {@code messageId}.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ChatEnrichment {
+
+    private Long messageId;
+    private List<LinkPreview> linkPreviews;
+    private AttachmentInfo attachment;
+    private ReplyContext replyTo;
+
+    public ChatEnrichment() {
+    }
+
+    public ChatEnrichment(Long messageId) {
+        this.messageId = messageId;
+    }
+
+    public boolean isEmpty() {
+        return (linkPreviews == null || linkPreviews.isEmpty()) && attachment == null && replyTo == null;
+    }
+
+    public Long getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(Long messageId) {
+        this.messageId = messageId;
+    }
+
+    public List<LinkPreview> getLinkPreviews() {
+        return linkPreviews;
+    }
+
+    public void setLinkPreviews(List<LinkPreview> linkPreviews) {
+        this.linkPreviews = linkPreviews;
+    }
+
+    public AttachmentInfo getAttachment() {
+        return attachment;
+    }
+
+    public void setAttachment(AttachmentInfo attachment) {
+        this.attachment = attachment;
+    }
+
+    public ReplyContext getReplyTo() {
+        return replyTo;
+    }
+
+    public void setReplyTo(ReplyContext replyTo) {
+        this.replyTo = replyTo;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class LinkPreview {
+
+        private String url;
+        private String title;
+        private String description;
+        private String imageUrl;
+
+        public LinkPreview() {
+        }
+
+        public LinkPreview(String url, String title, String description, String imageUrl) {
+            this.url = url;
+            this.title = title;
+            this.description = description;
+            this.imageUrl = imageUrl;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public void setDescription(String description) {
+            this.description = description;
+        }
+
+        public String getImageUrl() {
+            return imageUrl;
+        }
+
+        public void setImageUrl(String imageUrl) {
+            this.imageUrl = imageUrl;
+        }
+    }
+
+    public static class AttachmentInfo {
+
+        private String name;
+        private String contentType;
+        private long size;
+
+        public AttachmentInfo() {
+        }
+
+        public AttachmentInfo(String name, String contentType, long size) {
+            this.name = name;
+            this.contentType = contentType;
+            this.size = size;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public void setContentType(String contentType) {
+            this.contentType = contentType;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+    }
+
+    public static class ReplyContext {
+
+        private Long messageId;
+        private Long senderId;
+        private String senderName;
+        private String preview;
+
+        public ReplyContext() {
+        }
+
+        public ReplyContext(Long messageId, Long senderId, String senderName, String preview) {
+            this.messageId = messageId;
+            this.senderId = senderId;
+            this.senderName = senderName;
+            this.preview = preview;
+        }
+
+        public Long getMessageId() {
+            return messageId;
+        }
+
+        public void setMessageId(Long messageId) {
+            this.messageId = messageId;
+        }
+
+        public Long getSenderId() {
+            return senderId;
+        }
+
+        public void setSenderId(Long senderId) {
+            this.senderId = senderId;
+        }
+
+        public String getSenderName() {
+            return senderName;
+        }
+
+        public void setSenderName(String senderName) {
+            this.senderName = senderName;
+        }
+
+        public String getPreview() {
+            return preview;
+        }
+
+        public void setPreview(String preview) {
+            this.preview = preview;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.virtualclassroom.dto;
 
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
 
 public class ChatMessageRequest {
     
@@ -15,6 +16,10 @@ public class ChatMessageRequest {
     
     private Long replyToId;
     
+    // Client-generated id; resends of the same id within the dedup window are dropped
+    @Size(max = 64, message = "Client message ID must be at most 64 characters")
+    private String clientMessageId;
+    
     // Constructors
     public ChatMessageRequest() {}
     
@@ -38,4 +43,7 @@ public class ChatMessageRequest {
     
     public Long getReplyToId() { return replyToId; }
     public void setReplyToId(Long replyToId) { this.replyToId = replyToId; }
+    
+    public String getClientMessageId() { return clientMessageId; }
+    public void setClientMessageId(String clientMessageId) { this.clientMessageId = clientMessageId; }
 }
@@ -0,0 +1,113 @@
+package com.virtualclassroom.dto;
+
+import com.virtualclassroom.model.ChatConversation;
+import com.virtualclassroom.model.User;
+
+import java.time.LocalDateTime;
+
+/**
+ * DTO for an inbox entry: the conversation partner, the latest message and the number of
+ * unread messages from the partner.
+ */
+public class ConversationDTO {
+
+    private Long partnerId;
+    private String partnerUsername;
+    private String partnerName;
+    private Long lastMessageId;
+    private String lastMessagePreview;
+    private Long lastSenderId;
+    private LocalDateTime lastActivityAt;
+    private int unreadCount;
+    private Long lastReadMessageId;
+
+    public ConversationDTO() {
+    }
+
+    public static ConversationDTO from(ChatConversation conversation) {
+        User partner = conversation.getPartner();
+        ConversationDTO dto = new ConversationDTO();
+        dto.setPartnerId(partner.getId());
+        dto.setPartnerUsername(partner.getUsername());
+        dto.setPartnerName(partner.getFullName());
+        dto.setLastMessageId(conversation.getLastMessageId());
+        dto.setLastMessagePreview(conversation.getLastMessagePreview());
+        dto.setLastSenderId(conversation.getLastSenderId());
+        dto.setLastActivityAt(conversation.getLastActivityAt());
+        dto.setUnreadCount(conversation.getUnreadCount());
+        dto.setLastReadMessageId(conversation.getLastReadMessageId());
+        return dto;
+    }
+
+    public Long getPartnerId() {
+        return partnerId;
+    }
+
+    public void setPartnerId(Long partnerId) {
+        this.partnerId = partnerId;
+    }
+
+    public String getPartnerUsername() {
+        return partnerUsername;
+    }
+
+    public void setPartnerUsername(String partnerUsername) {
+        this.partnerUsername = partnerUsername;
+    }
+
+    public String getPartnerName() {
+        return partnerName;
+    }
+
+    public void setPartnerName(String partnerName) {
+        this.partnerName = partnerName;
+    }
+
+    public Long getLastMessageId() {
+        return lastMessageId;
+    }
+
+    public void setLastMessageId(Long lastMessageId) {
+        this.lastMessageId = lastMessageId;
+    }
+
+    public String getLastMessagePreview() {
+        return lastMessagePreview;
+    }
+
+    public void setLastMessagePreview(String lastMessagePreview) {
+        this.lastMessagePreview = lastMessagePreview;
+    }
+
+    public Long getLastSenderId() {
+        return lastSenderId;
+    }
+
+    public void setLastSenderId(Long lastSenderId) {
+        this.lastSenderId = lastSenderId;
+    }
+
+    public LocalDateTime getLastActivityAt() {
+        return lastActivityAt;
+    }
+
+    public void setLastActivityAt(LocalDateTime lastActivityAt) {
+        this.lastActivityAt = lastActivityAt;
+    }
+
+    public int getUnreadCount() {
+        return unreadCount;
+    }
+
+    public void setUnreadCount(int unreadCount) {
+        this.unreadCount = unreadCount;
+    }
+
+    public Long getLastReadMessageId() {
+        return lastReadMessageId;
+    }
+
+    public void setLastReadMessageId(Long lastReadMessageId) {
+        this.lastReadMessageId = lastReadMessageId;
+    }
+}
@@ -0,0 +1,36 @@
+package com.virtualclassroom.dto;
+
+/**
+ * DTO pushed to the sending session on {@code /user/queue/acks} when a resent chat
+ * message is dropped: the send with {@code clientMessageId} was already delivered as
+ * {@code messageId}.
+ */
+public class MessageAck {
+
+    private String clientMessageId;
+    private Long messageId;
+
+    public MessageAck() {
+    }
+
+    public MessageAck(String clientMessageId, Long messageId) {
+        this.clientMessageId = clientMessageId;
+        this.messageId = messageId;
+    }
+
+    public String getClientMessageId() {
+        return clientMessageId;
+    }
+
+    public void setClientMessageId(String clientMessageId) {
+        this.clientMessageId = clientMessageId;
+    }
+
+    public Long getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(Long messageId) {
+        this.messageId = messageId;
+    }
+}
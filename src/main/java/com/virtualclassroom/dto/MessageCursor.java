@@ -0,0 +1,55 @@
+package com.virtualclassroom.dto;
+
+import com.virtualclassroom.model.ChatMessage;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Keyset cursor into chat history: the (createdAt, id) of the oldest message a client has.
+ * Written as {@code <ISO createdAt>,<id>}, e.g. {@code 2024-03-01T10:15:30.123456,4711}.
+ */
+public class MessageCursor {
+
+    private final LocalDateTime createdAt;
+    private final Long id;
+
+    public MessageCursor(LocalDateTime createdAt, Long id) {
+        this.createdAt = createdAt;
+        this.id = id;
+    }
+
+    public static MessageCursor of(ChatMessage message) {
+        return new MessageCursor(message.getCreatedAt(), message.getId());
+    }
+
+    public static MessageCursor parse(String value) {
+        int comma = value != null ? value.lastIndexOf(',') : -1;
+        if (comma <= 0) {
+            throw new RuntimeException("Invalid cursor, expected <createdAt>,<id>");
+        }
+        try {
+            return new MessageCursor(LocalDateTime.parse(value.substring(0, comma).trim()),
+                    Long.parseLong(value.substring(comma + 1).trim()));
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new RuntimeException("Invalid cursor, expected <createdAt>,<id>");
+        }
+    }
+
+    /**
+     * Whether a message is older than the cursor, i.e. belongs on the page after it.
+     */
+    public boolean isOlder(ChatMessage message) {
+        int byTime = message.getCreatedAt().compareTo(createdAt);
+        return byTime < 0 || (byTime == 0 && message.getId() < id);
+    }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+
+    public Long getId() { return id; }
+
+    @Override
+    public String toString() {
+        return createdAt + "," + id;
+    }
+}
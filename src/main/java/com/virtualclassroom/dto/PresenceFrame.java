@@ -0,0 +1,87 @@
+package com.virtualclassroom.dto;
+
+import java.util.List;
+
+/**
+ * DTO for the batched presence change of a course: who came online and who went offline
+ * since the previous frame, plus the resulting number of users online.
+ */
+public class PresenceFrame {
+
+    private Long courseId;
+    private List<Member> joined;
+    private List<Long> left;
+    private int online;
+
+    public PresenceFrame() {
+    }
+
+    public PresenceFrame(Long courseId, List<Member> joined, List<Long> left, int online) {
+        this.courseId = courseId;
+        this.joined = joined;
+        this.left = left;
+        this.online = online;
+    }
+
+    public Long getCourseId() {
+        return courseId;
+    }
+
+    public void setCourseId(Long courseId) {
+        this.courseId = courseId;
+    }
+
+    public List<Member> getJoined() {
+        return joined;
+    }
+
+    public void setJoined(List<Member> joined) {
+        this.joined = joined;
+    }
+
+    public List<Long> getLeft() {
+        return left;
+    }
+
+    public void setLeft(List<Long> left) {
+        this.left = left;
+    }
+
+    public int getOnline() {
+        return online;
+    }
+
+    public void setOnline(int online) {
+        this.online = online;
+    }
+
+    public static class Member {
+
+        private Long userId;
+        private String name;
+
+        public Member() {
+        }
+
+        public Member(Long userId, String name) {
+            this.userId = userId;
+            this.name = name;
+        }
+
+        public Long getUserId() {
+            return userId;
+        }
+
+        public void setUserId(Long userId) {
+            this.userId = userId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.virtualclassroom.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * DTO pushed to {@code /user/queue/receipts} when a conversation partner reads messages:
+ * everything up to {@code lastReadMessageId} has been seen by {@code readerId}.
+ */
+public class ReadReceipt {
+
+    private Long readerId;
+    private Long lastReadMessageId;
+    private LocalDateTime readAt;
+
+    public ReadReceipt() {
+    }
+
+    public ReadReceipt(Long readerId, Long lastReadMessageId, LocalDateTime readAt) {
+        this.readerId = readerId;
+        this.lastReadMessageId = lastReadMessageId;
+        this.readAt = readAt;
+    }
+
+    public Long getReaderId() {
+        return readerId;
+    }
+
+    public void setReaderId(Long readerId) {
+        this.readerId = readerId;
+    }
+
+    public Long getLastReadMessageId() {
+        return lastReadMessageId;
+    }
+
+    public void setLastReadMessageId(Long lastReadMessageId) {
+        this.lastReadMessageId = lastReadMessageId;
+    }
+
+    public LocalDateTime getReadAt() {
+        return readAt;
+    }
+
+    public void setReadAt(LocalDateTime readAt) {
+        this.readAt = readAt;
+    }
+}
@@ -0,0 +1,67 @@
+package com.virtualclassroom.dto;
+
+import java.util.List;
+
+/**
+ * DTO for the coalesced typing indicator of a course: everyone currently typing.
+ * An empty list means nobody is typing any more.
+ */
+public class TypingFrame {
+
+    private Long courseId;
+    private List<Typist> typists;
+
+    public TypingFrame() {
+    }
+
+    public TypingFrame(Long courseId, List<Typist> typists) {
+        this.courseId = courseId;
+        this.typists = typists;
+    }
+
+    public Long getCourseId() {
+        return courseId;
+    }
+
+    public void setCourseId(Long courseId) {
+        this.courseId = courseId;
+    }
+
+    public List<Typist> getTypists() {
+        return typists;
+    }
+
+    public void setTypists(List<Typist> typists) {
+        this.typists = typists;
+    }
+
+    public static class Typist {
+
+        private Long userId;
+        private String name;
+
+        public Typist() {
+        }
+
+        public Typist(Long userId, String name) {
+            this.userId = userId;
+            this.name = name;
+        }
+
+        public Long getUserId() {
+            return userId;
+        }
+
+        public void setUserId(Long userId) {
+            this.userId = userId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+}
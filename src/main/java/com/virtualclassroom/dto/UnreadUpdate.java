@@ -0,0 +1,44 @@
+package com.virtualclassroom.dto;
+
+/**
+ * DTO pushed to {@code /user/queue/unread} whenever a user's unread counts change.
+ */
+public class UnreadUpdate {
+
+    private Long partnerId;
+    private int conversationUnread;
+    private long totalUnread;
+
+    public UnreadUpdate() {
+    }
+
+    public UnreadUpdate(Long partnerId, int conversationUnread, long totalUnread) {
+        this.partnerId = partnerId;
+        this.conversationUnread = conversationUnread;
+        this.totalUnread = totalUnread;
+    }
+
+    public Long getPartnerId() {
+        return partnerId;
+    }
+
+    public void setPartnerId(Long partnerId) {
+        this.partnerId = partnerId;
+    }
+
+    public int getConversationUnread() {
+        return conversationUnread;
+    }
+
+    public void setConversationUnread(int conversationUnread) {
+        this.conversationUnread = conversationUnread;
+    }
+
+    public long getTotalUnread() {
+        return totalUnread;
+    }
+
+    public void setTotalUnread(long totalUnread) {
+        this.totalUnread = totalUnread;
+    }
+}
@@ -1,8 +1,13 @@
 package com.virtualclassroom.dto;
 
+import java.util.List;
+
 public class WhiteboardAction {
     
+    private long seq; // position in the course's action log, assigned by the server
     private String action; // draw, erase, clear, move, etc.
+    private String strokeId; // groups the segments of one stroke; for erase, the stroke being removed
+    private List<String> erasedStrokeIds; // strokes the server found under an eraser sweep
     private String tool; // pen, eraser, line, rectangle, circle, text
     private String color;
     private int strokeWidth;
@@ -10,6 +15,7 @@ public class WhiteboardAction {
     private double startY;
     private double endX;
     private double endY;
+    private double[] points; // x,y pairs when consecutive segments are merged into a polyline
     private String text;
     private Long userId;
     private String userName;
@@ -23,10 +29,38 @@ public class WhiteboardAction {
         this.tool = tool;
     }
     
+    public WhiteboardAction(WhiteboardAction other) {
+        this.seq = other.seq;
+        this.action = other.action;
+        this.strokeId = other.strokeId;
+        this.erasedStrokeIds = other.erasedStrokeIds;
+        this.tool = other.tool;
+        this.color = other.color;
+        this.strokeWidth = other.strokeWidth;
+        this.startX = other.startX;
+        this.startY = other.startY;
+        this.endX = other.endX;
+        this.endY = other.endY;
+        this.points = other.points;
+        this.text = other.text;
+        this.userId = other.userId;
+        this.userName = other.userName;
+        this.timestamp = other.timestamp;
+    }
+    
     // Getters and Setters
+    public long getSeq() { return seq; }
+    public void setSeq(long seq) { this.seq = seq; }
+    
     public String getAction() { return action; }
     public void setAction(String action) { this.action = action; }
     
+    public String getStrokeId() { return strokeId; }
+    public void setStrokeId(String strokeId) { this.strokeId = strokeId; }
+    
+    public List<String> getErasedStrokeIds() { return erasedStrokeIds; }
+    public void setErasedStrokeIds(List<String> erasedStrokeIds) { this.erasedStrokeIds = erasedStrokeIds; }
+    
     public String getTool() { return tool; }
     public void setTool(String tool) { this.tool = tool; }
     
@@ -48,6 +82,9 @@ public class WhiteboardAction {
     public double getEndY() { return endY; }
     public void setEndY(double endY) { this.endY = endY; }
     
+    public double[] getPoints() { return points; }
+    public void setPoints(double[] points) { this.points = points; }
+    
     public String getText() { return text; }
     public void setText(String text) { this.text = text; }
     
@@ -0,0 +1,68 @@
+package com.virtualclassroom.dto;
+
+import java.util.List;
+
+/**
+ * DTO for a batch of whiteboard actions broadcast in one STOMP frame.
+ * Covers the log sequence numbers after {@code fromSeq} up to and including {@code toSeq}.
+ * When {@code reset} is set the actions are the board's full state and the client
+ * must redraw from scratch.
+ */
+public class WhiteboardFrame {
+
+    private Long courseId;
+    private long fromSeq;
+    private long toSeq;
+    private boolean reset;
+    private List<WhiteboardAction> actions;
+
+    public WhiteboardFrame() {}
+
+    public WhiteboardFrame(Long courseId, long fromSeq, long toSeq, boolean reset, List<WhiteboardAction> actions) {
+        this.courseId = courseId;
+        this.fromSeq = fromSeq;
+        this.toSeq = toSeq;
+        this.reset = reset;
+        this.actions = actions;
+    }
+
+    public Long getCourseId() {
+        return courseId;
+    }
+
+    public void setCourseId(Long courseId) {
+        this.courseId = courseId;
+    }
+
+    public long getFromSeq() {
+        return fromSeq;
+    }
+
+    public void setFromSeq(long fromSeq) {
+        this.fromSeq = fromSeq;
+    }
+
+    public long getToSeq() {
+        return toSeq;
+    }
+
+    public void setToSeq(long toSeq) {
+        this.toSeq = toSeq;
+    }
+
+    public boolean isReset() {
+        return reset;
+    }
+
+    public void setReset(boolean reset) {
+        this.reset = reset;
+    }
+
+    public List<WhiteboardAction> getActions() {
+        return actions;
+    }
+
+    public void setActions(List<WhiteboardAction> actions) {
+        this.actions = actions;
+    }
+}
@@ -0,0 +1,117 @@
+package com.virtualclassroom.model;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * One user's side of a direct-message conversation: the latest message and how many
+ * messages from the partner are still unread. There is one row per (owner, partner), so a
+ * conversation between two users is stored twice, once for each of them.
+ *
+ * The last message is kept by id and preview rather than as a relation because direct
+ * messages are written behind and may not be in the database yet.
+ */
+@Entity
+@Table(name = "chat_conversations",
+       uniqueConstraints = @UniqueConstraint(columnNames = {"owner_id", "partner_id"}),
+       indexes = @Index(name = "idx_chat_conversations_inbox", columnList = "owner_id, last_activity_at"))
+public class ChatConversation {
+    
+    public static final int PREVIEW_LENGTH = 255;
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "owner_id", nullable = false)
+    private User owner;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "partner_id", nullable = false)
+    private User partner;
+    
+    @Column(name = "last_message_id")
+    private Long lastMessageId;
+    
+    @Column(name = "last_message_preview", length = PREVIEW_LENGTH)
+    private String lastMessagePreview;
+    
+    @Column(name = "last_sender_id")
+    private Long lastSenderId;
+    
+    @Column(name = "last_activity_at", nullable = false)
+    private LocalDateTime lastActivityAt;
+    
+    @Column(name = "unread_count", nullable = false)
+    private Integer unreadCount = 0;
+    
+    // Read watermark: the owner has read every message up to this id
+    @Column(name = "last_read_message_id")
+    private Long lastReadMessageId;
+    
+    @Column(name = "last_read_at")
+    private LocalDateTime lastReadAt;
+    
+    // Constructors
+    public ChatConversation() {}
+    
+    public ChatConversation(User owner, User partner) {
+        this.owner = owner;
+        this.partner = partner;
+    }
+    
+    // Helper methods
+    public void recordMessage(ChatMessage message, boolean unread) {
+        // Concurrent sends can arrive out of order; only a newer message replaces the last one
+        if (lastActivityAt == null || !message.getCreatedAt().isBefore(lastActivityAt)) {
+            lastMessageId = message.getId();
+            lastMessagePreview = preview(message.getContent());
+            lastSenderId = message.getSender().getId();
+            lastActivityAt = message.getCreatedAt();
+        }
+        if (unread) {
+            unreadCount++;
+        }
+    }
+    
+    public boolean isRead(Long messageId) {
+        return lastReadMessageId != null && messageId <= lastReadMessageId;
+    }
+    
+    public static String preview(String content) {
+        return content != null && content.length() > PREVIEW_LENGTH ? content.substring(0, PREVIEW_LENGTH) : content;
+    }
+    
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    
+    public User getOwner() { return owner; }
+    public void setOwner(User owner) { this.owner = owner; }
+    
+    public User getPartner() { return partner; }
+    public void setPartner(User partner) { this.partner = partner; }
+    
+    public Long getLastMessageId() { return lastMessageId; }
+    public void setLastMessageId(Long lastMessageId) { this.lastMessageId = lastMessageId; }
+    
+    public String getLastMessagePreview() { return lastMessagePreview; }
+    public void setLastMessagePreview(String lastMessagePreview) { this.lastMessagePreview = lastMessagePreview; }
+    
+    public Long getLastSenderId() { return lastSenderId; }
+    public void setLastSenderId(Long lastSenderId) { this.lastSenderId = lastSenderId; }
+    
+    public LocalDateTime getLastActivityAt() { return lastActivityAt; }
+    public void setLastActivityAt(LocalDateTime lastActivityAt) { this.lastActivityAt = lastActivityAt; }
+    
+    public Integer getUnreadCount() { return unreadCount; }
+    public void setUnreadCount(Integer unreadCount) { this.unreadCount = unreadCount; }
+    
+    public Long getLastReadMessageId() { return lastReadMessageId; }
+    public void setLastReadMessageId(Long lastReadMessageId) { this.lastReadMessageId = lastReadMessageId; }
+    
+    public LocalDateTime getLastReadAt() { return lastReadAt; }
+    public void setLastReadAt(LocalDateTime lastReadAt) { this.lastReadAt = lastReadAt; }
+}
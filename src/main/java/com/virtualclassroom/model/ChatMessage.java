@@ -1,5 +1,7 @@
 package com.virtualclassroom.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIncludeProperties;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
@@ -8,11 +10,16 @@ import java.time.LocalDateTime;
 import java.util.Objects;
 
 @Entity
-@Table(name = "chat_messages")
+// Composite indexes matching the keyset history queries, so deep pages are index seeks
+@Table(name = "chat_messages", indexes = {
+    @Index(name = "idx_chat_messages_course_history", columnList = "course_id, is_deleted, created_at, id"),
+    @Index(name = "idx_chat_messages_conversation_history", columnList = "conversation_key, is_deleted, created_at, id"),
+    @Index(name = "idx_chat_messages_direct_unread", columnList = "sender_id, recipient_id, is_deleted, id")
+})
 public class ChatMessage {
     
+    // Assigned by IdAllocator before the message is broadcast; persisted later in batches
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
     
     @NotBlank(message = "Message content is required")
@@ -41,24 +48,44 @@ public class ChatMessage {
     @Column(name = "updated_at")
     private LocalDateTime updatedAt;
     
-    // Relationships
+    // Relationships. Only these properties are serialized: messages are broadcast outside
+    // any transaction, where the entities' lazy collections can't be loaded
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "sender_id", nullable = false)
     @NotNull(message = "Sender is required")
+    @JsonIncludeProperties({"id", "username", "firstName", "lastName", "fullName", "profilePicture", "role"})
     private User sender;
     
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "course_id")
+    @JsonIncludeProperties({"id", "title", "courseCode"})
     private Course course;
     
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "recipient_id")
+    @JsonIncludeProperties({"id", "username", "firstName", "lastName", "fullName", "profilePicture", "role"})
     private User recipient; // For direct messages
     
+    // "<lower user id>:<higher user id>" for direct messages, so both directions of a
+    // conversation are one index range instead of an OR over sender/recipient
+    @Column(name = "conversation_key", length = 41, updatable = false)
+    private String conversationKey;
+    
+    // Read-only view of reply_to_id: the replied-to message may still be queued in the
+    // write-behind batch or archived, so there is no foreign key and the id is set directly
+    @JsonIgnore
     @ManyToOne(fetch = FetchType.LAZY)
-    @JoinColumn(name = "reply_to_id")
+    @JoinColumn(name = "reply_to_id", insertable = false, updatable = false,
+                foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
     private ChatMessage replyTo;
     
+    @Column(name = "reply_to_id")
+    private Long replyToId;
+    
+    // Echoed back in the broadcast so the sender can match it to its pending send
+    @Transient
+    private String clientMessageId;
+    
     // Constructors
     public ChatMessage() {}
     
@@ -81,8 +108,16 @@ public class ChatMessage {
     // Lifecycle callbacks
     @PrePersist
     protected void onCreate() {
-        createdAt = LocalDateTime.now();
-        updatedAt = LocalDateTime.now();
+        // Keep the time the message was sent, not the time the write-behind batch ran
+        if (createdAt == null) {
+            createdAt = LocalDateTime.now();
+        }
+        if (updatedAt == null) {
+            updatedAt = createdAt;
+        }
+        if (conversationKey == null && sender != null && recipient != null) {
+            conversationKey = conversationKey(sender, recipient);
+        }
     }
     
     @PreUpdate
@@ -103,6 +138,12 @@ public class ChatMessage {
         return attachmentUrl != null && !attachmentUrl.trim().isEmpty();
     }
     
+    public static String conversationKey(User user1, User user2) {
+        long a = user1.getId();
+        long b = user2.getId();
+        return Math.min(a, b) + ":" + Math.max(a, b);
+    }
+    
     public void markAsEdited() {
         this.isEdited = true;
         this.updatedAt = LocalDateTime.now();
@@ -151,9 +192,17 @@ public class ChatMessage {
     public User getRecipient() { return recipient; }
     public void setRecipient(User recipient) { this.recipient = recipient; }
     
+    public String getConversationKey() { return conversationKey; }
+    
     public ChatMessage getReplyTo() { return replyTo; }
     public void setReplyTo(ChatMessage replyTo) { this.replyTo = replyTo; }
     
+    public Long getReplyToId() { return replyToId; }
+    public void setReplyToId(Long replyToId) { this.replyToId = replyToId; }
+    
+    public String getClientMessageId() { return clientMessageId; }
+    public void setClientMessageId(String clientMessageId) { this.clientMessageId = clientMessageId; }
+    
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,35 @@
+package com.virtualclassroom.model;
+
+import jakarta.persistence.*;
+
+/**
+ * High-water mark of an application-side id range ("hi/lo" allocation).
+ * Each row hands out blocks of ids to {@code IdAllocator}, which then assigns them in
+ * memory so entities have their id before they are written.
+ */
+@Entity
+@Table(name = "id_blocks")
+public class IdBlock {
+    
+    @Id
+    @Column(length = 64)
+    private String name;
+    
+    @Column(name = "next_value", nullable = false)
+    private Long nextValue;
+    
+    // Constructors
+    public IdBlock() {}
+    
+    public IdBlock(String name, Long nextValue) {
+        this.name = name;
+        this.nextValue = nextValue;
+    }
+    
+    // Getters and Setters
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    
+    public Long getNextValue() { return nextValue; }
+    public void setNextValue(Long nextValue) { this.nextValue = nextValue; }
+}
@@ -0,0 +1,37 @@
+package com.virtualclassroom.repository;
+
+import com.virtualclassroom.model.ChatConversation;
+import com.virtualclassroom.model.User;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ChatConversationRepository extends JpaRepository<ChatConversation, Long> {
+    
+    // Inbox: one range read over (owner_id, last_activity_at)
+    @Query("SELECT c FROM ChatConversation c JOIN FETCH c.partner WHERE c.owner = :owner " +
+           "ORDER BY c.lastActivityAt DESC")
+    List<ChatConversation> findInbox(@Param("owner") User owner, Pageable pageable);
+    
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT c FROM ChatConversation c WHERE c.owner.id = :ownerId AND c.partner.id = :partnerId")
+    Optional<ChatConversation> findForUpdate(@Param("ownerId") Long ownerId, @Param("partnerId") Long partnerId);
+    
+    @Query("SELECT COALESCE(SUM(c.unreadCount), 0) FROM ChatConversation c WHERE c.owner.id = :ownerId")
+    long sumUnread(@Param("ownerId") Long ownerId);
+    
+    @Modifying
+    @Query("UPDATE ChatConversation c SET c.lastMessagePreview = :preview " +
+           "WHERE c.owner.id IN (:userId1, :userId2) AND c.lastMessageId = :messageId")
+    int updatePreview(@Param("userId1") Long userId1, @Param("userId2") Long userId2,
+                      @Param("messageId") Long messageId, @Param("preview") String preview);
+}
@@ -5,21 +5,43 @@ import com.virtualclassroom.model.Course;
 import com.virtualclassroom.model.User;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Repository
 public interface ChatMessageRepository extends JpaRepository<ChatMessage, Long> {
     
-    List<ChatMessage> findByCourseAndIsDeletedFalseOrderByCreatedAtDesc(Course course, Pageable pageable);
+    // Offset pages use the same (createdAt, id) order as the keyset pages below
+    List<ChatMessage> findByCourseAndIsDeletedFalseOrderByCreatedAtDescIdDesc(Course course, Pageable pageable);
     
-    @Query("SELECT m FROM ChatMessage m WHERE " +
-           "((m.sender = :user1 AND m.recipient = :user2) OR (m.sender = :user2 AND m.recipient = :user1)) " +
-           "AND m.isDeleted = false ORDER BY m.createdAt DESC")
-    List<ChatMessage> findDirectMessagesBetweenUsers(@Param("user1") User user1, @Param("user2") User user2, Pageable pageable);
+    // Same page as above, with sender and course loaded so the messages can be cached
+    @Query("SELECT m FROM ChatMessage m JOIN FETCH m.sender JOIN FETCH m.course " +
+           "WHERE m.course = :course AND m.isDeleted = false ORDER BY m.createdAt DESC, m.id DESC")
+    List<ChatMessage> findRecentCourseMessages(@Param("course") Course course, Pageable pageable);
+    
+    // Direct messages go by ChatMessage.conversationKey(user1, user2), covering both directions
+    @Query("SELECT m FROM ChatMessage m WHERE m.conversationKey = :conversationKey " +
+           "AND m.isDeleted = false ORDER BY m.createdAt DESC, m.id DESC")
+    List<ChatMessage> findDirectMessages(@Param("conversationKey") String conversationKey, Pageable pageable);
+    
+    // Keyset pages: the messages strictly older than (createdAt, id), newest first
+    @Query("SELECT m FROM ChatMessage m WHERE m.course = :course AND m.isDeleted = false " +
+           "AND (m.createdAt < :createdAt OR (m.createdAt = :createdAt AND m.id < :id)) " +
+           "ORDER BY m.createdAt DESC, m.id DESC")
+    List<ChatMessage> findCourseMessagesBefore(@Param("course") Course course, @Param("createdAt") LocalDateTime createdAt,
+                                               @Param("id") Long id, Pageable pageable);
+    
+    @Query("SELECT m FROM ChatMessage m WHERE m.conversationKey = :conversationKey AND m.isDeleted = false " +
+           "AND (m.createdAt < :createdAt OR (m.createdAt = :createdAt AND m.id < :id)) " +
+           "ORDER BY m.createdAt DESC, m.id DESC")
+    List<ChatMessage> findDirectMessagesBefore(@Param("conversationKey") String conversationKey,
+                                               @Param("createdAt") LocalDateTime createdAt, @Param("id") Long id,
+                                               Pageable pageable);
     
     @Query("SELECT DISTINCT m FROM ChatMessage m WHERE " +
            "(m.sender = :user OR m.recipient = :user) AND m.isDeleted = false " +
@@ -29,10 +51,35 @@ public interface ChatMessageRepository extends JpaRepository<ChatMessage, Long>
     @Query("SELECT COUNT(m) FROM ChatMessage m WHERE m.recipient = :user AND m.isDeleted = false")
     long countUnreadMessages(@Param("user") User user);
     
+    // Unread messages of one conversation: those from the sender past the reader's watermark
+    @Query("SELECT COUNT(m) FROM ChatMessage m WHERE m.sender = :sender AND m.recipient = :recipient " +
+           "AND m.isDeleted = false AND m.id > :afterId")
+    long countDirectMessagesAfter(@Param("sender") User sender, @Param("recipient") User recipient,
+                                  @Param("afterId") Long afterId);
+    
     List<ChatMessage> findBySenderOrderByCreatedAtDesc(User sender);
     
     List<ChatMessage> findByRecipientOrderByCreatedAtDesc(User recipient);
     
+    @Query("SELECT COALESCE(MAX(m.id), 0) FROM ChatMessage m")
+    long findMaxId();
+    
+    @Query("SELECT m FROM ChatMessage m WHERE m.course IS NOT NULL AND m.isDeleted = false " +
+           "AND m.id > :afterId ORDER BY m.id")
+    List<ChatMessage> findCourseMessagesAfterId(@Param("afterId") Long afterId, Pageable pageable);
+    
+    // Oldest first, with the sender loaded for the archive record
+    @Query("SELECT m FROM ChatMessage m JOIN FETCH m.sender WHERE m.course = :course AND m.isDeleted = false " +
+           "AND m.createdAt < :cutoff ORDER BY m.createdAt, m.id")
+    List<ChatMessage> findArchivableCourseMessages(@Param("course") Course course, @Param("cutoff") LocalDateTime cutoff,
+                                                   Pageable pageable);
+    
+    @Modifying
+    @Query("DELETE FROM ChatMessage m WHERE m.course = :course AND m.isDeleted = true AND m.updatedAt < :cutoff")
+    int deleteSoftDeletedBefore(@Param("course") Course course, @Param("cutoff") LocalDateTime cutoff);
+    
+    long countByCourseAndIsDeletedFalse(Course course);
+    
     @Query("SELECT m FROM ChatMessage m WHERE m.course = :course AND m.content LIKE %:searchTerm% AND m.isDeleted = false")
     List<ChatMessage> searchCourseMessages(@Param("course") Course course, @Param("searchTerm") String searchTerm);
 }
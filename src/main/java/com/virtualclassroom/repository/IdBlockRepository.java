@@ -0,0 +1,19 @@
+package com.virtualclassroom.repository;
+
+import com.virtualclassroom.model.IdBlock;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface IdBlockRepository extends JpaRepository<IdBlock, String> {
+    
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT b FROM IdBlock b WHERE b.name = :name")
+    Optional<IdBlock> findForUpdate(@Param("name") String name);
+}
@@ -90,8 +90,9 @@ public class SecurityConfig {
                 // WebSocket endpoints
                 .requestMatchers("/ws/**", "/topic/**", "/app/**").permitAll()
 
-                // Admin endpoints
-                .requestMatchers("/admin/**", "/api/admin/**").hasRole("ADMIN")
+                // Admin endpoints; health stays open for load balancer checks
+                .requestMatchers("/actuator/health").permitAll()
+                .requestMatchers("/admin/**", "/api/admin/**", "/actuator/**").hasRole("ADMIN")
 
                 // Instructor endpoints
                 .requestMatchers("/instructor/**", "/api/instructor/**").hasAnyRole("INSTRUCTOR", "ADMIN")
@@ -0,0 +1,203 @@
+package com.virtualclassroom.security;
+
+import com.virtualclassroom.model.Course;
+import com.virtualclassroom.model.User;
+import com.virtualclassroom.service.CourseService;
+import com.virtualclassroom.service.UserService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.security.Principal;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches course authorization decisions per WebSocket session.
+ *
+ * STOMP handlers for whiteboard strokes, chat messages and typing events used to load the
+ * course, the enrollment and sometimes the user on every frame. Decisions are now computed
+ * on the first frame a session sends for a course and reused until the session ends, the
+ * entry expires, or an enrollment change invalidates it.
+ */
+@Component
+public class StompAuthorizationCache {
+
+    // Lazy: CourseService calls back into this cache when enrollments change
+    @Autowired
+    @Lazy
+    private CourseService courseService;
+
+    @Autowired
+    private UserService userService;
+
+    @Value("${app.websocket.auth-cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    private final Map<String, SessionEntry> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Resolve the user behind a STOMP principal without touching the database when the
+     * principal already carries the authenticated {@link User}.
+     * @param sessionId The WebSocket session ID
+     * @param principal The STOMP principal
+     * @return The user
+     */
+    public User resolveUser(String sessionId, Principal principal) {
+        if (principal instanceof Authentication
+                && ((Authentication) principal).getPrincipal() instanceof User) {
+            return (User) ((Authentication) principal).getPrincipal();
+        }
+        SessionEntry entry = session(sessionId);
+        User user = entry.user;
+        if (user == null) {
+            user = userService.getUserByUsername(principal.getName());
+            entry.user = user;
+        }
+        return user;
+    }
+
+    /**
+     * Get the cached access decision of a user for a course, loading it on first use.
+     * @param sessionId The WebSocket session ID
+     * @param user The user
+     * @param courseId The course ID
+     * @return The access decision
+     */
+    public CourseAccess getCourseAccess(String sessionId, User user, Long courseId) {
+        SessionEntry entry = session(sessionId);
+        CourseAccess access = entry.courses.get(courseId);
+        if (access == null || access.isExpired(ttlSeconds) || !Objects.equals(access.userId, user.getId())) {
+            access = load(user, courseId);
+            entry.courses.put(courseId, access);
+        }
+        return access;
+    }
+
+    /**
+     * Drop cached decisions of one user for a course, e.g. after an enrollment change.
+     * @param courseId The course ID
+     * @param userId The user ID
+     */
+    public void invalidate(Long courseId, Long userId) {
+        for (SessionEntry entry : sessions.values()) {
+            CourseAccess access = entry.courses.get(courseId);
+            if (access != null && Objects.equals(access.userId, userId)) {
+                entry.courses.remove(courseId, access);
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #invalidate(Long, Long)}, but deferred until the surrounding transaction
+     * commits so a concurrent frame can't re-cache the old decision in between.
+     */
+    public void invalidateAfterCommit(Long courseId, Long userId) {
+        afterCommit(() -> invalidate(courseId, userId));
+    }
+
+    /**
+     * Drop cached decisions of every user for a course.
+     * @param courseId The course ID
+     */
+    public void invalidateCourse(Long courseId) {
+        for (SessionEntry entry : sessions.values()) {
+            entry.courses.remove(courseId);
+        }
+    }
+
+    /**
+     * Same as {@link #invalidateCourse(Long)}, deferred until the surrounding transaction
+     * commits, e.g. when the course is deleted.
+     */
+    public void invalidateCourseAfterCommit(Long courseId) {
+        afterCommit(() -> invalidateCourse(courseId));
+    }
+
+    /**
+     * Forget everything cached for a session once it disconnects.
+     * @param sessionId The WebSocket session ID
+     */
+    public void evictSession(String sessionId) {
+        if (sessionId != null) {
+            sessions.remove(sessionId);
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private SessionEntry session(String sessionId) {
+        return sessions.computeIfAbsent(sessionId, k -> new SessionEntry());
+    }
+
+    private CourseAccess load(User user, Long courseId) {
+        Course course = courseService.getCourseById(courseId);
+        // Compare ids so the lazy instructor proxy is never initialized outside a session
+        boolean instructor = course.getInstructor() != null
+                && Objects.equals(course.getInstructor().getId(), user.getId());
+        boolean enrolled = !instructor && courseService.isStudentEnrolled(user, course);
+        return new CourseAccess(course, user.getId(), enrolled, instructor || user.isAdmin(), System.nanoTime());
+    }
+
+    private static final class SessionEntry {
+        private volatile User user;
+        private final Map<Long, CourseAccess> courses = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Immutable authorization decision for one user in one course.
+     */
+    public static final class CourseAccess {
+        private final Course course;
+        private final Long userId;
+        private final boolean enrolled;
+        private final boolean manager;
+        private final long loadedAt;
+
+        CourseAccess(Course course, Long userId, boolean enrolled, boolean manager, long loadedAt) {
+            this.course = course;
+            this.userId = userId;
+            this.enrolled = enrolled;
+            this.manager = manager;
+            this.loadedAt = loadedAt;
+        }
+
+        public Course getCourse() {
+            return course;
+        }
+
+        /**
+         * @return true if the user may take part in the course (enrolled, instructor or admin)
+         */
+        public boolean canAccess() {
+            return enrolled || manager;
+        }
+
+        /**
+         * @return true if the user is the course instructor or an admin
+         */
+        public boolean canManage() {
+            return manager;
+        }
+
+        private boolean isExpired(long ttlSeconds) {
+            return System.nanoTime() - loadedAt > ttlSeconds * 1_000_000_000L;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.virtualclassroom.service;
+
+import com.virtualclassroom.model.ChatMessage;
+import com.virtualclassroom.model.Course;
+import com.virtualclassroom.model.CourseStatus;
+import com.virtualclassroom.repository.ChatMessageRepository;
+import com.virtualclassroom.repository.CourseRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Moves cold course chat messages out of the hot {@code chat_messages} table.
+ *
+ * Periodically, each course's messages older than the configured age (all of them for
+ * archived courses) are written to {@link ChatArchiveStore} segments and then deleted
+ * from the table; soft-deleted rows past their retention are purged without archiving.
+ * The segment is durable before its rows are deleted, so a crash in between only
+ * leaves duplicates, which archive reads drop. Direct messages stay in the hot table.
+ */
+@Service
+public class ChatArchiveService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatArchiveService.class);
+
+    @Autowired
+    private ChatMessageRepository chatMessageRepository;
+
+    @Autowired
+    private CourseRepository courseRepository;
+
+    @Autowired
+    private ChatArchiveStore archiveStore;
+
+    @Autowired
+    private ChatSearchIndex searchIndex;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${chat.archive.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.archive.max-age-days:180}")
+    private long maxAgeDays;
+
+    @Value("${chat.archive.deleted-retention-days:7}")
+    private long deletedRetentionDays;
+
+    @Value("${chat.archive.segment-max-messages:5000}")
+    private int segmentMaxMessages;
+
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Scheduled(fixedDelayString = "${chat.archive.interval-millis:3600000}",
+               initialDelayString = "${chat.archive.initial-delay-millis:300000}")
+    public void archive() {
+        if (!enabled) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime ageCutoff = now.minusDays(maxAgeDays);
+        LocalDateTime deletedCutoff = now.minusDays(deletedRetentionDays);
+        for (Course course : courseRepository.findAll()) {
+            try {
+                archiveCourse(course, course.getStatus() == CourseStatus.ARCHIVED ? now : ageCutoff);
+                int purged = transactionTemplate.execute(status ->
+                    chatMessageRepository.deleteSoftDeletedBefore(course, deletedCutoff));
+                if (purged > 0) {
+                    logger.debug("Purged {} deleted chat messages of course {}", purged, course.getId());
+                }
+            } catch (RuntimeException e) {
+                logger.error("Failed to archive chat messages of course {}", course.getId(), e);
+            }
+        }
+    }
+
+    private void archiveCourse(Course course, LocalDateTime cutoff) {
+        long archived = 0;
+        List<ChatMessage> batch;
+        do {
+            batch = chatMessageRepository.findArchivableCourseMessages(course, cutoff,
+                PageRequest.of(0, segmentMaxMessages));
+            if (batch.isEmpty()) {
+                break;
+            }
+            archiveStore.appendSegment(course.getId(), batch);
+            List<Long> ids = batch.stream().map(ChatMessage::getId).collect(Collectors.toList());
+            transactionTemplate.executeWithoutResult(status -> chatMessageRepository.deleteAllByIdInBatch(ids));
+            // Search resolves hits from the hot table, so archived messages leave the index
+            ids.forEach(searchIndex::remove);
+            archived += batch.size();
+        } while (batch.size() == segmentMaxMessages);
+        if (archived > 0) {
+            logger.info("Archived {} chat messages of course {}", archived, course.getId());
+        }
+    }
+}
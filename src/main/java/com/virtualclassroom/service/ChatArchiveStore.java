@@ -0,0 +1,417 @@
+package com.virtualclassroom.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.virtualclassroom.dto.MessageCursor;
+import com.virtualclassroom.model.ChatMessage;
+import com.virtualclassroom.model.Course;
+import com.virtualclassroom.model.MessageType;
+import com.virtualclassroom.model.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cold storage for archived course chat messages.
+ *
+ * Each course gets a directory under {@code chat-archive} in the storage root holding
+ * immutable, gzip-compressed segment files (one JSON message per line) and an
+ * {@code index.json} listing every segment with its message count and time range. A
+ * segment is written in full to a temporary file and moved into place before the index
+ * references it, so a crash never leaves a half-written segment visible. Segment, index
+ * and directory are synced to disk before {@link #appendSegment} returns, so the caller can
+ * delete the archived rows from the database right after. Reads use the index to open only
+ * the segments that can contain the requested page.
+ *
+ * Segments are never rewritten: deleting an archived message records its id in the
+ * course's {@code deleted.json}, and reads leave tombstoned messages out.
+ */
+@Service
+public class ChatArchiveStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatArchiveStore.class);
+
+    private static final String ARCHIVE_DIR = "chat-archive";
+    private static final String INDEX_FILE = "index.json";
+    private static final String DELETED_FILE = "deleted.json";
+
+    // Newest first, matching the order the history endpoints return
+    private static final Comparator<ChatMessage> NEWEST_FIRST = Comparator
+            .comparing(ChatMessage::getCreatedAt, Comparator.reverseOrder())
+            .thenComparing(ChatMessage::getId, Comparator.reverseOrder());
+
+    @Autowired
+    @Qualifier("initStorage")
+    private Path storageRoot;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final Map<Long, CourseArchive> archives = new ConcurrentHashMap<>();
+
+    /**
+     * Whether a course has any archived messages.
+     */
+    public boolean hasArchive(Long courseId) {
+        return !archive(courseId).segments.isEmpty();
+    }
+
+    /**
+     * Write messages of one course to a new segment and sync it to disk.
+     * @param courseId The course ID
+     * @param messages The messages, with sender loaded
+     */
+    public void appendSegment(Long courseId, List<ChatMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        CourseArchive archive = archive(courseId);
+        synchronized (archive) {
+            try {
+                if (!Files.isDirectory(archive.dir)) {
+                    Files.createDirectories(archive.dir);
+                    forceDirectory(archive.dir.getParent());
+                }
+                int number = archive.segments.isEmpty() ? 1 : archive.segments.get(archive.segments.size() - 1).number + 1;
+                String file = String.format("segment-%08d.ndjson.gz", number);
+
+                LocalDateTime min = null;
+                LocalDateTime max = null;
+                long minId = Long.MAX_VALUE;
+                long maxId = Long.MIN_VALUE;
+                Path tmp = archive.dir.resolve(file + ".tmp");
+                try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                        new GZIPOutputStream(Files.newOutputStream(tmp)), StandardCharsets.UTF_8))) {
+                    for (ChatMessage message : messages) {
+                        out.write(objectMapper.writeValueAsString(ArchivedMessage.of(message)));
+                        out.newLine();
+                        min = min == null || message.getCreatedAt().isBefore(min) ? message.getCreatedAt() : min;
+                        max = max == null || message.getCreatedAt().isAfter(max) ? message.getCreatedAt() : max;
+                        minId = Math.min(minId, message.getId());
+                        maxId = Math.max(maxId, message.getId());
+                    }
+                }
+                forceFile(tmp);
+                Files.move(tmp, archive.dir.resolve(file), StandardCopyOption.ATOMIC_MOVE);
+
+                List<SegmentInfo> segments = new ArrayList<>(archive.segments);
+                segments.add(new SegmentInfo(number, file, messages.size(), min, max, minId, maxId));
+                writeIndex(archive.dir, segments);
+                archive.segments = Collections.unmodifiableList(segments);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to archive chat messages of course " + courseId + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Read archived messages of a course, newest first.
+     * @param course The course the messages belong to
+     * @param before Only return messages older than this cursor, or null for the newest
+     * @param skip Number of matching messages to skip
+     * @param limit Maximum number of messages to return
+     * @return Detached messages carrying their sender's id and name
+     */
+    public List<ChatMessage> read(Course course, MessageCursor before, int skip, int limit) {
+        CourseArchive archive = archive(course.getId());
+        List<SegmentInfo> segments = new ArrayList<>(archive.segments);
+        Set<Long> deleted = archive.deleted;
+        segments.sort(Comparator.comparing((SegmentInfo segment) -> segment.maxCreatedAt).reversed());
+
+        int needed = skip + limit;
+        List<ChatMessage> candidates = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+        for (SegmentInfo segment : segments) {
+            if (before != null && segment.minCreatedAt.isAfter(before.getCreatedAt())) {
+                continue; // everything in it is newer than the cursor
+            }
+            if (candidates.size() >= needed) {
+                candidates.sort(NEWEST_FIRST);
+                if (candidates.get(needed - 1).getCreatedAt().isAfter(segment.maxCreatedAt)) {
+                    break; // this and all remaining segments are older than the page
+                }
+            }
+            for (ChatMessage message : readSegment(course, segment)) {
+                // A segment re-written after a crash can repeat messages; keep one copy
+                if ((before == null || before.isOlder(message)) && !deleted.contains(message.getId())
+                        && seen.add(message.getId())) {
+                    candidates.add(message);
+                }
+            }
+        }
+        candidates.sort(NEWEST_FIRST);
+        if (skip >= candidates.size()) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(candidates.subList(skip, Math.min(needed, candidates.size())));
+    }
+
+    /**
+     * Find an archived course message that hasn't been deleted.
+     * @param messageId The message ID
+     * @return The detached message, its course carrying only the id, or null if no archive holds it
+     */
+    public ChatMessage find(Long messageId) {
+        Path root = storageRoot.resolve(ARCHIVE_DIR);
+        if (!Files.isDirectory(root)) {
+            return null;
+        }
+        List<Long> courseIds = new ArrayList<>();
+        try (Stream<Path> dirs = Files.list(root)) {
+            dirs.map(dir -> dir.getFileName().toString())
+                .filter(name -> name.chars().allMatch(Character::isDigit))
+                .forEach(name -> courseIds.add(Long.valueOf(name)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list chat archives in " + root, e);
+        }
+        for (Long courseId : courseIds) {
+            CourseArchive archive = archive(courseId);
+            if (archive.deleted.contains(messageId)) {
+                continue;
+            }
+            for (SegmentInfo segment : archive.segments) {
+                // Indexes written before id ranges were recorded have to be scanned
+                if (segment.minId != null && (messageId < segment.minId || messageId > segment.maxId)) {
+                    continue;
+                }
+                Course course = new Course();
+                course.setId(courseId);
+                for (ChatMessage message : readSegment(course, segment)) {
+                    if (message.getId().equals(messageId)) {
+                        return message;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tombstone an archived message so reads no longer return it; synced before returning.
+     * @param courseId The course ID
+     * @param messageId The message ID
+     */
+    public void markDeleted(Long courseId, Long messageId) {
+        CourseArchive archive = archive(courseId);
+        synchronized (archive) {
+            if (archive.deleted.contains(messageId)) {
+                return;
+            }
+            Set<Long> deleted = new HashSet<>(archive.deleted);
+            deleted.add(messageId);
+            try {
+                Path tmp = archive.dir.resolve(DELETED_FILE + ".tmp");
+                objectMapper.writeValue(tmp.toFile(), new TreeSet<>(deleted));
+                forceFile(tmp);
+                Files.move(tmp, archive.dir.resolve(DELETED_FILE), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                forceDirectory(archive.dir);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to delete archived chat message " + messageId + ": " + e.getMessage(), e);
+            }
+            archive.deleted = Collections.unmodifiableSet(deleted);
+        }
+    }
+
+    private List<ChatMessage> readSegment(Course course, SegmentInfo segment) {
+        Path file = archive(course.getId()).dir.resolve(segment.file);
+        List<ChatMessage> messages = new ArrayList<>(segment.count);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    messages.add(objectMapper.readValue(line, ArchivedMessage.class).toChatMessage(course));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read chat archive segment " + file, e);
+        }
+        return messages;
+    }
+
+    private CourseArchive archive(Long courseId) {
+        return archives.computeIfAbsent(courseId, id -> {
+            Path dir = storageRoot.resolve(ARCHIVE_DIR).resolve(String.valueOf(id));
+            return new CourseArchive(dir, readIndex(dir), readDeleted(dir));
+        });
+    }
+
+    private Set<Long> readDeleted(Path dir) {
+        Path deleted = dir.resolve(DELETED_FILE);
+        if (!Files.exists(deleted)) {
+            return Collections.emptySet();
+        }
+        try {
+            return Collections.unmodifiableSet(objectMapper.readValue(deleted.toFile(), new TypeReference<HashSet<Long>>() {}));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read chat archive tombstones " + deleted, e);
+        }
+    }
+
+    private List<SegmentInfo> readIndex(Path dir) {
+        Path index = dir.resolve(INDEX_FILE);
+        if (!Files.exists(index)) {
+            return Collections.emptyList();
+        }
+        try {
+            List<SegmentInfo> segments = objectMapper.readValue(index.toFile(), new TypeReference<List<SegmentInfo>>() {});
+            segments.sort(Comparator.comparingInt(segment -> segment.number));
+            return Collections.unmodifiableList(segments);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read chat archive index " + index, e);
+        }
+    }
+
+    private void writeIndex(Path dir, List<SegmentInfo> segments) throws IOException {
+        Path tmp = dir.resolve(INDEX_FILE + ".tmp");
+        objectMapper.writeValue(tmp.toFile(), segments);
+        forceFile(tmp);
+        Files.move(tmp, dir.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // Makes both renames (segment and index) durable
+        forceDirectory(dir);
+    }
+
+    private static void forceFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private static void forceDirectory(Path dir) {
+        // Directories can't be opened for syncing on every platform (e.g. Windows)
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.debug("Could not sync directory {}: {}", dir, e.getMessage());
+        }
+    }
+
+    private static final class CourseArchive {
+        private final Path dir;
+        // Replaced as a whole under the archive's lock; readers take the current list
+        private volatile List<SegmentInfo> segments;
+        private volatile Set<Long> deleted;
+
+        CourseArchive(Path dir, List<SegmentInfo> segments, Set<Long> deleted) {
+            this.dir = dir;
+            this.segments = segments;
+            this.deleted = deleted;
+        }
+    }
+
+    /**
+     * Index entry of one segment file.
+     */
+    public static class SegmentInfo {
+        public int number;
+        public String file;
+        public int count;
+        public LocalDateTime minCreatedAt;
+        public LocalDateTime maxCreatedAt;
+        public Long minId;
+        public Long maxId;
+
+        public SegmentInfo() {}
+
+        SegmentInfo(int number, String file, int count, LocalDateTime minCreatedAt, LocalDateTime maxCreatedAt,
+                    Long minId, Long maxId) {
+            this.number = number;
+            this.file = file;
+            this.count = count;
+            this.minCreatedAt = minCreatedAt;
+            this.maxCreatedAt = maxCreatedAt;
+            this.minId = minId;
+            this.maxId = maxId;
+        }
+    }
+
+    /**
+     * Archived form of a course message: the message columns plus the sender's name, so
+     * reading history back needs no joins.
+     */
+    public static class ArchivedMessage {
+        public Long id;
+        public String content;
+        public MessageType type;
+        public String attachmentUrl;
+        public String attachmentName;
+        public Long replyToId;
+        public Boolean isEdited;
+        public LocalDateTime createdAt;
+        public LocalDateTime updatedAt;
+        public Long senderId;
+        public String senderUsername;
+        public String senderFirstName;
+        public String senderLastName;
+
+        static ArchivedMessage of(ChatMessage message) {
+            ArchivedMessage archived = new ArchivedMessage();
+            archived.id = message.getId();
+            archived.content = message.getContent();
+            archived.type = message.getType();
+            archived.attachmentUrl = message.getAttachmentUrl();
+            archived.attachmentName = message.getAttachmentName();
+            archived.replyToId = message.getReplyToId();
+            archived.isEdited = message.getIsEdited();
+            archived.createdAt = message.getCreatedAt();
+            archived.updatedAt = message.getUpdatedAt();
+            User sender = message.getSender();
+            archived.senderId = sender.getId();
+            archived.senderUsername = sender.getUsername();
+            archived.senderFirstName = sender.getFirstName();
+            archived.senderLastName = sender.getLastName();
+            return archived;
+        }
+
+        ChatMessage toChatMessage(Course course) {
+            User sender = new User();
+            sender.setId(senderId);
+            sender.setUsername(senderUsername);
+            sender.setFirstName(senderFirstName);
+            sender.setLastName(senderLastName);
+
+            ChatMessage message = new ChatMessage();
+            message.setId(id);
+            message.setContent(content);
+            message.setType(type);
+            message.setAttachmentUrl(attachmentUrl);
+            message.setAttachmentName(attachmentName);
+            message.setReplyToId(replyToId);
+            message.setIsEdited(isEdited);
+            message.setCreatedAt(createdAt);
+            message.setUpdatedAt(updatedAt);
+            message.setSender(sender);
+            message.setCourse(course);
+            return message;
+        }
+    }
+}
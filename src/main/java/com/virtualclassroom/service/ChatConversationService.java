@@ -0,0 +1,271 @@
+package com.virtualclassroom.service;
+
+import com.virtualclassroom.dto.ConversationDTO;
+import com.virtualclassroom.dto.ReadReceipt;
+import com.virtualclassroom.dto.UnreadUpdate;
+import com.virtualclassroom.model.ChatConversation;
+import com.virtualclassroom.model.ChatMessage;
+import com.virtualclassroom.model.User;
+import com.virtualclassroom.repository.ChatConversationRepository;
+import com.virtualclassroom.repository.ChatMessageRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Maintains the materialized inbox ({@link ChatConversation}) as direct messages are sent
+ * and read, so listing a user's conversations reads one row per partner instead of every
+ * message.
+ *
+ * Each row carries the owner's read watermark and an unread count that is adjusted on
+ * send and recomputed on read. Per-user totals are cached in memory and pushed to
+ * {@code /user/queue/unread} whenever they change; readers' watermarks are pushed to the
+ * partner on {@code /user/queue/receipts}.
+ */
+@Service
+public class ChatConversationService {
+    
+    @Autowired
+    private ChatConversationRepository conversationRepository;
+    
+    @Autowired
+    private ChatMessageRepository chatMessageRepository;
+    
+    @Autowired
+    private ChatMessageWriteBehind writeBehind;
+    
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+    
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    
+    @Value("${chat.conversations.max-results:100}")
+    private int maxResults;
+    
+    @Value("${chat.unread.cache-ttl-minutes:10}")
+    private long cacheTtlMinutes;
+    
+    private TransactionTemplate transactionTemplate;
+    
+    // Cached unread totals by user id, reloaded from the conversation rows when stale
+    private final Map<Long, UnreadTotal> unreadTotals = new ConcurrentHashMap<>();
+    
+    @PostConstruct
+    public void init() {
+        // Own short transaction, so a lost insert race can be retried without
+        // poisoning the caller's transaction, and pushes only happen after commit
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+    
+    /**
+     * Record a direct message on both participants' conversation rows and push the
+     * recipient's new unread count. Called by {@link ChatMessageWriteBehind} once the
+     * message is stored, outside any sender's transaction.
+     * @param message The message, with its id and creation time assigned
+     */
+    public void recordDirectMessage(ChatMessage message) {
+        Integer conversationUnread;
+        try {
+            conversationUnread = transactionTemplate.execute(status -> record(message));
+        } catch (DataIntegrityViolationException e) {
+            // Another message created the same conversation row first; it exists now
+            conversationUnread = transactionTemplate.execute(status -> record(message));
+        }
+        if (conversationUnread != null) {
+            pushUnread(message.getRecipient(), message.getSender().getId(), conversationUnread, 1);
+        }
+    }
+    
+    /**
+     * Refresh the preview of a conversation whose last message was edited.
+     */
+    public void messageEdited(ChatMessage message) {
+        transactionTemplate.executeWithoutResult(status -> updatePreview(message));
+    }
+    
+    /**
+     * Refresh the preview and, if the recipient hadn't read the message yet, take it off
+     * their unread count.
+     */
+    public void messageDeleted(ChatMessage message) {
+        User sender = message.getSender();
+        User recipient = message.getRecipient();
+        Integer conversationUnread = transactionTemplate.execute(status -> {
+            updatePreview(message);
+            ChatConversation conversation = conversationRepository
+                .findForUpdate(recipient.getId(), sender.getId()).orElse(null);
+            if (conversation == null || sender.getId().equals(recipient.getId())
+                    || conversation.isRead(message.getId()) || conversation.getUnreadCount() == 0) {
+                return null;
+            }
+            conversation.setUnreadCount(conversation.getUnreadCount() - 1);
+            conversationRepository.save(conversation);
+            return conversation.getUnreadCount();
+        });
+        if (conversationUnread != null) {
+            pushUnread(recipient, sender.getId(), conversationUnread, -1);
+        }
+    }
+    
+    /**
+     * Move a user's read watermark forward, recompute the conversation's unread count and
+     * send the partner a read receipt.
+     * @param user The reader
+     * @param partner The conversation partner
+     * @param upToMessageId Last message read, or null for the whole conversation
+     */
+    public void markRead(User user, User partner, Long upToMessageId) {
+        // The message read up to must be on the conversation row, or it would later be counted
+        // as unread; if its write is failing, the rest is still marked read
+        if (upToMessageId != null) {
+            writeBehind.awaitStored(upToMessageId);
+        }
+        ReadResult result = transactionTemplate.execute(status -> {
+            ChatConversation conversation = conversationRepository
+                .findForUpdate(user.getId(), partner.getId()).orElse(null);
+            if (conversation == null || conversation.getLastMessageId() == null) {
+                return null;
+            }
+            Long target = upToMessageId != null
+                ? Math.min(upToMessageId, conversation.getLastMessageId())
+                : conversation.getLastMessageId();
+            if (conversation.isRead(target)) {
+                return null;
+            }
+            int before = conversation.getUnreadCount();
+            conversation.setLastReadMessageId(target);
+            conversation.setLastReadAt(LocalDateTime.now());
+            conversation.setUnreadCount(target.equals(conversation.getLastMessageId())
+                ? 0
+                : (int) chatMessageRepository.countDirectMessagesAfter(partner, user, target));
+            conversationRepository.save(conversation);
+            return new ReadResult(conversation, conversation.getUnreadCount() - before);
+        });
+        if (result == null) {
+            return;
+        }
+        pushUnread(user, partner.getId(), result.conversationUnread, result.delta);
+        messagingTemplate.convertAndSendToUser(partner.getUsername(), "/queue/receipts",
+            new ReadReceipt(user.getId(), result.lastReadMessageId, result.readAt));
+    }
+    
+    @Transactional(readOnly = true)
+    public List<ConversationDTO> getConversations(User user) {
+        return conversationRepository.findInbox(user, PageRequest.of(0, maxResults)).stream()
+            .map(ConversationDTO::from)
+            .collect(Collectors.toList());
+    }
+    
+    /**
+     * Total unread direct messages of a user, served from memory once loaded.
+     */
+    public long getUnreadTotal(User user) {
+        return loadUnreadTotal(user.getId()).value.get();
+    }
+    
+    @Scheduled(fixedDelayString = "${chat.unread.evict-millis:60000}")
+    public void evictStaleTotals() {
+        unreadTotals.values().removeIf(UnreadTotal::isStale);
+    }
+    
+    private Integer record(ChatMessage message) {
+        User sender = message.getSender();
+        User recipient = message.getRecipient();
+        if (sender.getId().equals(recipient.getId())) {
+            upsert(sender, recipient, message, false);
+            return null;
+        }
+        // Lock both rows in user id order so two users messaging each other can't deadlock
+        ChatConversation inbox;
+        if (sender.getId() < recipient.getId()) {
+            upsert(sender, recipient, message, false);
+            inbox = upsert(recipient, sender, message, true);
+        } else {
+            inbox = upsert(recipient, sender, message, true);
+            upsert(sender, recipient, message, false);
+        }
+        return inbox.getUnreadCount();
+    }
+    
+    private ChatConversation upsert(User owner, User partner, ChatMessage message, boolean unread) {
+        ChatConversation conversation = conversationRepository.findForUpdate(owner.getId(), partner.getId())
+            .orElseGet(() -> new ChatConversation(owner, partner));
+        conversation.recordMessage(message, unread);
+        return conversationRepository.saveAndFlush(conversation);
+    }
+    
+    private void updatePreview(ChatMessage message) {
+        conversationRepository.updatePreview(message.getSender().getId(), message.getRecipient().getId(),
+            message.getId(), ChatConversation.preview(message.getContent()));
+    }
+    
+    private void pushUnread(User user, Long partnerId, int conversationUnread, int delta) {
+        long total = adjustUnreadTotal(user.getId(), delta);
+        messagingTemplate.convertAndSendToUser(user.getUsername(), "/queue/unread",
+            new UnreadUpdate(partnerId, conversationUnread, total));
+    }
+    
+    /**
+     * Apply a committed change to the cached total. A total that isn't cached is loaded
+     * from the database instead, which already includes the change.
+     */
+    private long adjustUnreadTotal(Long userId, int delta) {
+        UnreadTotal cached = unreadTotals.computeIfPresent(userId, (id, total) -> {
+            total.value.addAndGet(delta);
+            return total;
+        });
+        return cached != null ? cached.value.get() : loadUnreadTotal(userId).value.get();
+    }
+    
+    private UnreadTotal loadUnreadTotal(Long userId) {
+        return unreadTotals.compute(userId, (id, total) -> total != null && !total.isStale()
+            ? total
+            : new UnreadTotal(conversationRepository.sumUnread(id), cacheTtlMinutes));
+    }
+    
+    private static final class UnreadTotal {
+        private final AtomicLong value;
+        private final long expiresAt;
+        
+        UnreadTotal(long value, long ttlMinutes) {
+            this.value = new AtomicLong(value);
+            this.expiresAt = System.currentTimeMillis() + ttlMinutes * 60_000L;
+        }
+        
+        boolean isStale() {
+            return System.currentTimeMillis() > expiresAt;
+        }
+    }
+    
+    private static final class ReadResult {
+        private final int conversationUnread;
+        private final int delta;
+        private final Long lastReadMessageId;
+        private final LocalDateTime readAt;
+        
+        ReadResult(ChatConversation conversation, int delta) {
+            this.conversationUnread = conversation.getUnreadCount();
+            this.delta = delta;
+            this.lastReadMessageId = conversation.getLastReadMessageId();
+            this.readAt = conversation.getLastReadAt();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.virtualclassroom.service;
+
+import com.virtualclassroom.dto.ChatEnrichment;
+import com.virtualclassroom.dto.ChatEnrichment.AttachmentInfo;
+import com.virtualclassroom.dto.ChatEnrichment.LinkPreview;
+import com.virtualclassroom.dto.ChatEnrichment.ReplyContext;
+import com.virtualclassroom.model.ChatMessage;
+import com.virtualclassroom.model.User;
+import com.virtualclassroom.repository.ChatMessageRepository;
+import org.apache.tika.Tika;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Works out the slower extras of a chat message after it has been broadcast.
+ *
+ * The message itself goes out on the inbound channel thread as soon as it has an id. This
+ * service then, on a small bounded executor, fetches previews of the links in it (through
+ * {@link LinkPreviewFetcher}), reads the size and type of an attached stored file and
+ * looks up the message it replies to. Whatever it finds is sent as a {@link ChatEnrichment}
+ * frame next to the message's destination. When the executor is saturated enrichment is
+ * skipped; the message has already been delivered either way.
+ */
+@Service
+public class ChatEnrichmentService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatEnrichmentService.class);
+
+    private static final Pattern URL = Pattern.compile("https?://[^\\s<>\"']+", Pattern.CASE_INSENSITIVE);
+    private static final String FILES_PATH = "/api/files/";
+    private static final int REPLY_PREVIEW_LENGTH = 120;
+
+    @Autowired
+    private LinkPreviewFetcher linkPreviewFetcher;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private ChatMessageRepository chatMessageRepository;
+
+    @Autowired
+    private ChatMessageWriteBehind writeBehind;
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${chat.enrichment.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.enrichment.threads:2}")
+    private int threads;
+
+    @Value("${chat.enrichment.queue-capacity:256}")
+    private int queueCapacity;
+
+    @Value("${chat.enrichment.max-links:3}")
+    private int maxLinks;
+
+    @Value("${chat.enrichment.preview-cache-size:500}")
+    private int previewCacheSize;
+
+    private final Tika tika = new Tika();
+    private Map<String, Optional<LinkPreview>> previewCache;
+    private TransactionTemplate readOnlyTransaction;
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+        // Access-ordered, so the least recently posted links drop out first
+        previewCache = Collections.synchronizedMap(new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Optional<LinkPreview>> eldest) {
+                return size() > previewCacheSize;
+            }
+        });
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "chat-enrichment-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Schedule enrichment of a message that has just been broadcast. Messages with nothing
+     * to enrich are skipped without touching the executor.
+     */
+    public void enrichAsync(ChatMessage message) {
+        if (!enabled || message == null || !needsEnrichment(message)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    ChatEnrichment enrichment = enrich(message);
+                    if (!enrichment.isEmpty()) {
+                        send(message, enrichment);
+                    }
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to enrich chat message {}", message.getId(), e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.debug("Chat enrichment queue full, skipping message {}", message.getId());
+        }
+    }
+
+    private boolean needsEnrichment(ChatMessage message) {
+        return message.getReplyToId() != null || message.hasAttachment()
+                || (message.getContent() != null && URL.matcher(message.getContent()).find());
+    }
+
+    private ChatEnrichment enrich(ChatMessage message) {
+        ChatEnrichment enrichment = new ChatEnrichment(message.getId());
+        if (message.getReplyToId() != null) {
+            enrichment.setReplyTo(replyContext(message));
+        }
+        if (message.hasAttachment()) {
+            enrichment.setAttachment(attachmentInfo(message));
+        }
+        List<LinkPreview> previews = new ArrayList<>();
+        for (String url : extractUrls(message.getContent())) {
+            // Not computeIfAbsent: that would hold the map's lock during the fetch
+            Optional<LinkPreview> preview = previewCache.get(url);
+            if (preview == null) {
+                preview = fetchPreview(url);
+                previewCache.put(url, preview);
+            }
+            preview.ifPresent(previews::add);
+        }
+        if (!previews.isEmpty()) {
+            enrichment.setLinkPreviews(previews);
+        }
+        return enrichment;
+    }
+
+    private Set<String> extractUrls(String content) {
+        Set<String> urls = new LinkedHashSet<>();
+        if (content == null) {
+            return urls;
+        }
+        Matcher matcher = URL.matcher(content);
+        while (matcher.find() && urls.size() < maxLinks) {
+            // Trailing punctuation usually ends the sentence, not the link
+            urls.add(matcher.group().replaceAll("[.,;:!?)\\]]+$", ""));
+        }
+        return urls;
+    }
+
+    private Optional<LinkPreview> fetchPreview(String url) {
+        try {
+            return Optional.ofNullable(linkPreviewFetcher.fetch(URI.create(url)));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Size and content type of an attachment that points at a file in our own storage.
+     * External URLs are left alone.
+     */
+    private AttachmentInfo attachmentInfo(ChatMessage message) {
+        String url = message.getAttachmentUrl().trim();
+        int files = url.indexOf(FILES_PATH);
+        String filename;
+        if (files >= 0) {
+            filename = url.substring(files + FILES_PATH.length());
+        } else if (!url.contains("://")) {
+            filename = url.startsWith("/") ? url.substring(1) : url;
+        } else {
+            return null;
+        }
+        try {
+            Path file = fileStorageService.resolveStoredFile(filename);
+            if (!Files.isRegularFile(file)) {
+                return null;
+            }
+            String name = message.getAttachmentName() != null ? message.getAttachmentName() : file.getFileName().toString();
+            return new AttachmentInfo(name, tika.detect(file), Files.size(file));
+        } catch (IOException | RuntimeException e) {
+            logger.debug("No metadata for attachment {} of chat message {}: {}", url, message.getId(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The replied-to message, if it belongs to the same course or conversation.
+     */
+    private ReplyContext replyContext(ChatMessage message) {
+        // The replied-to message may have been sent moments ago and still be queued
+        ChatMessage queued = writeBehind.getPending(message.getReplyToId());
+        // A transaction of its own so the sender can be loaded on this worker thread
+        return readOnlyTransaction.execute(status -> {
+            ChatMessage original = queued != null ? queued
+                    : chatMessageRepository.findById(message.getReplyToId()).orElse(null);
+            if (original == null || original.getIsDeleted() || !sameThread(message, original)) {
+                return null;
+            }
+            User sender = original.getSender();
+            String content = original.getContent();
+            String preview = content.length() > REPLY_PREVIEW_LENGTH
+                    ? content.substring(0, REPLY_PREVIEW_LENGTH) + "…" : content;
+            return new ReplyContext(original.getId(), sender.getId(), sender.getFullName(), preview);
+        });
+    }
+
+    private static boolean sameThread(ChatMessage message, ChatMessage original) {
+        // getId() on a lazy proxy doesn't initialize it
+        if (message.isCourseMessage()) {
+            return original.getCourse() != null && original.getCourse().getId().equals(message.getCourse().getId());
+        }
+        if (original.getRecipient() == null || original.getCourse() != null) {
+            return false;
+        }
+        Long a = message.getSender().getId();
+        Long b = message.getRecipient().getId();
+        Long from = original.getSender().getId();
+        Long to = original.getRecipient().getId();
+        return (from.equals(a) && to.equals(b)) || (from.equals(b) && to.equals(a));
+    }
+
+    private void send(ChatMessage message, ChatEnrichment enrichment) {
+        if (message.isCourseMessage()) {
+            messagingTemplate.convertAndSend("/topic/course/" + message.getCourse().getId() + "/enrichment", enrichment);
+        } else {
+            messagingTemplate.convertAndSendToUser(message.getRecipient().getUsername(), "/queue/enrichment", enrichment);
+            messagingTemplate.convertAndSendToUser(message.getSender().getUsername(), "/queue/enrichment", enrichment);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.virtualclassroom.service;
+
+import com.virtualclassroom.dto.MessageCursor;
+import com.virtualclassroom.model.ChatMessage;
+import com.virtualclassroom.model.Course;
+import com.virtualclassroom.repository.ChatMessageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded in-memory window of each course's most recent chat messages.
+ *
+ * A course's buffer is loaded from the database the first time its history is read, and
+ * from then on kept current by {@link ChatService} as messages are sent, edited and
+ * deleted. Pages that fall inside the window are served from memory; deeper history goes
+ * to the repository. Buffers of courses nobody has read for a while are dropped.
+ */
+@Service
+public class ChatHistoryCache {
+
+    // Newest first, matching the order the history endpoint returns
+    private static final Comparator<ChatMessage> NEWEST_FIRST = Comparator
+            .comparing(ChatMessage::getCreatedAt, Comparator.nullsLast(Comparator.reverseOrder()))
+            .thenComparing(ChatMessage::getId, Comparator.nullsLast(Comparator.reverseOrder()));
+
+    @Autowired
+    private ChatMessageRepository chatMessageRepository;
+
+    @Autowired
+    private ChatMessageWriteBehind writeBehind;
+
+    @Autowired
+    private ChatArchiveStore archiveStore;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.history-cache.capacity:200}")
+    private int capacity;
+
+    @Value("${chat.history-cache.idle-minutes:30}")
+    private long idleMinutes;
+
+    private final Map<Long, CourseBuffer> buffers = new ConcurrentHashMap<>();
+
+    private Counter hits;
+    private Counter misses;
+
+    @PostConstruct
+    public void init() {
+        hits = Counter.builder("chat.history.cache")
+                .description("Course chat history pages served from memory")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        misses = Counter.builder("chat.history.cache")
+                .description("Course chat history pages read from the database")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        meterRegistry.gauge("chat.history.cache.courses", buffers, Map::size);
+    }
+
+    /**
+     * Serve a page of a course's history from memory, loading the course's buffer first
+     * if needed.
+     * @return The page, newest first, or null if it reaches past the buffered window
+     */
+    public List<ChatMessage> getPage(Course course, int page, int size) {
+        CourseBuffer buffer = buffers.computeIfAbsent(course.getId(), id -> new CourseBuffer());
+        buffer.lastAccess = System.currentTimeMillis();
+        if (!buffer.isLoaded() && buffer.startLoad()) {
+            try {
+                load(buffer, course);
+            } finally {
+                buffer.endLoad();
+            }
+        }
+        List<ChatMessage> result = buffer.page(page, size);
+        (result != null ? hits : misses).increment();
+        return result;
+    }
+
+    /**
+     * Serve the messages older than a cursor from memory, if the window covers them.
+     * @return The page, newest first, or null if it reaches past the buffered window
+     */
+    public List<ChatMessage> getPageBefore(Course course, MessageCursor before, int size) {
+        CourseBuffer buffer = buffers.get(course.getId());
+        List<ChatMessage> result = buffer != null ? buffer.pageBefore(before, size) : null;
+        (result != null ? hits : misses).increment();
+        return result;
+    }
+
+    /**
+     * Record a newly sent course message. Courses without a buffer are skipped; their
+     * buffer is loaded from the database on the next read.
+     */
+    public void messageCreated(ChatMessage message) {
+        CourseBuffer buffer = bufferFor(message);
+        if (buffer != null) {
+            buffer.add(message);
+        }
+    }
+
+    /**
+     * Apply a committed edit to the buffered copy of a message.
+     */
+    public void messageEdited(ChatMessage message) {
+        CourseBuffer buffer = bufferFor(message);
+        if (buffer != null) {
+            buffer.edit(message);
+        }
+    }
+
+    /**
+     * Drop a committed deletion from the buffer.
+     */
+    public void messageDeleted(ChatMessage message) {
+        CourseBuffer buffer = bufferFor(message);
+        if (buffer != null) {
+            buffer.remove(message.getId());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${chat.history-cache.evict-millis:60000}")
+    public void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleMinutes * 60_000L;
+        buffers.values().removeIf(buffer -> buffer.lastAccess < cutoff);
+    }
+
+    private CourseBuffer bufferFor(ChatMessage message) {
+        // getId() on a lazy proxy doesn't initialize it
+        return message.getCourse() != null ? buffers.get(message.getCourse().getId()) : null;
+    }
+
+    private void load(CourseBuffer buffer, Course course) {
+        long version = buffer.version();
+        // Messages still queued for writing are missing from the query; taken before it, so a
+        // message that leaves the queue meanwhile is in the query instead
+        List<ChatMessage> queued = writeBehind.getPendingCourseMessages(course.getId());
+        List<ChatMessage> recent = new ArrayList<>(chatMessageRepository.findRecentCourseMessages(course,
+                PageRequest.of(0, capacity)));
+        recent.addAll(queued);
+        // With archived history the window never holds everything, so short pages fall through
+        buffer.load(recent, version, !archiveStore.hasArchive(course.getId()));
+    }
+
+    /**
+     * One course's window. Messages sent while the buffer loads are merged with the
+     * loaded ones; a load that overlaps an edit or delete is discarded and retried on
+     * the next read.
+     */
+    private final class CourseBuffer {
+        private final List<ChatMessage> messages = new ArrayList<>();
+        private boolean loaded;
+        // Only one reader loads; the others go to the database meanwhile
+        private boolean loading;
+        // Whether the window holds the course's whole history, so short pages are final
+        private boolean complete;
+        private long version;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        synchronized boolean isLoaded() {
+            return loaded;
+        }
+
+        synchronized boolean startLoad() {
+            if (loaded || loading) {
+                return false;
+            }
+            loading = true;
+            return true;
+        }
+
+        synchronized void endLoad() {
+            loading = false;
+        }
+
+        synchronized long version() {
+            return version;
+        }
+
+        synchronized void load(List<ChatMessage> recent, long expectedVersion, boolean mayBeComplete) {
+            if (loaded || version != expectedVersion) {
+                return;
+            }
+            for (ChatMessage message : recent) {
+                if (indexOf(message.getId()) < 0) {
+                    messages.add(message);
+                }
+            }
+            messages.sort(NEWEST_FIRST);
+            complete = mayBeComplete && recent.size() < capacity;
+            trim();
+            loaded = true;
+        }
+
+        synchronized List<ChatMessage> page(int page, int size) {
+            if (!loaded || page < 0 || size <= 0) {
+                return null;
+            }
+            long from = (long) page * size;
+            long to = from + size;
+            if (to > messages.size() && !complete) {
+                return null;
+            }
+            if (from >= messages.size()) {
+                return Collections.emptyList();
+            }
+            return new ArrayList<>(messages.subList((int) from, (int) Math.min(to, messages.size())));
+        }
+
+        synchronized List<ChatMessage> pageBefore(MessageCursor before, int size) {
+            if (!loaded || size <= 0) {
+                return null;
+            }
+            int from = 0;
+            while (from < messages.size() && !before.isOlder(messages.get(from))) {
+                from++;
+            }
+            // A cursor past the oldest buffered message can't be told apart from a gap
+            if (from == messages.size() && !complete) {
+                return null;
+            }
+            int to = from + size;
+            if (to > messages.size() && !complete) {
+                return null;
+            }
+            return new ArrayList<>(messages.subList(from, Math.min(to, messages.size())));
+        }
+
+        synchronized void add(ChatMessage message) {
+            // Concurrent senders can arrive slightly out of order; walk in from the newest end
+            int position = 0;
+            while (position < messages.size() && NEWEST_FIRST.compare(messages.get(position), message) < 0) {
+                position++;
+            }
+            messages.add(position, message);
+            trim();
+        }
+
+        synchronized void edit(ChatMessage edited) {
+            version++;
+            int index = indexOf(edited.getId());
+            if (index >= 0) {
+                // Copy the changes rather than keep the managed entity and its lazy proxies
+                ChatMessage cached = messages.get(index);
+                cached.setContent(edited.getContent());
+                cached.setIsEdited(edited.getIsEdited());
+                cached.setUpdatedAt(edited.getUpdatedAt());
+            }
+        }
+
+        synchronized void remove(Long messageId) {
+            version++;
+            int index = indexOf(messageId);
+            if (index >= 0) {
+                messages.remove(index);
+            }
+        }
+
+        private int indexOf(Long messageId) {
+            for (int i = 0; i < messages.size(); i++) {
+                if (messages.get(i).getId().equals(messageId)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void trim() {
+            while (messages.size() > capacity) {
+                messages.remove(messages.size() - 1);
+                complete = false;
+            }
+        }
+    }
+}
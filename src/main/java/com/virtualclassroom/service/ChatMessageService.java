@@ -1,5 +1,8 @@
 package com.virtualclassroom.service;
 
+import com.virtualclassroom.dto.ChatMessageRequest;
+import com.virtualclassroom.dto.ConversationDTO;
+import com.virtualclassroom.dto.MessageCursor;
 import com.virtualclassroom.model.ChatMessage;
 import com.virtualclassroom.model.Course;
 import com.virtualclassroom.model.MessageType;
@@ -22,6 +25,26 @@ public interface ChatMessageService {
      */
     ChatMessage createCourseMessage(String content, User sender, Course course, MessageType type);
     
+    /**
+     * Create a new course message unless the sender already sent this client message ID
+     * @param content Message content
+     * @param sender Message sender
+     * @param course Course context
+     * @param type Message type
+     * @param clientMessageId Client-generated ID used to drop resends, may be null
+     * @return Created ChatMessage, or null if it was a resend
+     */
+    ChatMessage createCourseMessage(String content, User sender, Course course, MessageType type, String clientMessageId);
+    
+    /**
+     * Create a new course message from a client request, including its attachment and reply
+     * @param request Message request
+     * @param sender Message sender
+     * @param course Course context
+     * @return Created ChatMessage, or null if it was a resend
+     */
+    ChatMessage createCourseMessage(ChatMessageRequest request, User sender, Course course);
+    
     /**
      * Create a new direct message
      * @param content Message content
@@ -32,6 +55,26 @@ public interface ChatMessageService {
      */
     ChatMessage createDirectMessage(String content, User sender, User recipient, MessageType type);
     
+    /**
+     * Create a new direct message unless the sender already sent this client message ID
+     * @param content Message content
+     * @param sender Message sender
+     * @param recipient Message recipient
+     * @param type Message type
+     * @param clientMessageId Client-generated ID used to drop resends, may be null
+     * @return Created ChatMessage, or null if it was a resend
+     */
+    ChatMessage createDirectMessage(String content, User sender, User recipient, MessageType type, String clientMessageId);
+    
+    /**
+     * Create a new direct message from a client request, including its attachment and reply
+     * @param request Message request
+     * @param sender Message sender
+     * @param recipient Message recipient
+     * @return Created ChatMessage, or null if it was a resend
+     */
+    ChatMessage createDirectMessage(ChatMessageRequest request, User sender, User recipient);
+    
     /**
      * Get messages for a course with pagination
      * @param course Course
@@ -52,7 +95,49 @@ public interface ChatMessageService {
     List<ChatMessage> getDirectMessages(User user1, User user2, int page, int size);
     
     /**
-     * Edit a message
+     * Get the course messages older than a cursor, newest first
+     * @param course Course
+     * @param before Cursor of the oldest message the client already has
+     * @param size Page size
+     * @return List of ChatMessage
+     */
+    List<ChatMessage> getCourseMessagesBefore(Course course, MessageCursor before, int size);
+    
+    /**
+     * Get the direct messages between two users older than a cursor, newest first
+     * @param user1 First user
+     * @param user2 Second user
+     * @param before Cursor of the oldest message the client already has
+     * @param size Page size
+     * @return List of ChatMessage
+     */
+    List<ChatMessage> getDirectMessagesBefore(User user1, User user2, MessageCursor before, int size);
+    
+    /**
+     * Get the ID of the message a resent client message ID was first sent as
+     * @param sender Message sender
+     * @param clientMessageId Client-generated ID of the resend
+     * @return ID of the original message, or null if it is no longer remembered
+     */
+    Long getResentMessageId(User sender, String clientMessageId);
+    
+    /**
+     * Report that a created message could not be broadcast; it is already stored, so the
+     * sender's resend redelivers it rather than creating it again
+     * @param message The message returned by one of the create methods
+     */
+    void sendFailed(ChatMessage message);
+    
+    /**
+     * Take a message whose broadcast failed, for redelivery on the sender's resend
+     * @param sender Message sender
+     * @param clientMessageId Client-generated ID of the resend
+     * @return The undelivered message, or null if it was delivered or isn't remembered
+     */
+    ChatMessage takeUndelivered(User sender, String clientMessageId);
+    
+    /**
+     * Edit a message. Messages moved to the chat archive can't be edited.
      * @param messageId Message ID
      * @param newContent New message content
      * @param user User performing the edit
@@ -61,18 +146,35 @@ public interface ChatMessageService {
     ChatMessage editMessage(Long messageId, String newContent, User user);
     
     /**
-     * Delete a message
+     * Delete a message, including one moved to the chat archive
      * @param messageId Message ID
      * @param user User performing the deletion
      */
     void deleteMessage(Long messageId, User user);
     
+    /**
+     * Full-text search within a course's messages
+     * @param course Course
+     * @param query Search query; supports "phrases" and prefix* terms
+     * @param limit Maximum number of results
+     * @return Matching messages, most relevant first
+     */
+    List<ChatMessage> searchCourseMessages(Course course, String query, int limit);
+    
     /**
      * Get recent conversations for a user
      * @param user User
-     * @return List of ChatMessage
+     * @return One entry per conversation partner, most recent activity first
+     */
+    List<ConversationDTO> getRecentConversations(User user);
+    
+    /**
+     * Move a user's read watermark in a conversation and send the partner a read receipt
+     * @param user User who read the conversation
+     * @param partner Conversation partner
+     * @param upToMessageId Last message read, or null for the whole conversation
      */
-    List<ChatMessage> getRecentConversations(User user);
+    void markConversationRead(User user, User partner, Long upToMessageId);
     
     /**
      * Get unread message count for a user
@@ -0,0 +1,448 @@
+package com.virtualclassroom.service;
+
+import com.virtualclassroom.model.ChatMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind persistence for chat messages.
+ *
+ * Messages arrive with their id already assigned, so they can be broadcast before they
+ * are stored. A single worker drains the bounded queue and inserts whatever has piled up
+ * (up to the batch size) in one transaction, which Hibernate sends as a JDBC batch. When
+ * the queue is full the caller persists its message itself, which pushes back on senders
+ * instead of dropping anything. Pending messages are drained on shutdown.
+ *
+ * A message that can't be stored has already been delivered, so it is never dropped: it
+ * moves to a retry backlog and is written again with exponential backoff until it sticks.
+ * The backlog counts against the queue capacity, so a long database outage ends in the
+ * same push-back on senders as a full queue. Its size is exposed as a metric and turns the
+ * {@code chatWriteBehind} health check to DEGRADED.
+ *
+ * Once a direct message is stored its conversation rows are updated from here as well,
+ * off the sender's thread and transaction. A flush therefore also covers those updates.
+ *
+ * Messages not written yet can be looked up by id, so readers that need one (search hits,
+ * replies, history loads) take it from here instead of waiting for the queue to drain.
+ */
+@Service("chatWriteBehind")
+public class ChatMessageWriteBehind implements HealthIndicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatMessageWriteBehind.class);
+
+    private static final int BATCH_ATTEMPTS = 3;
+    private static final Status DEGRADED = new Status("DEGRADED", "Chat messages are waiting to be stored");
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Lazy
+    @Autowired
+    private ChatConversationService conversationService;
+
+    @Value("${chat.write-behind.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${chat.write-behind.batch-size:100}")
+    private int batchSize;
+
+    @Value("${chat.write-behind.flush-interval-millis:20}")
+    private long flushIntervalMillis;
+
+    @Value("${chat.write-behind.flush-timeout-millis:5000}")
+    private long flushTimeoutMillis;
+
+    @Value("${chat.write-behind.retry-max-backoff-millis:30000}")
+    private long retryMaxBackoffMillis;
+
+    private BlockingQueue<ChatMessage> queue;
+    private TransactionTemplate transactionTemplate;
+    private Thread worker;
+    private volatile boolean running;
+
+    // Messages are handled in FIFO order, so comparing counts tells whether a given
+    // message has been written
+    private final AtomicLong enqueuedCount = new AtomicLong();
+    private final Object progress = new Object();
+    private long completedCount;
+
+    // Queued or awaiting retry, by id; removed once stored and its conversations updated
+    private final Map<Long, ChatMessage> pending = new ConcurrentHashMap<>();
+    private final Set<Long> awaitingRetry = ConcurrentHashMap.newKeySet();
+
+    // Only touched by the worker (and by stop() once the worker has ended)
+    private final Deque<Retry> backlog = new ArrayDeque<>();
+    private final AtomicInteger backlogSize = new AtomicInteger();
+    private volatile long oldestFailureMillis;
+    private Counter failures;
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        // Always a transaction of its own, also when a full queue makes a caller write inline
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        meterRegistry.gauge("chat.write-behind.queued", queue, BlockingQueue::size);
+        meterRegistry.gauge("chat.write-behind.backlog", backlogSize);
+        failures = Counter.builder("chat.write-behind.failures")
+                .description("Chat message writes that failed and were queued for retry")
+                .register(meterRegistry);
+        running = true;
+        worker = new Thread(this::run, "chat-write-behind");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Queue a new message for insertion, or insert it right away if the queue is full.
+     * @param message The message, with its id assigned
+     */
+    public void enqueue(ChatMessage message) {
+        // The retry backlog takes up queue capacity, so an outage pushes back on senders
+        pending.put(message.getId(), message);
+        if (running && backlogSize.get() < queueCapacity && queue.offer(message)) {
+            enqueuedCount.incrementAndGet();
+            return;
+        }
+        pending.remove(message.getId());
+        persist(Collections.singletonList(message));
+        recordConversations(Collections.singletonList(message));
+    }
+
+    /**
+     * Block until every message queued before this call has been written, e.g. before
+     * rebuilding the search index from the table. Waits on the whole queue, so it has no
+     * place on request paths; see {@link #awaitStored} and {@link #getPending}.
+     */
+    public void flush() {
+        long target = enqueuedCount.get();
+        long deadline = System.currentTimeMillis() + flushTimeoutMillis;
+        synchronized (progress) {
+            while (completedCount < target) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || !running) {
+                    break;
+                }
+                try {
+                    progress.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * A message that hasn't been written yet.
+     * @return The queued message, or null if it is stored (or was never queued)
+     */
+    public ChatMessage getPending(Long messageId) {
+        return pending.get(messageId);
+    }
+
+    /**
+     * The course messages that haven't been written yet, in no particular order.
+     */
+    public List<ChatMessage> getPendingCourseMessages(Long courseId) {
+        List<ChatMessage> messages = new ArrayList<>();
+        for (ChatMessage message : pending.values()) {
+            // getId() on a lazy proxy doesn't initialize it
+            if (message.getCourse() != null && courseId.equals(message.getCourse().getId())) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Block until one message has been written, e.g. before editing it. Returns at once if
+     * it is already stored, and gives up at once if its write failed and awaits a retry.
+     * @return false if it still isn't stored
+     */
+    public boolean awaitStored(Long messageId) {
+        long deadline = System.currentTimeMillis() + flushTimeoutMillis;
+        synchronized (progress) {
+            while (pending.containsKey(messageId)) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || !running || awaitingRetry.contains(messageId)) {
+                    return false;
+                }
+                try {
+                    progress.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Health health() {
+        int pending = backlogSize.get();
+        if (pending == 0) {
+            return Health.up().withDetail("queued", queue.size()).build();
+        }
+        return Health.status(DEGRADED)
+                .withDetail("queued", queue.size())
+                .withDetail("awaitingRetry", pending)
+                .withDetail("failingSinceMillis", oldestFailureMillis)
+                .build();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        worker.interrupt();
+        try {
+            worker.join(flushTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Whatever the worker didn't get to is written on the shutdown thread
+        List<ChatMessage> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            logger.info("Writing {} pending chat messages before shutdown", remaining.size());
+            for (int from = 0; from < remaining.size(); from += batchSize) {
+                write(remaining.subList(from, Math.min(remaining.size(), from + batchSize)));
+            }
+        }
+        retryBacklog(true);
+        if (!backlog.isEmpty()) {
+            for (Retry retry : backlog) {
+                logger.error("Chat message {} could not be stored before shutdown", retry.message.getId());
+            }
+        }
+        synchronized (progress) {
+            progress.notifyAll();
+        }
+    }
+
+    private void run() {
+        List<ChatMessage> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                ChatMessage first = queue.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+
+                    // Linger briefly so a burst ends up in one batch rather than many small ones
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                    while (batch.size() < batchSize) {
+                        ChatMessage next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                        queue.drainTo(batch, batchSize - batch.size());
+                    }
+                }
+            } catch (InterruptedException e) {
+                if (!running) {
+                    // Shutdown: write what was already taken; stop() writes the rest
+                    if (!batch.isEmpty()) {
+                        write(batch);
+                    }
+                    break;
+                }
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+            retryBacklog(false);
+        }
+    }
+
+    /**
+     * Write a batch, retrying transient failures, then one by one so a single bad row
+     * doesn't take the rest of the batch with it. Messages that still fail go to the retry
+     * backlog. Always counts the batch as completed.
+     */
+    private void write(List<ChatMessage> batch) {
+        try {
+            for (int attempt = 1; attempt <= BATCH_ATTEMPTS; attempt++) {
+                try {
+                    persist(batch);
+                    recordConversations(batch);
+                    stored(batch);
+                    return;
+                } catch (RuntimeException e) {
+                    logger.warn("Chat write-behind batch of {} failed (attempt {}/{}): {}",
+                            batch.size(), attempt, BATCH_ATTEMPTS, e.getMessage());
+                    sleepQuietly(100L * attempt);
+                }
+            }
+            for (ChatMessage message : batch) {
+                try {
+                    persist(Collections.singletonList(message));
+                    recordConversations(Collections.singletonList(message));
+                    stored(Collections.singletonList(message));
+                } catch (RuntimeException e) {
+                    logger.error("Chat message {} could not be stored, will retry", message.getId(), e);
+                    addToBacklog(message);
+                }
+            }
+        } finally {
+            synchronized (progress) {
+                completedCount += batch.size();
+                progress.notifyAll();
+            }
+        }
+    }
+
+    private void addToBacklog(ChatMessage message) {
+        if (backlog.isEmpty()) {
+            oldestFailureMillis = System.currentTimeMillis();
+        }
+        backlog.add(new Retry(message));
+        awaitingRetry.add(message.getId());
+        backlogSize.set(backlog.size());
+        failures.increment();
+    }
+
+    /**
+     * Write the backlog messages whose backoff has elapsed (or all of them), oldest first.
+     * A failure backs the message off further; the first failure of a pass ends the pass,
+     * since the rest would most likely fail the same way.
+     */
+    private void retryBacklog(boolean all) {
+        long now = System.nanoTime();
+        int count = backlog.size();
+        for (int i = 0; i < count; i++) {
+            Retry retry = backlog.peek();
+            if (!all && retry.dueNanos - now > 0) {
+                backlog.add(backlog.poll()); // not due yet; keep the rest in order
+                continue;
+            }
+            backlog.poll();
+            try {
+                persist(Collections.singletonList(retry.message));
+            } catch (RuntimeException e) {
+                retry.backOff(retryMaxBackoffMillis);
+                backlog.add(retry);
+                logger.warn("Retry {} of chat message {} failed: {}", retry.attempts, retry.message.getId(), e.getMessage());
+                if (!all) {
+                    break;
+                }
+                continue;
+            }
+            recordConversations(Collections.singletonList(retry.message));
+            awaitingRetry.remove(retry.message.getId());
+            stored(Collections.singletonList(retry.message));
+            synchronized (progress) {
+                progress.notifyAll();
+            }
+        }
+        backlogSize.set(backlog.size());
+        if (backlog.isEmpty()) {
+            oldestFailureMillis = 0L;
+        }
+    }
+
+    private void stored(List<ChatMessage> messages) {
+        for (ChatMessage message : messages) {
+            pending.remove(message.getId());
+        }
+    }
+
+    /**
+     * Update the inboxes for the stored direct messages. The messages themselves are safe,
+     * so a failure here is logged rather than retried.
+     */
+    private void recordConversations(List<ChatMessage> messages) {
+        for (ChatMessage message : messages) {
+            if (!message.isDirectMessage()) {
+                continue;
+            }
+            try {
+                conversationService.recordDirectMessage(message);
+            } catch (RuntimeException e) {
+                logger.error("Failed to update conversations for chat message {}", message.getId(), e);
+            }
+        }
+    }
+
+    private void persist(List<ChatMessage> messages) {
+        transactionTemplate.executeWithoutResult(status -> {
+            // JDBC batching for this session only, rather than for every entity in the app
+            entityManager.unwrap(Session.class).setJdbcBatchSize(batchSize);
+            for (ChatMessage message : messages) {
+                entityManager.persist(message);
+            }
+            entityManager.flush();
+            // Detach so the broadcast instances are never tied to this persistence context
+            entityManager.clear();
+        });
+    }
+
+    /**
+     * A message waiting to be written again.
+     */
+    private static final class Retry {
+        private final ChatMessage message;
+        private int attempts;
+        private long dueNanos;
+
+        Retry(ChatMessage message) {
+            this.message = message;
+            backOff(0L);
+        }
+
+        void backOff(long maxBackoffMillis) {
+            attempts++;
+            // 1 s, 2 s, 4 s, ... capped
+            long backoff = Math.min(1000L << Math.min(attempts - 1, 20), Math.max(1000L, maxBackoffMillis));
+            dueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff);
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.virtualclassroom.service;
+
+import com.virtualclassroom.model.ChatMessage;
+import com.virtualclassroom.model.Course;
+import com.virtualclassroom.repository.ChatMessageRepository;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Embedded Lucene index over course chat messages.
+ *
+ * The index lives in {@code chat-index} under the storage root and is kept current by
+ * {@link ChatService} as messages are sent, edited and deleted. Searches see changes
+ * after the next refresh (near-real-time); commits to disk happen on a slower schedule.
+ * Queries use classic Lucene syntax, so "quoted phrases" and prefix* terms work, and
+ * results come back ranked by BM25 relevance. If the index is missing on startup it is
+ * rebuilt from the database in the background.
+ *
+ * Only the hot chat table is searchable: messages moved out by {@link ChatArchiveStore}
+ * no longer turn up in results.
+ */
+@Service
+public class ChatSearchIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatSearchIndex.class);
+
+    private static final String FIELD_ID = "id";
+    private static final String FIELD_COURSE = "course";
+    private static final String FIELD_CONTENT = "content";
+
+    private static final int REBUILD_BATCH_SIZE = 500;
+
+    @Autowired
+    @Qualifier("initStorage")
+    private Path storageRoot;
+
+    @Autowired
+    private ChatMessageRepository chatMessageRepository;
+
+    @Autowired
+    private ChatMessageWriteBehind writeBehind;
+
+    @Value("${chat.search.max-results:100}")
+    private int maxResults;
+
+    private final Analyzer analyzer = new StandardAnalyzer();
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    // Writes and searches share the read side; swapping in a rebuilt index takes the write side
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+
+    private Path indexDir;
+    private Directory directory;
+    private IndexWriter writer;
+    private SearcherManager searcherManager;
+    // Set while a rebuild runs, so live changes also reach the index being built
+    private volatile IndexWriter rebuildWriter;
+    private boolean rebuildOnStartup;
+
+    @PostConstruct
+    public void open() throws IOException {
+        indexDir = storageRoot.resolve("chat-index");
+        Files.createDirectories(indexDir);
+        directory = FSDirectory.open(indexDir);
+        rebuildOnStartup = !DirectoryReader.indexExists(directory);
+        writer = openWriter(directory, IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        searcherManager = new SearcherManager(writer, null);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildIfMissing() {
+        if (rebuildOnStartup) {
+            Thread thread = new Thread(this::rebuild, "chat-index-rebuild");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        swapLock.writeLock().lock();
+        try {
+            searcherManager.close();
+            writer.close();
+            directory.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close chat search index", e);
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Add or replace a course message in the index. Direct messages are not indexed.
+     */
+    public void index(ChatMessage message) {
+        if (message.getCourse() == null || Boolean.TRUE.equals(message.getIsDeleted())) {
+            return;
+        }
+        Document document = toDocument(message);
+        Term id = new Term(FIELD_ID, message.getId().toString());
+        swapLock.readLock().lock();
+        try {
+            writer.updateDocument(id, document);
+            IndexWriter building = rebuildWriter;
+            if (building != null) {
+                building.updateDocument(id, document);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to index chat message {}", message.getId(), e);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    public void remove(Long messageId) {
+        Term id = new Term(FIELD_ID, messageId.toString());
+        swapLock.readLock().lock();
+        try {
+            writer.deleteDocuments(id);
+            IndexWriter building = rebuildWriter;
+            if (building != null) {
+                building.deleteDocuments(id);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to remove chat message {} from the index", messageId, e);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Search one course's messages. Archived messages are not included.
+     * @param course The course to search in
+     * @param queryText Lucene query syntax; input that doesn't parse is searched as plain terms
+     * @param limit Maximum number of results, capped at chat.search.max-results
+     * @return The matching messages, most relevant first
+     */
+    public List<ChatMessage> search(Course course, String queryText, int limit) {
+        if (queryText == null || queryText.isBlank()) {
+            return new ArrayList<>();
+        }
+        QueryParser parser = new QueryParser(FIELD_CONTENT, analyzer);
+        parser.setDefaultOperator(QueryParser.Operator.AND);
+        Query contentQuery;
+        try {
+            contentQuery = parser.parse(queryText);
+        } catch (ParseException e) {
+            try {
+                contentQuery = parser.parse(QueryParser.escape(queryText));
+            } catch (ParseException again) {
+                throw new RuntimeException("Invalid search query");
+            }
+        }
+        Query query = new BooleanQuery.Builder()
+                .add(contentQuery, BooleanClause.Occur.MUST)
+                .add(new TermQuery(new Term(FIELD_COURSE, course.getId().toString())), BooleanClause.Occur.FILTER)
+                .build();
+
+        List<Long> ids = new ArrayList<>();
+        swapLock.readLock().lock();
+        try {
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                for (ScoreDoc hit : searcher.search(query, Math.max(1, Math.min(limit, maxResults))).scoreDocs) {
+                    ids.add(Long.valueOf(searcher.storedFields().document(hit.doc).get(FIELD_ID)));
+                }
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Chat search failed: " + e.getMessage());
+        } finally {
+            swapLock.readLock().unlock();
+        }
+        return loadInOrder(ids);
+    }
+
+    /**
+     * Re-add every course message from the database into a fresh index, then swap it in
+     * for the current one. Searches keep using the old index until the swap. Only one
+     * rebuild runs at a time.
+     * @return Number of messages indexed, or -1 if a rebuild was already running
+     */
+    public long rebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return -1;
+        }
+        Path buildDir = storageRoot.resolve("chat-index.rebuild");
+        Directory buildDirectory = null;
+        IndexWriter building = null;
+        try {
+            FileSystemUtils.deleteRecursively(buildDir);
+            buildDirectory = FSDirectory.open(buildDir);
+            building = openWriter(buildDirectory, IndexWriterConfig.OpenMode.CREATE);
+            // From here on live changes reach both indexes; anything sent before is stored
+            // once the flush returns, so the scan below picks it up
+            rebuildWriter = building;
+            writeBehind.flush();
+            long indexed = 0;
+            long afterId = 0;
+            List<ChatMessage> batch;
+            do {
+                batch = chatMessageRepository.findCourseMessagesAfterId(afterId, PageRequest.of(0, REBUILD_BATCH_SIZE));
+                for (ChatMessage message : batch) {
+                    building.updateDocument(new Term(FIELD_ID, message.getId().toString()), toDocument(message));
+                    afterId = message.getId();
+                }
+                indexed += batch.size();
+            } while (batch.size() == REBUILD_BATCH_SIZE);
+
+            swapLock.writeLock().lock();
+            try {
+                rebuildWriter = null;
+                building.close(); // commits
+                building = null;
+                buildDirectory.close();
+                buildDirectory = null;
+                swapIn(buildDir);
+            } finally {
+                swapLock.writeLock().unlock();
+            }
+            logger.info("Rebuilt chat search index with {} messages", indexed);
+            return indexed;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to rebuild chat search index: " + e.getMessage());
+        } finally {
+            rebuildWriter = null;
+            closeQuietly(building, buildDirectory);
+            rebuilding.set(false);
+        }
+    }
+
+    /**
+     * Replace the live index with the committed one in buildDir. Holds the swap write lock.
+     */
+    private void swapIn(Path buildDir) throws IOException {
+        searcherManager.close();
+        writer.close();
+        directory.close();
+        FileSystemUtils.deleteRecursively(indexDir);
+        Files.move(buildDir, indexDir, StandardCopyOption.ATOMIC_MOVE);
+        directory = FSDirectory.open(indexDir);
+        writer = openWriter(directory, IndexWriterConfig.OpenMode.APPEND);
+        searcherManager = new SearcherManager(writer, null);
+    }
+
+    @Scheduled(fixedDelayString = "${chat.search.refresh-millis:1000}")
+    public void refresh() {
+        swapLock.readLock().lock();
+        try {
+            searcherManager.maybeRefresh();
+        } catch (IOException e) {
+            logger.warn("Failed to refresh chat search index", e);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${chat.search.commit-millis:30000}")
+    public void commit() {
+        swapLock.readLock().lock();
+        try {
+            if (writer.hasUncommittedChanges()) {
+                writer.commit();
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to commit chat search index", e);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    private Document toDocument(ChatMessage message) {
+        Document document = new Document();
+        document.add(new StringField(FIELD_ID, message.getId().toString(), Field.Store.YES));
+        document.add(new StringField(FIELD_COURSE, message.getCourse().getId().toString(), Field.Store.NO));
+        document.add(new TextField(FIELD_CONTENT, message.getContent(), Field.Store.NO));
+        return document;
+    }
+
+    private static void closeQuietly(AutoCloseable... closeables) {
+        for (AutoCloseable closeable : closeables) {
+            if (closeable == null) {
+                continue;
+            }
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                logger.warn("Failed to close abandoned chat index rebuild", e);
+            }
+        }
+    }
+
+    private IndexWriter openWriter(Directory target, IndexWriterConfig.OpenMode mode) throws IOException {
+        IndexWriterConfig config = new IndexWriterConfig(analyzer);
+        config.setOpenMode(mode);
+        return new IndexWriter(target, config);
+    }
+
+    private List<ChatMessage> loadInOrder(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // Hits may include messages still waiting in the write-behind queue. Checked before
+        // the query: a message that leaves the queue meanwhile is stored by then
+        Map<Long, ChatMessage> byId = new HashMap<>();
+        List<Long> stored = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            ChatMessage queued = writeBehind.getPending(id);
+            if (queued != null) {
+                byId.put(id, queued);
+            } else {
+                stored.add(id);
+            }
+        }
+        for (ChatMessage message : chatMessageRepository.findAllById(stored)) {
+            byId.put(message.getId(), message);
+        }
+        List<ChatMessage> results = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            ChatMessage message = byId.get(id);
+            if (message != null && !message.getIsDeleted()) {
+                results.add(message);
+            }
+        }
+        return results;
+    }
+}
@@ -1,5 +1,8 @@
 package com.virtualclassroom.service;
 
+import com.virtualclassroom.dto.ChatMessageRequest;
+import com.virtualclassroom.dto.ConversationDTO;
+import com.virtualclassroom.dto.MessageCursor;
 import com.virtualclassroom.model.ChatMessage;
 import com.virtualclassroom.model.Course;
 import com.virtualclassroom.model.MessageType;
@@ -7,45 +10,134 @@ import com.virtualclassroom.model.User;
 import com.virtualclassroom.repository.ChatMessageRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.util.ArrayList;
 import java.util.List;
 
 @Service
 @Transactional
 public class ChatService implements ChatMessageService {
     
+    private static final String MESSAGE_ID_SEQUENCE = "chat_messages";
+    
     @Autowired
     private ChatMessageRepository chatMessageRepository;
     
+    @Autowired
+    private IdAllocator idAllocator;
+    
+    @Autowired
+    private ChatMessageWriteBehind writeBehind;
+    
+    @Autowired
+    private ChatHistoryCache historyCache;
+    
+    @Autowired
+    private ChatSearchIndex searchIndex;
+    
+    @Autowired
+    private ChatConversationService conversationService;
+    
+    @Autowired
+    private ClientMessageDeduplicator deduplicator;
+    
+    @Autowired
+    private ChatArchiveStore archiveStore;
+    
+    // New messages get their id up front and are stored in the background, so the
+    // broadcast doesn't wait for the database
     public ChatMessage createCourseMessage(String content, User sender, Course course, MessageType type) {
+        return createCourseMessage(content, sender, course, type, null);
+    }
+    
+    public ChatMessage createCourseMessage(String content, User sender, Course course, MessageType type,
+                                           String clientMessageId) {
         ChatMessage message = new ChatMessage(content, sender, course);
         message.setType(type);
-        return chatMessageRepository.save(message);
+        message.setClientMessageId(clientMessageId);
+        return createCourseMessage(message);
+    }
+    
+    public ChatMessage createCourseMessage(ChatMessageRequest request, User sender, Course course) {
+        return createCourseMessage(applyRequest(new ChatMessage(request.getContent(), sender, course), request));
     }
     
     public ChatMessage createDirectMessage(String content, User sender, User recipient, MessageType type) {
+        return createDirectMessage(content, sender, recipient, type, null);
+    }
+    
+    public ChatMessage createDirectMessage(String content, User sender, User recipient, MessageType type,
+                                           String clientMessageId) {
         ChatMessage message = new ChatMessage(content, sender, recipient);
         message.setType(type);
-        return chatMessageRepository.save(message);
+        message.setClientMessageId(clientMessageId);
+        return createDirectMessage(message);
+    }
+    
+    public ChatMessage createDirectMessage(ChatMessageRequest request, User sender, User recipient) {
+        return createDirectMessage(applyRequest(new ChatMessage(request.getContent(), sender, recipient), request));
     }
     
     public List<ChatMessage> getCourseMessages(Course course, int page, int size) {
-        Pageable pageable = PageRequest.of(page, size, Sort.by("createdAt").descending());
-        return chatMessageRepository.findByCourseAndIsDeletedFalseOrderByCreatedAtDesc(course, pageable);
+        List<ChatMessage> cached = historyCache.getPage(course, page, size);
+        if (cached != null) {
+            return cached;
+        }
+        List<ChatMessage> hot = chatMessageRepository.findByCourseAndIsDeletedFalseOrderByCreatedAtDescIdDesc(course,
+            PageRequest.of(page, size));
+        if (hot.size() == size || !archiveStore.hasArchive(course.getId())) {
+            return hot;
+        }
+        // The page runs past the hot table; continue into the archive, which is older
+        long hotTotal = hot.isEmpty()
+            ? chatMessageRepository.countByCourseAndIsDeletedFalse(course)
+            : (long) page * size + hot.size();
+        int skip = (int) Math.max(0, (long) page * size - hotTotal);
+        List<ChatMessage> messages = new ArrayList<>(hot);
+        messages.addAll(archiveStore.read(course, null, skip, size - hot.size()));
+        return messages;
     }
     
     public List<ChatMessage> getDirectMessages(User user1, User user2, int page, int size) {
-        Pageable pageable = PageRequest.of(page, size, Sort.by("createdAt").descending());
-        return chatMessageRepository.findDirectMessagesBetweenUsers(user1, user2, pageable);
+        return chatMessageRepository.findDirectMessages(ChatMessage.conversationKey(user1, user2),
+            PageRequest.of(page, size));
+    }
+    
+    public List<ChatMessage> getCourseMessagesBefore(Course course, MessageCursor before, int size) {
+        List<ChatMessage> cached = historyCache.getPageBefore(course, before, size);
+        if (cached != null) {
+            return cached;
+        }
+        List<ChatMessage> hot = chatMessageRepository.findCourseMessagesBefore(course, before.getCreatedAt(),
+            before.getId(), PageRequest.of(0, size));
+        if (hot.size() == size || !archiveStore.hasArchive(course.getId())) {
+            return hot;
+        }
+        MessageCursor archiveCursor = hot.isEmpty() ? before : MessageCursor.of(hot.get(hot.size() - 1));
+        List<ChatMessage> messages = new ArrayList<>(hot);
+        messages.addAll(archiveStore.read(course, archiveCursor, 0, size - hot.size()));
+        return messages;
+    }
+    
+    public List<ChatMessage> getDirectMessagesBefore(User user1, User user2, MessageCursor before, int size) {
+        return chatMessageRepository.findDirectMessagesBefore(ChatMessage.conversationKey(user1, user2),
+            before.getCreatedAt(), before.getId(), PageRequest.of(0, size));
     }
     
     public ChatMessage editMessage(Long messageId, String newContent, User user) {
-        ChatMessage message = chatMessageRepository.findById(messageId)
-            .orElseThrow(() -> new RuntimeException("Message not found"));
+        awaitStored(messageId);
+        ChatMessage message = chatMessageRepository.findById(messageId).orElse(null);
+        if (message == null) {
+            // Segments are immutable; archived messages can still be deleted
+            if (archiveStore.find(messageId) != null) {
+                throw new RuntimeException("Archived messages can no longer be edited");
+            }
+            throw new RuntimeException("Message not found");
+        }
         
         if (!message.getSender().equals(user)) {
             throw new RuntimeException("You can only edit your own messages");
@@ -58,26 +150,155 @@ public class ChatService implements ChatMessageService {
         message.setContent(newContent);
         message.markAsEdited();
         
-        return chatMessageRepository.save(message);
+        ChatMessage saved = chatMessageRepository.save(message);
+        afterCommit(() -> {
+            historyCache.messageEdited(saved);
+            searchIndex.index(saved);
+            if (saved.isDirectMessage()) {
+                conversationService.messageEdited(saved);
+            }
+        });
+        return saved;
     }
     
     public void deleteMessage(Long messageId, User user) {
-        ChatMessage message = chatMessageRepository.findById(messageId)
-            .orElseThrow(() -> new RuntimeException("Message not found"));
+        awaitStored(messageId);
+        ChatMessage message = chatMessageRepository.findById(messageId).orElse(null);
+        if (message == null) {
+            deleteArchivedMessage(messageId, user);
+            return;
+        }
         
-        if (!message.getSender().equals(user) && !user.isAdmin()) {
-            throw new RuntimeException("You can only delete your own messages");
+        if (!message.getSender().equals(user) && !user.isAdmin()) {            throw new RuntimeException("You can only delete your own messages");
         }
         
         message.markAsDeleted();
         chatMessageRepository.save(message);
+        afterCommit(() -> {
+            historyCache.messageDeleted(message);
+            searchIndex.remove(messageId);
+            if (message.isDirectMessage()) {
+                conversationService.messageDeleted(message);
+            }
+        });
     }
     
-    public List<ChatMessage> getRecentConversations(User user) {
-        return chatMessageRepository.findRecentConversations(user);
+    private void deleteArchivedMessage(Long messageId, User user) {
+        ChatMessage message = archiveStore.find(messageId);
+        if (message == null) {
+            throw new RuntimeException("Message not found");
+        }
+        if (!message.getSender().getId().equals(user.getId()) && !user.isAdmin()) {
+            throw new RuntimeException("You can only delete your own messages");
+        }
+        // Archived messages are in neither the history cache nor the search index
+        archiveStore.markDeleted(message.getCourse().getId(), messageId);
+    }
+    
+    public List<ChatMessage> searchCourseMessages(Course course, String query, int limit) {
+        return searchIndex.search(course, query, limit);
+    }
+    
+    public List<ConversationDTO> getRecentConversations(User user) {
+        return conversationService.getConversations(user);
+    }
+    
+    public void markConversationRead(User user, User partner, Long upToMessageId) {
+        conversationService.markRead(user, partner, upToMessageId);
     }
     
     public long getUnreadMessageCount(User user) {
-        return chatMessageRepository.countUnreadMessages(user);
+        return conversationService.getUnreadTotal(user);
+    }
+    
+    private ChatMessage createCourseMessage(ChatMessage message) {
+        if (!claim(message)) {
+            return null;
+        }
+        try {
+            writeBehind.enqueue(message);
+            historyCache.messageCreated(message);
+            searchIndex.index(message);
+        } catch (RuntimeException e) {
+            // Nothing was stored, so let the client's retry through
+            deduplicator.forget(message.getSender().getId(), message.getClientMessageId());
+            throw e;
+        }
+        return message;
+    }
+    
+    private ChatMessage createDirectMessage(ChatMessage message) {
+        if (!claim(message)) {
+            return null;
+        }
+        try {
+            // The write-behind worker updates both inboxes once the message is stored
+            writeBehind.enqueue(message);
+        } catch (RuntimeException e) {
+            // Nothing was stored, so let the client's retry through
+            deduplicator.forget(message.getSender().getId(), message.getClientMessageId());
+            throw e;
+        }
+        return message;
+    }
+    
+    @Override
+    public Long getResentMessageId(User sender, String clientMessageId) {
+        return deduplicator.lookup(sender.getId(), clientMessageId);
+    }
+    
+    @Override
+    public void sendFailed(ChatMessage message) {
+        // Already stored: keep the claim and redeliver on the client's retry
+        deduplicator.undelivered(message.getSender().getId(), message);
+    }
+    
+    @Override
+    public ChatMessage takeUndelivered(User sender, String clientMessageId) {
+        return deduplicator.takeUndelivered(sender.getId(), clientMessageId);
+    }
+    
+    /**
+     * Assign the message its id and claim its client message id.
+     * @return false if it is a resend
+     */
+    private boolean claim(ChatMessage message) {
+        message.setId(nextMessageId());
+        return deduplicator.claim(message.getSender().getId(), message.getClientMessageId(), message.getId()) == null;
+    }
+    
+    // Attachment and reply are taken as given; ChatEnrichmentService checks them after the broadcast
+    private static ChatMessage applyRequest(ChatMessage message, ChatMessageRequest request) {
+        message.setType(MessageType.valueOf(request.getType().toUpperCase()));
+        message.setClientMessageId(request.getClientMessageId());
+        message.setAttachmentUrl(request.getAttachmentUrl());
+        message.setAttachmentName(request.getAttachmentName());
+        message.setReplyToId(request.getReplyToId());
+        return message;
+    }
+    
+    // A message sent moments ago may still be queued; only that one is waited for
+    private void awaitStored(Long messageId) {
+        if (!writeBehind.awaitStored(messageId)) {
+            throw new RuntimeException("Message is still being saved, try again shortly");
+        }
+    }
+    
+    private long nextMessageId() {
+        return idAllocator.nextId(MESSAGE_ID_SEQUENCE, chatMessageRepository::findMaxId);
+    }
+    
+    // Cache updates wait for the commit so a concurrent cache load can't pick up the old row
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
 }
@@ -0,0 +1,118 @@
+package com.virtualclassroom.service;
+
+import com.virtualclassroom.model.ChatMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers recently seen client message ids so resent chat messages can be dropped.
+ * Each id maps to the message it was first sent as, so a resend can be answered with it.
+ *
+ * Ids live in two time buckets: the current one and the one before it. The buckets
+ * rotate once per window (or earlier if the current one fills up), so an id is
+ * remembered for between one and two windows and memory stays bounded. Lookups are
+ * exact; a retry is never mistaken for a new message or the other way round.
+ *
+ * A message that was stored but whose broadcast failed is kept with its id until the
+ * client retries, so the retry redelivers it instead of storing it a second time.
+ */
+@Service
+public class ClientMessageDeduplicator {
+
+    @Value("${chat.dedup.window-seconds:120}")
+    private long windowSeconds;
+
+    @Value("${chat.dedup.max-entries:100000}")
+    private int maxEntries;
+
+    private volatile Map<String, Long> current = new ConcurrentHashMap<>();
+    private volatile Map<String, Long> previous = new ConcurrentHashMap<>();
+    private volatile long rotateAt;
+
+    // Stored but not delivered, by the same key; rotated with the ids
+    private volatile Map<String, ChatMessage> undelivered = new ConcurrentHashMap<>();
+    private volatile Map<String, ChatMessage> previousUndelivered = new ConcurrentHashMap<>();
+
+    /**
+     * Record a send unless this id was already used.
+     * @param senderId The sending user; ids only need to be unique per sender
+     * @param clientMessageId The client-generated id, or null if the client sent none
+     * @param messageId The id assigned to this send
+     * @return null if this is the first send with the id, otherwise the id of the message
+     *         the same sender already sent with it within the window
+     */
+    public Long claim(Long senderId, String clientMessageId, Long messageId) {
+        if (clientMessageId == null || clientMessageId.isEmpty()) {
+            return null;
+        }
+        rotateIfDue();
+        String key = senderId + ":" + clientMessageId;
+        Long original = previous.get(key);
+        return original != null ? original : current.putIfAbsent(key, messageId);
+    }
+
+    /**
+     * The message an id was first sent as, or null if it isn't remembered.
+     */
+    public Long lookup(Long senderId, String clientMessageId) {
+        if (clientMessageId == null || clientMessageId.isEmpty()) {
+            return null;
+        }
+        String key = senderId + ":" + clientMessageId;
+        Long original = previous.get(key);
+        return original != null ? original : current.get(key);
+    }
+
+    /**
+     * Forget an id whose send failed, so the client's retry goes through.
+     */
+    public void forget(Long senderId, String clientMessageId) {
+        if (clientMessageId != null && !clientMessageId.isEmpty()) {
+            String key = senderId + ":" + clientMessageId;
+            current.remove(key);
+            previous.remove(key);
+        }
+    }
+
+    /**
+     * Keep a message whose broadcast failed after it was stored, for the client's retry.
+     */
+    public void undelivered(Long senderId, ChatMessage message) {
+        String clientMessageId = message.getClientMessageId();
+        if (clientMessageId != null && !clientMessageId.isEmpty()) {
+            undelivered.put(senderId + ":" + clientMessageId, message);
+        }
+    }
+
+    /**
+     * Take the undelivered message sent with an id, so exactly one retry redelivers it.
+     * @return The message, or null if it was delivered or isn't remembered
+     */
+    public ChatMessage takeUndelivered(Long senderId, String clientMessageId) {
+        if (clientMessageId == null || clientMessageId.isEmpty()) {
+            return null;
+        }
+        String key = senderId + ":" + clientMessageId;
+        ChatMessage message = previousUndelivered.remove(key);
+        return message != null ? message : undelivered.remove(key);
+    }
+
+    private void rotateIfDue() {
+        long now = System.currentTimeMillis();
+        if (now < rotateAt && current.size() < maxEntries) {
+            return;
+        }
+        synchronized (this) {
+            if (now >= rotateAt || current.size() >= maxEntries) {
+                previous = current;
+                current = new ConcurrentHashMap<>();
+                previousUndelivered = undelivered;
+                undelivered = new ConcurrentHashMap<>();
+                rotateAt = now + windowSeconds * 1000L;
+            }
+        }
+    }
+}
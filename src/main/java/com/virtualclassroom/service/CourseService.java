@@ -2,6 +2,7 @@ package com.virtualclassroom.service;
 
 import com.virtualclassroom.model.*;
 import com.virtualclassroom.repository.CourseRepository;
+import com.virtualclassroom.security.StompAuthorizationCache;
 import com.virtualclassroom.repository.CourseCategoryRepository;
 import com.virtualclassroom.repository.CourseEnrollmentRepository;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -33,6 +34,9 @@ public class CourseService {
     @Autowired
     private CourseCategoryRepository courseCategoryRepository;
     
+    @Autowired
+    private StompAuthorizationCache stompAuthorizationCache;
+    
     public Course createCourse(String title, String courseCode, String description, 
                               User instructor, CourseCategory category) {
         
@@ -114,12 +118,14 @@ public class CourseService {
                 // Reactivate enrollment
                 enrollment.setStatus(EnrollmentStatus.ACTIVE);
                 enrollment.setEnrollmentDate(LocalDateTime.now());
+                stompAuthorizationCache.invalidateAfterCommit(courseId, student.getId());
                 return enrollmentRepository.save(enrollment);
             }
         }
         
         CourseEnrollment enrollment = new CourseEnrollment(student, course);
         CourseEnrollment savedEnrollment = enrollmentRepository.save(enrollment);
+        stompAuthorizationCache.invalidateAfterCommit(courseId, student.getId());
         
         // Send confirmation email
         emailService.sendCourseEnrollmentEmail(student, course.getTitle());
@@ -143,6 +149,7 @@ public class CourseService {
         
         enrollment.setStatus(EnrollmentStatus.DROPPED);
         enrollmentRepository.save(enrollment);
+        stompAuthorizationCache.invalidateAfterCommit(courseId, student.getId());
     }
     
     public Course getCourseById(Long id) {
@@ -202,8 +209,13 @@ public class CourseService {
         CourseEnrollment enrollment = enrollmentRepository.findByStudentAndCourse(student, course)
             .orElseThrow(() -> new RuntimeException("Student not enrolled in course"));
         
+        EnrollmentStatus previousStatus = enrollment.getStatus();
         enrollment.updateProgress(progressPercentage);
         enrollmentRepository.save(enrollment);
+        // Reaching 100% completes the enrollment, which ends STOMP access as a student
+        if (enrollment.getStatus() != previousStatus) {
+            stompAuthorizationCache.invalidateAfterCommit(course.getId(), student.getId());
+        }
         
         // Check if course is completed
         if (progressPercentage >= 100.0) {
@@ -7,6 +7,7 @@ import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
 
@@ -116,6 +117,26 @@ public class FileStorageService {
         return fileStorageConfig.store(file, "videos");
     }
     
+    /**
+     * Store content generated by the server, e.g. rendered previews
+     * @param content The file content
+     * @param directory The directory to store the file in
+     * @param filename The file name, replacing any existing file
+     * @return The stored file path
+     */
+    public String storeGeneratedFile(byte[] content, String directory, String filename) {
+        return fileStorageConfig.store(content, directory, filename);
+    }
+    
+    /**
+     * Resolve a stored file's path, e.g. to inspect it
+     * @param filename The file name relative to the storage root
+     * @return The path, guaranteed to be inside the storage root
+     */
+    public Path resolveStoredFile(String filename) {
+        return fileStorageConfig.resolve(filename);
+    }
+    
     /**
      * Load a file as a resource
      * @param filename The file path
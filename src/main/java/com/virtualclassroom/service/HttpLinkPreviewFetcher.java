@@ -0,0 +1,256 @@
+package com.virtualclassroom.service;
+
+import com.virtualclassroom.dto.ChatEnrichment.LinkPreview;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.resolver.AddressResolver;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.resolver.InetNameResolver;
+import io.netty.util.NetUtil;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Promise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+
+import jakarta.annotation.PostConstruct;
+import java.io.ByteArrayOutputStream;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads a page's title and Open Graph tags over HTTP.
+ *
+ * Only the first {@code max-bytes} of an HTML response are read, and the whole fetch,
+ * redirects and body included, must finish within {@code link-timeout-millis}. Redirects
+ * are followed by hand so every hop gets the same host check: links to loopback, private,
+ * unique-local, carrier-grade NAT or link-local addresses are refused unless explicitly
+ * allowed, so chat links can't be used to probe the internal network. The check runs in
+ * the client's resolver and the connection goes to the address it approved, so a DNS
+ * answer that changes between check and connect can't slip past it.
+ */
+@Service
+public class HttpLinkPreviewFetcher implements LinkPreviewFetcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpLinkPreviewFetcher.class);
+
+    private static final int MAX_REDIRECTS = 3;
+    private static final Pattern META_TAG = Pattern.compile("<meta\\s[^>]*>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ATTRIBUTE = Pattern.compile("(\\w[\\w:-]*)\\s*=\\s*(\"[^\"]*\"|'[^']*')");
+    private static final Pattern TITLE = Pattern.compile("<title[^>]*>([^<]*)</title>", Pattern.CASE_INSENSITIVE);
+
+    @Value("${chat.enrichment.link-timeout-millis:3000}")
+    private long timeoutMillis;
+
+    @Value("${chat.enrichment.link-max-bytes:262144}")
+    private int maxBytes;
+
+    @Value("${chat.enrichment.allow-private-hosts:false}")
+    private boolean allowPrivateHosts;
+
+    private HttpClient client;
+
+    @PostConstruct
+    public void init() {
+        client = HttpClient.create()
+                .resolver(new VettingResolverGroup())
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) timeoutMillis)
+                .followRedirect(false)
+                .headers(headers -> headers.set(HttpHeaderNames.ACCEPT, "text/html"));
+    }
+
+    @Override
+    public LinkPreview fetch(URI uri) {
+        long deadline = System.nanoTime() + Duration.ofMillis(timeoutMillis).toNanos();
+        try {
+            URI current = uri;
+            for (int hop = 0; hop <= MAX_REDIRECTS; hop++) {
+                if (!isAllowed(current)) {
+                    return null;
+                }
+                Duration remaining = Duration.ofNanos(deadline - System.nanoTime());
+                if (remaining.isNegative() || remaining.isZero()) {
+                    return null;
+                }
+                Hop result = get(current).timeout(remaining).block();
+                if (result == null) {
+                    return null;
+                }
+                if (result.html != null) {
+                    return parse(uri.toString(), result.html);
+                }
+                current = current.resolve(result.location);
+            }
+        } catch (RuntimeException e) {
+            // Timeouts, refused hosts, connection errors and malformed redirects alike
+            logger.debug("Link preview for {} failed: {}", uri, e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * One request: a redirect, a page read up to max-bytes, or empty for anything else.
+     */
+    private Mono<Hop> get(URI uri) {
+        return client.get().uri(uri).response((response, content) -> {
+            int status = response.status().code();
+            if (status >= 300 && status < 400) {
+                String location = response.responseHeaders().get(HttpHeaderNames.LOCATION);
+                return location == null ? Mono.empty() : Mono.just(new Hop(location, null));
+            }
+            String contentType = response.responseHeaders().get(HttpHeaderNames.CONTENT_TYPE, "");
+            if (status != 200 || !contentType.toLowerCase().contains("text/html")) {
+                return Mono.empty();
+            }
+            // Stop reading, and drop the connection, once max-bytes have arrived
+            ByteArrayOutputStream html = new ByteArrayOutputStream();
+            return content.asByteArray()
+                    .takeUntil(bytes -> {
+                        html.write(bytes, 0, Math.min(bytes.length, maxBytes - html.size()));
+                        return html.size() >= maxBytes;
+                    })
+                    .then(Mono.fromSupplier(() -> new Hop(null, html.toString(StandardCharsets.UTF_8))));
+        }).next();
+    }
+
+    private boolean isAllowed(URI uri) {
+        String scheme = uri.getScheme();
+        if (uri.getHost() == null || !("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme))) {
+            return false;
+        }
+        // Literal addresses never reach the resolver, so they are checked here
+        String host = uri.getHost();
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        InetAddress literal = NetUtil.createInetAddressFromIpAddressString(host);
+        return literal == null || allowPrivateHosts || !isBlocked(literal);
+    }
+
+    private static boolean isBlocked(InetAddress address) {
+        if (address.isLoopbackAddress() || address.isSiteLocalAddress() || address.isLinkLocalAddress()
+                || address.isAnyLocalAddress() || address.isMulticastAddress()) {
+            return true;
+        }
+        byte[] bytes = address.getAddress();
+        if (address instanceof Inet4Address) {
+            // 100.64.0.0/10, carrier-grade NAT
+            return (bytes[0] & 0xff) == 100 && (bytes[1] & 0xc0) == 64;
+        }
+        if (address instanceof Inet6Address) {
+            // fc00::/7, unique local
+            return (bytes[0] & 0xfe) == 0xfc;
+        }
+        return false;
+    }
+
+    /**
+     * Resolves host names like the JDK does, but fails the lookup if any of the addresses is
+     * one that previews may not reach.
+     */
+    private final class VettingResolverGroup extends AddressResolverGroup<InetSocketAddress> {
+        @Override
+        protected AddressResolver<InetSocketAddress> newResolver(EventExecutor executor) {
+            return new InetNameResolver(executor) {
+                @Override
+                protected void doResolve(String host, Promise<InetAddress> promise) {
+                    try {
+                        promise.setSuccess(resolveAllowed(host).get(0));
+                    } catch (UnknownHostException e) {
+                        promise.setFailure(e);
+                    }
+                }
+
+                @Override
+                protected void doResolveAll(String host, Promise<List<InetAddress>> promise) {
+                    try {
+                        promise.setSuccess(resolveAllowed(host));
+                    } catch (UnknownHostException e) {
+                        promise.setFailure(e);
+                    }
+                }
+            }.asAddressResolver();
+        }
+
+        private List<InetAddress> resolveAllowed(String host) throws UnknownHostException {
+            List<InetAddress> addresses = Arrays.asList(InetAddress.getAllByName(host));
+            if (!allowPrivateHosts && addresses.stream().anyMatch(HttpLinkPreviewFetcher::isBlocked)) {
+                throw new UnknownHostException(host + " resolves to an address link previews may not reach");
+            }
+            return addresses;
+        }
+    }
+
+    /**
+     * Outcome of one request: either where it redirects to or the page it returned.
+     */
+    private static final class Hop {
+        private final String location;
+        private final String html;
+
+        Hop(String location, String html) {
+            this.location = location;
+            this.html = html;
+        }
+    }
+
+    static LinkPreview parse(String url, String html) {
+        String title = null;
+        String description = null;
+        String image = null;
+        Matcher tags = META_TAG.matcher(html);
+        while (tags.find()) {
+            String key = null;
+            String content = null;
+            Matcher attributes = ATTRIBUTE.matcher(tags.group());
+            while (attributes.find()) {
+                String name = attributes.group(1).toLowerCase();
+                String value = attributes.group(2);
+                value = value.substring(1, value.length() - 1);
+                if (name.equals("property") || name.equals("name")) {
+                    key = value.toLowerCase();
+                } else if (name.equals("content")) {
+                    content = unescape(value);
+                }
+            }
+            if (key == null || content == null) {
+                continue;
+            }
+            if (key.equals("og:title")) {
+                title = content;
+            } else if (key.equals("og:description") || (key.equals("description") && description == null)) {
+                description = content;
+            } else if (key.equals("og:image")) {
+                image = content;
+            }
+        }
+        if (title == null) {
+            Matcher matcher = TITLE.matcher(html);
+            if (matcher.find()) {
+                title = unescape(matcher.group(1).trim());
+            }
+        }
+        if (title == null && description == null) {
+            return null;
+        }
+        return new LinkPreview(url, title, description, image);
+    }
+
+    private static String unescape(String text) {
+        return text.replace("&quot;", "\"").replace("&#39;", "'").replace("&lt;", "<")
+                .replace("&gt;", ">").replace("&amp;", "&");
+    }
+}
@@ -0,0 +1,81 @@
+package com.virtualclassroom.service;
+
+import com.virtualclassroom.model.IdBlock;
+import com.virtualclassroom.repository.IdBlockRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Pooled id allocation for entities that need their id before they reach the database.
+ *
+ * Ids are reserved in blocks from the {@code id_blocks} table in a short separate
+ * transaction and then handed out from memory, so only one allocation in
+ * {@code blockSize} touches the database. Blocks are never shared between nodes; ids
+ * skipped by a restart are simply lost, like with any pooled sequence.
+ */
+@Service
+public class IdAllocator {
+    
+    @Autowired
+    private IdBlockRepository idBlockRepository;
+    
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    
+    @Value("${app.id-allocator.block-size:100}")
+    private int blockSize;
+    
+    private final Map<String, Range> ranges = new ConcurrentHashMap<>();
+    
+    /**
+     * Get the next id of a sequence.
+     * @param name The sequence name
+     * @param floor Lowest id the sequence may start at, e.g. max(id) + 1 of existing rows;
+     *              only consulted when the sequence is created
+     * @return The id
+     */
+    public long nextId(String name, LongSupplier floor) {
+        Range range = ranges.computeIfAbsent(name, k -> new Range());
+        synchronized (range) {
+            if (range.next >= range.limit) {
+                range.next = reserveBlock(name, floor);
+                range.limit = range.next + blockSize;
+            }
+            return range.next++;
+        }
+    }
+    
+    private long reserveBlock(String name, LongSupplier floor) {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        try {
+            return template.execute(status -> reserveBlockInTransaction(name, floor));
+        } catch (DataIntegrityViolationException e) {
+            // Another node created the sequence row at the same time; it exists now
+            return template.execute(status -> reserveBlockInTransaction(name, floor));
+        }
+    }
+    
+    private long reserveBlockInTransaction(String name, LongSupplier floor) {
+        IdBlock block = idBlockRepository.findForUpdate(name)
+            .orElseGet(() -> idBlockRepository.saveAndFlush(new IdBlock(name, Math.max(1L, floor.getAsLong()))));
+        long start = block.getNextValue();
+        block.setNextValue(start + blockSize);
+        idBlockRepository.save(block);
+        return start;
+    }
+    
+    private static final class Range {
+        private long next;
+        private long limit;
+    }
+}
@@ -0,0 +1,19 @@
+package com.virtualclassroom.service;
+
+import com.virtualclassroom.dto.ChatEnrichment.LinkPreview;
+
+import java.net.URI;
+
+/**
+ * Fetches preview metadata for a link posted in chat. The default implementation reads
+ * the page over HTTP; a bean marked {@code @Primary} can stand in for it, e.g. to serve
+ * previews from a local fixture or an internal unfurl service.
+ */
+public interface LinkPreviewFetcher {
+
+    /**
+     * @param uri An http(s) link
+     * @return The preview, or null if the page has none or can't be fetched
+     */
+    LinkPreview fetch(URI uri);
+}
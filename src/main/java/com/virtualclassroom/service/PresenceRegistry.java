@@ -0,0 +1,308 @@
+package com.virtualclassroom.service;
+
+import com.virtualclassroom.dto.PresenceFrame;
+import com.virtualclassroom.dto.PresenceFrame.Member;
+import com.virtualclassroom.model.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory record of who is online in which course.
+ *
+ * Courses are spread over a fixed number of stripes, each a concurrent map of course
+ * presence plus the set of courses with unsent changes, so joins and leaves in different
+ * courses never contend. All changes to a course happen inside its map's
+ * {@code compute}, which keeps them atomic without a lock per course. A user is online
+ * while at least one of their sessions has joined the course; every change republishes an
+ * immutable member list, so "who's online" is a single map lookup.
+ *
+ * Joins and leaves are not broadcast one by one: each tick sends one {@link PresenceFrame}
+ * per changed course with the net difference, so a user reconnecting within a tick causes
+ * no traffic at all.
+ *
+ * A session's joins and its disconnect run under the session's lock, and a closed session
+ * leaves a tombstone for a while, so a join that arrives late (or races the disconnect)
+ * can't bring a closed session back as a ghost member.
+ */
+@Service
+public class PresenceRegistry {
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Value("${chat.presence.stripes:16}")
+    private int stripeCount;
+
+    @Value("${chat.presence.stale-timeout-millis:0}")
+    private long staleTimeoutMillis;
+
+    @Value("${chat.presence.tombstone-millis:60000}")
+    private long tombstoneMillis;
+
+    private Stripe[] stripes;
+
+    // sessionId -> session; a session can be in several courses
+    private final Map<String, SessionPresence> sessions = new ConcurrentHashMap<>();
+
+    // sessionId -> when it closed; joins for these sessions are ignored
+    private final Map<String, Long> closedSessions = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        int count = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Mark a session's user as online in a course.
+     */
+    public void join(String sessionId, User user, Long courseId) {
+        if (closedSessions.containsKey(sessionId)) {
+            return;
+        }
+        SessionPresence session = sessions.computeIfAbsent(sessionId,
+                id -> new SessionPresence(user.getId(), user.getFullName()));
+        synchronized (session) {
+            // disconnect() tombstones before it removes, so this sees any disconnect that
+            // could have missed the session created above
+            if (session.closed || closedSessions.containsKey(sessionId)) {
+                sessions.remove(sessionId, session);
+                return;
+            }
+            session.lastSeen = System.currentTimeMillis();
+            if (!session.courses.add(courseId)) {
+                return;
+            }
+            Stripe stripe = stripe(courseId);
+            stripe.courses.compute(courseId, (id, presence) -> {
+                CoursePresence current = presence != null ? presence : new CoursePresence();
+                if (current.join(session.userId, session.name, sessionId)) {
+                    stripe.dirty.add(courseId);
+                }
+                return current;
+            });
+        }
+    }
+
+    /**
+     * Take a session out of a course; its user goes offline there if it was their last session.
+     */
+    public void leave(String sessionId, Long courseId) {
+        SessionPresence session = sessions.get(sessionId);
+        if (session == null) {
+            return;
+        }
+        synchronized (session) {
+            if (session.courses.remove(courseId)) {
+                leaveCourse(session, sessionId, courseId);
+            }
+        }
+    }
+
+    /**
+     * Take a closed session out of every course it joined.
+     */
+    public void disconnect(String sessionId) {
+        closedSessions.put(sessionId, System.currentTimeMillis());
+        SessionPresence session = sessions.remove(sessionId);
+        if (session == null) {
+            return;
+        }
+        synchronized (session) {
+            session.closed = true;
+            for (Long courseId : session.courses) {
+                leaveCourse(session, sessionId, courseId);
+            }
+            session.courses.clear();
+        }
+    }
+
+    /**
+     * Record activity on a session, e.g. any inbound frame or STOMP heart-beat.
+     */
+    public void heartbeat(String sessionId) {
+        SessionPresence session = sessions.get(sessionId);
+        if (session != null) {
+            session.lastSeen = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Users currently online in a course, in the order they came online.
+     * @return An immutable list, empty if nobody is online
+     */
+    public List<Member> getOnline(Long courseId) {
+        CoursePresence presence = stripe(courseId).courses.get(courseId);
+        return presence != null ? presence.members : Collections.emptyList();
+    }
+
+    public int countOnline(Long courseId) {
+        return getOnline(courseId).size();
+    }
+
+    @Scheduled(fixedRateString = "${chat.presence.frame-millis:1000}")
+    public void flushFrames() {
+        for (Stripe stripe : stripes) {
+            Iterator<Long> it = stripe.dirty.iterator();
+            while (it.hasNext()) {
+                Long courseId = it.next();
+                // Remove before draining so changes arriving meanwhile re-mark the course
+                it.remove();
+                PresenceFrame[] frame = new PresenceFrame[1];
+                stripe.courses.computeIfPresent(courseId, (id, presence) -> {
+                    frame[0] = presence.drain(courseId);
+                    return presence.members.isEmpty() ? null : presence;
+                });
+                if (frame[0] != null) {
+                    messagingTemplate.convertAndSend("/topic/course/" + courseId + "/presence", frame[0]);
+                }
+            }
+        }
+    }
+
+    // Safety net for sessions whose disconnect was never reported; only meaningful when
+    // clients send STOMP heart-beats, since a listening-only session is otherwise silent
+    @Scheduled(fixedDelayString = "${chat.presence.sweep-millis:30000}")
+    public void sweepStale() {
+        long tombstoneCutoff = System.currentTimeMillis() - tombstoneMillis;
+        closedSessions.values().removeIf(closedAt -> closedAt < tombstoneCutoff);
+        if (staleTimeoutMillis <= 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - staleTimeoutMillis;
+        for (Map.Entry<String, SessionPresence> entry : sessions.entrySet()) {
+            if (entry.getValue().lastSeen < cutoff) {
+                disconnect(entry.getKey());
+            }
+        }
+    }
+
+    private void leaveCourse(SessionPresence session, String sessionId, Long courseId) {
+        Stripe stripe = stripe(courseId);
+        stripe.courses.computeIfPresent(courseId, (id, presence) -> {
+            if (presence.leave(session.userId, sessionId)) {
+                stripe.dirty.add(courseId);
+            }
+            return presence.isIdle() ? null : presence;
+        });
+    }
+
+    private Stripe stripe(Long courseId) {
+        int hash = courseId.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    private static final class Stripe {
+        private final Map<Long, CoursePresence> courses = new ConcurrentHashMap<>();
+        private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+    }
+
+    private static final class SessionPresence {
+        private final Long userId;
+        private final String name;
+        private final Set<Long> courses = ConcurrentHashMap.newKeySet();
+        private volatile long lastSeen = System.currentTimeMillis();
+        // Guarded by the session's lock
+        private boolean closed;
+
+        SessionPresence(Long userId, String name) {
+            this.userId = userId;
+            this.name = name;
+        }
+    }
+
+    /**
+     * One course's online users and the changes not yet broadcast. Only touched inside the
+     * stripe map's compute for the course; {@code members} is read without it.
+     */
+    private static final class CoursePresence {
+        // userId -> sessions of that user in the course
+        private final Map<Long, Set<String>> sessionsByUser = new LinkedHashMap<>();
+        private final Map<Long, String> names = new LinkedHashMap<>();
+        private final Map<Long, Member> joined = new LinkedHashMap<>();
+        private final Set<Long> left = new LinkedHashSet<>();
+        private volatile List<Member> members = Collections.emptyList();
+
+        /**
+         * @return Whether the user came online
+         */
+        boolean join(Long userId, String name, String sessionId) {
+            Set<String> userSessions = sessionsByUser.get(userId);
+            if (userSessions != null) {
+                userSessions.add(sessionId);
+                return false;
+            }
+            userSessions = new HashSet<>();
+            userSessions.add(sessionId);
+            sessionsByUser.put(userId, userSessions);
+            names.put(userId, name);
+            // Left and came back within one tick: nothing to report
+            if (!left.remove(userId)) {
+                joined.put(userId, new Member(userId, name));
+            }
+            publish();
+            return true;
+        }
+
+        /**
+         * @return Whether the user went offline
+         */
+        boolean leave(Long userId, String sessionId) {
+            Set<String> userSessions = sessionsByUser.get(userId);
+            if (userSessions == null || !userSessions.remove(sessionId) || !userSessions.isEmpty()) {
+                return false;
+            }
+            sessionsByUser.remove(userId);
+            names.remove(userId);
+            if (joined.remove(userId) == null) {
+                left.add(userId);
+            }
+            publish();
+            return true;
+        }
+
+        /**
+         * @return The net change since the last drain, or null if there is none
+         */
+        PresenceFrame drain(Long courseId) {
+            if (joined.isEmpty() && left.isEmpty()) {
+                return null;
+            }
+            PresenceFrame frame = new PresenceFrame(courseId, new ArrayList<>(joined.values()),
+                    new ArrayList<>(left), members.size());
+            joined.clear();
+            left.clear();
+            return frame;
+        }
+
+        boolean isIdle() {
+            return members.isEmpty() && joined.isEmpty() && left.isEmpty();
+        }
+
+        private void publish() {
+            List<Member> current = new ArrayList<>(names.size());
+            for (Map.Entry<Long, String> entry : names.entrySet()) {
+                current.add(new Member(entry.getKey(), entry.getValue()));
+            }
+            members = Collections.unmodifiableList(current);
+        }
+    }
+}
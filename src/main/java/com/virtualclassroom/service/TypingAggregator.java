@@ -0,0 +1,101 @@
+package com.virtualclassroom.service;
+
+import com.virtualclassroom.dto.TypingFrame;
+import com.virtualclassroom.model.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory typing state per course, broadcast as one coalesced frame per course per tick.
+ *
+ * Typing events only refresh an expiry; a course is marked dirty when someone starts or
+ * stops typing (explicitly or by expiring). Each tick sends a {@link TypingFrame} for the
+ * dirty courses only, so traffic depends on the number of active courses rather than on
+ * keystrokes.
+ */
+@Service
+public class TypingAggregator {
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Value("${chat.typing.expiry-millis:5000}")
+    private long expiryMillis;
+
+    // courseId -> userId -> typist
+    private final Map<Long, Map<Long, Typist>> courses = new ConcurrentHashMap<>();
+    private final Set<Long> dirtyCourses = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Record a typing event; the user counts as typing until the expiry passes without
+     * another event.
+     */
+    public void typing(Long courseId, User user) {
+        Typist typist = new Typist(user.getId(), user.getFullName(), System.currentTimeMillis() + expiryMillis);
+        boolean[] started = new boolean[1];
+        // Inside compute, so the put can't land in a map the flusher is dropping
+        courses.compute(courseId, (id, typists) -> {
+            Map<Long, Typist> current = typists != null ? typists : new ConcurrentHashMap<>();
+            started[0] = current.put(typist.userId, typist) == null;
+            return current;
+        });
+        if (started[0]) {
+            dirtyCourses.add(courseId);
+        }
+    }
+
+    public void stoppedTyping(Long courseId, Long userId) {
+        Map<Long, Typist> typists = courses.get(courseId);
+        if (typists != null && typists.remove(userId) != null) {
+            dirtyCourses.add(courseId);
+        }
+    }
+
+    @Scheduled(fixedRateString = "${chat.typing.frame-millis:500}")
+    public void flushFrames() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, Map<Long, Typist>> course : courses.entrySet()) {
+            if (course.getValue().values().removeIf(typist -> typist.expiresAt <= now)) {
+                dirtyCourses.add(course.getKey());
+            }
+        }
+
+        Iterator<Long> it = dirtyCourses.iterator();
+        while (it.hasNext()) {
+            Long courseId = it.next();
+            // Remove before reading so events arriving meanwhile re-mark the course
+            it.remove();
+            Map<Long, Typist> typists = courses.getOrDefault(courseId, Map.of());
+            List<TypingFrame.Typist> current = new ArrayList<>(typists.size());
+            for (Typist typist : typists.values()) {
+                current.add(new TypingFrame.Typist(typist.userId, typist.name));
+            }
+            if (current.isEmpty()) {
+                courses.computeIfPresent(courseId, (id, map) -> map.isEmpty() ? null : map);
+            }
+            messagingTemplate.convertAndSend("/topic/course/" + courseId + "/typing", new TypingFrame(courseId, current));
+        }
+    }
+
+    private static final class Typist {
+        private final Long userId;
+        private final String name;
+        private final long expiresAt;
+
+        Typist(Long userId, String name, long expiresAt) {
+            this.userId = userId;
+            this.name = name;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
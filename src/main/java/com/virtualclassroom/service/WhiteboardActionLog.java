@@ -0,0 +1,323 @@
+package com.virtualclassroom.service;
+
+import com.virtualclassroom.dto.WhiteboardAction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Sequence-numbered action log for a single whiteboard.
+ *
+ * Every appended action receives the next sequence number. When the tail grows past the
+ * compaction threshold its older half is folded into a canonical snapshot from which
+ * cleared and erased strokes have been dropped, so joiners replay snapshot + tail
+ * instead of the whole lecture.
+ *
+ * Appends are lock-free: a writer reserves its sequence number with an atomic increment
+ * and fills the matching slot of a chunked array. Readers only see the contiguous prefix
+ * of filled slots (the published watermark), so a delta never has holes even while
+ * slower writers are still filling earlier slots. The snapshot and the first tail chunk
+ * form an immutable generation that compaction swaps atomically, so reads never block.
+ */
+class WhiteboardActionLog {
+
+    static final String ACTION_CLEAR = "clear";
+    static final String ACTION_ERASE = "erase";
+
+    private static final int CHUNK_SIZE = 256;
+
+    private final int compactionThreshold;
+
+    // Highest reserved sequence number
+    private final AtomicLong reservedSeq;
+    // Highest sequence number up to which every slot is filled
+    private final AtomicLong publishedSeq;
+    private final AtomicReference<Generation> generation;
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    // Hint for writers so they rarely walk the chunk chain from the generation head
+    private volatile Chunk lastChunk;
+
+    WhiteboardActionLog(int compactionThreshold) {
+        this(compactionThreshold, Collections.emptyList(), 0L);
+    }
+
+    private WhiteboardActionLog(int compactionThreshold, List<WhiteboardAction> snapshot, long snapshotSeq) {
+        this.compactionThreshold = Math.max(2, compactionThreshold);
+        Chunk head = new Chunk(snapshotSeq + 1);
+        this.reservedSeq = new AtomicLong(snapshotSeq);
+        this.publishedSeq = new AtomicLong(snapshotSeq);
+        this.generation = new AtomicReference<>(new Generation(snapshot, snapshotSeq, head));
+        this.lastChunk = head;
+    }
+
+    /**
+     * Rebuild a log from persisted state. Everything recovered is folded into the snapshot,
+     * which also tolerates gaps left by records lost in a crash.
+     * @param compactionThreshold Tail size that triggers compaction
+     * @param snapshot The persisted snapshot
+     * @param replay Actions recorded after the snapshot, in sequence order
+     * @param lastSeq Highest sequence number seen; the log continues after it
+     * @return The restored log
+     */
+    static WhiteboardActionLog restore(int compactionThreshold, List<WhiteboardAction> snapshot,
+                                       List<WhiteboardAction> replay, long lastSeq) {
+        List<WhiteboardAction> folded = fold(snapshot, replay);
+        return new WhiteboardActionLog(compactionThreshold, Collections.unmodifiableList(folded), lastSeq);
+    }
+
+    /**
+     * Append an action, stamping it with the next sequence number.
+     * @param action The action to append
+     * @return The same action, now carrying its sequence number
+     */
+    WhiteboardAction append(WhiteboardAction action) {
+        long seq = reservedSeq.incrementAndGet();
+        action.setSeq(seq);
+
+        Chunk chunk = chunkFor(seq);
+        chunk.slots.set((int) (seq - chunk.baseSeq), action);
+        publish();
+
+        if (ACTION_CLEAR.equals(action.getAction())
+                || publishedSeq.get() - generation.get().snapshotSeq >= compactionThreshold) {
+            tryCompact();
+        }
+        return action;
+    }
+
+    /**
+     * Read the full board state as snapshot + tail.
+     * @return A consistent view of the log
+     */
+    View read() {
+        Generation current = generation.get();
+        long published = publishedSeq.get();
+        return new View(current.snapshot, current.snapshotSeq, collect(current, current.snapshotSeq, published));
+    }
+
+    /**
+     * Read only the actions after a client's cursor.
+     * @param since Last sequence number the client has applied
+     * @return The missing actions, or null when the cursor is older than the compaction
+     *         horizon (or ahead of the log) and the client must reload from a snapshot
+     */
+    View readSince(long since) {
+        Generation current = generation.get();
+        long published = publishedSeq.get();
+        if (since < current.snapshotSeq || since > published) {
+            return null;
+        }
+        return new View(Collections.emptyList(), since, collect(current, since, published));
+    }
+
+    /**
+     * Read only the compacted snapshot, without copying the tail.
+     * @return A view with an empty tail
+     */
+    View readSnapshot() {
+        Generation current = generation.get();
+        return new View(current.snapshot, current.snapshotSeq, Collections.emptyList());
+    }
+
+    long getLastSeq() {
+        return publishedSeq.get();
+    }
+
+    /**
+     * Key identifying the board object an action belongs to: its stroke, or the action
+     * itself ("#seq") for shapes and text that carry no stroke ID.
+     */
+    static String objectKey(WhiteboardAction action) {
+        return action.getStrokeId() != null ? action.getStrokeId() : "#" + action.getSeq();
+    }
+
+    /**
+     * Advance the published watermark over every filled slot. Whichever writer fills the
+     * slot right after the watermark carries it forward over later slots already filled.
+     */
+    private void publish() {
+        while (true) {
+            long published = publishedSeq.get();
+            long next = published + 1;
+            if (next > reservedSeq.get()) {
+                return;
+            }
+            Chunk chunk = chunkFor(next);
+            if (chunk == null) {
+                continue; // already compacted away, so the watermark we read is stale
+            }
+            if (chunk.slots.get((int) (next - chunk.baseSeq)) == null) {
+                return;
+            }
+            publishedSeq.compareAndSet(published, next);
+        }
+    }
+
+    /**
+     * Find the chunk holding a sequence number, extending the chain as needed.
+     * @return The chunk, or null if the sequence number precedes the generation head.
+     *         Compaction never folds unpublished entries, so this only happens for
+     *         sequence numbers that are already published.
+     */
+    private Chunk chunkFor(long seq) {
+        Chunk chunk = lastChunk;
+        if (chunk.baseSeq > seq) {
+            chunk = generation.get().head;
+            if (chunk.baseSeq > seq) {
+                return null;
+            }
+        }
+        while (seq >= chunk.baseSeq + CHUNK_SIZE) {
+            Chunk next = chunk.next.get();
+            if (next == null) {
+                chunk.next.compareAndSet(null, new Chunk(chunk.baseSeq + CHUNK_SIZE));
+                next = chunk.next.get();
+            }
+            chunk = next;
+        }
+        if (chunk.baseSeq > lastChunk.baseSeq) {
+            lastChunk = chunk;
+        }
+        return chunk;
+    }
+
+    private static List<WhiteboardAction> collect(Generation current, long after, long upTo) {
+        List<WhiteboardAction> actions = new ArrayList<>((int) Math.max(0, upTo - after));
+        Chunk chunk = current.head;
+        for (long seq = after + 1; seq <= upTo; seq++) {
+            while (seq >= chunk.baseSeq + CHUNK_SIZE) {
+                chunk = chunk.next.get();
+            }
+            actions.add(chunk.slots.get((int) (seq - chunk.baseSeq)));
+        }
+        return actions;
+    }
+
+    /**
+     * Fold published tail entries into a new generation. Only one thread compacts at a
+     * time; others skip, and a later append tries again.
+     */
+    private void tryCompact() {
+        if (!compacting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Generation current = generation.get();
+            List<WhiteboardAction> tail = collect(current, current.snapshotSeq, publishedSeq.get());
+
+            // Nothing drawn before a clear can survive it, so fold up to and including the
+            // latest clear, which empties the snapshot
+            int count = 0;
+            for (int i = tail.size() - 1; i >= 0; i--) {
+                if (ACTION_CLEAR.equals(tail.get(i).getAction())) {
+                    count = i + 1;
+                    break;
+                }
+            }
+            if (tail.size() >= compactionThreshold) {
+                count = Math.max(count, tail.size() - compactionThreshold / 2);
+            }
+            if (count <= 0) {
+                return;
+            }
+
+            long snapshotSeq = current.snapshotSeq + count;
+            List<WhiteboardAction> merged = fold(current.snapshot, tail.subList(0, count));
+            generation.set(new Generation(Collections.unmodifiableList(merged), snapshotSeq, chunkFor(snapshotSeq + 1)));
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    /**
+     * Apply actions on top of a snapshot, dropping everything cleared or erased.
+     */
+    private static List<WhiteboardAction> fold(List<WhiteboardAction> snapshot, List<WhiteboardAction> actions) {
+        List<WhiteboardAction> merged = new ArrayList<>(snapshot.size() + actions.size());
+        merged.addAll(snapshot);
+
+        Set<String> erasedStrokes = new HashSet<>();
+        for (WhiteboardAction action : actions) {
+            if (ACTION_CLEAR.equals(action.getAction())) {
+                merged.clear();
+                erasedStrokes.clear();
+            } else if (ACTION_ERASE.equals(action.getAction())) {
+                if (action.getStrokeId() != null) {
+                    erasedStrokes.add(action.getStrokeId());
+                }
+                if (action.getErasedStrokeIds() != null) {
+                    erasedStrokes.addAll(action.getErasedStrokeIds());
+                }
+            } else {
+                merged.add(action);
+            }
+        }
+        if (!erasedStrokes.isEmpty()) {
+            merged.removeIf(action -> erasedStrokes.contains(objectKey(action)));
+        }
+        return merged;
+    }
+
+    /**
+     * A run of CHUNK_SIZE slots starting at baseSeq. Slots are written once and never
+     * cleared, so readers holding an old generation still see consistent data.
+     */
+    private static final class Chunk {
+        private final long baseSeq;
+        private final AtomicReferenceArray<WhiteboardAction> slots = new AtomicReferenceArray<>(CHUNK_SIZE);
+        private final AtomicReference<Chunk> next = new AtomicReference<>();
+
+        Chunk(long baseSeq) {
+            this.baseSeq = baseSeq;
+        }
+    }
+
+    /**
+     * Immutable compaction state: the snapshot covering sequence numbers up to snapshotSeq
+     * and the chunk holding snapshotSeq + 1.
+     */
+    private static final class Generation {
+        private final List<WhiteboardAction> snapshot;
+        private final long snapshotSeq;
+        private final Chunk head;
+
+        Generation(List<WhiteboardAction> snapshot, long snapshotSeq, Chunk head) {
+            this.snapshot = snapshot;
+            this.snapshotSeq = snapshotSeq;
+            this.head = head;
+        }
+    }
+
+    /**
+     * Point-in-time view of a log: the compacted snapshot covering sequence numbers up to
+     * {@code snapshotSeq}, followed by the uncompacted tail. Delta views have an empty
+     * snapshot and start right after the client's cursor.
+     */
+    static class View {
+        private final List<WhiteboardAction> snapshot;
+        private final long snapshotSeq;
+        private final List<WhiteboardAction> tail;
+
+        View(List<WhiteboardAction> snapshot, long snapshotSeq, List<WhiteboardAction> tail) {
+            this.snapshot = snapshot;
+            this.snapshotSeq = snapshotSeq;
+            this.tail = tail;
+        }
+
+        List<WhiteboardAction> getSnapshot() { return snapshot; }
+
+        long getSnapshotSeq() { return snapshotSeq; }
+
+        List<WhiteboardAction> getTail() { return tail; }
+
+        long getLastSeq() { return snapshotSeq + tail.size(); }
+    }
+}
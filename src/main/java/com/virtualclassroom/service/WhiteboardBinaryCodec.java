@@ -0,0 +1,297 @@
+package com.virtualclassroom.service;
+
+import com.virtualclassroom.dto.WhiteboardAction;
+import com.virtualclassroom.dto.WhiteboardFrame;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of {@link WhiteboardFrame}s for clients that opt in.
+ *
+ * Layout (all integers are LEB128 varints, signed ones zigzag-encoded):
+ * <pre>
+ * version, courseId, fromSeq, toSeq - fromSeq, flags (bit 0 = reset)
+ * string table: count, then (length, UTF-8 bytes) per entry
+ * action count, then per action:
+ *   seq delta, action id, tool id, color ref, stroke width, stroke ref, user ref,
+ *   user id, timestamp delta, text ref, erased stroke count, erased stroke refs,
+ *   point count, quantized point deltas
+ * </pre>
+ * Known actions and tools use fixed dictionary ids; anything else, plus colors, stroke ids,
+ * user names and text, is interned once per frame in the string table and referenced by
+ * index + 1 (0 meaning null). Coordinates are quantized to tenths of a pixel and encoded
+ * as deltas from the previous point.
+ */
+@Component
+public class WhiteboardBinaryCodec {
+
+    /** Must stay compatible with application/octet-stream so STOMP sends it as a binary frame. */
+    public static final MimeType CONTENT_TYPE = MimeType.valueOf("application/octet-stream;format=whiteboard-frame-v2");
+
+    // 2: erased stroke IDs resolved by server-side hit testing
+    private static final int VERSION = 2;
+    private static final double QUANTUM = 10.0;
+
+    private static final List<String> ACTIONS = Arrays.asList("draw", "erase", "clear", "move", "text");
+    private static final List<String> TOOLS = Arrays.asList("pen", "eraser", "line", "rectangle", "circle", "text");
+
+    public byte[] encode(WhiteboardFrame frame) {
+        List<WhiteboardAction> actions = frame.getActions() != null ? frame.getActions() : new ArrayList<>();
+
+        // First pass: intern every string referenced by the frame
+        Map<String, Integer> strings = new HashMap<>();
+        List<String> table = new ArrayList<>();
+        for (WhiteboardAction action : actions) {
+            if (dictionaryId(ACTIONS, action.getAction()) == 0) intern(action.getAction(), strings, table);
+            if (dictionaryId(TOOLS, action.getTool()) == 0) intern(action.getTool(), strings, table);
+            intern(action.getColor(), strings, table);
+            intern(action.getStrokeId(), strings, table);
+            intern(action.getUserName(), strings, table);
+            intern(action.getText(), strings, table);
+            if (action.getErasedStrokeIds() != null) {
+                action.getErasedStrokeIds().forEach(id -> intern(id, strings, table));
+            }
+        }
+
+        Writer out = new Writer(32 + actions.size() * 24);
+        out.writeVarLong(VERSION);
+        out.writeVarLong(frame.getCourseId() != null ? frame.getCourseId() : 0L);
+        out.writeVarLong(frame.getFromSeq());
+        out.writeVarLong(frame.getToSeq() - frame.getFromSeq());
+        out.writeVarLong(frame.isReset() ? 1 : 0);
+
+        out.writeVarLong(table.size());
+        for (String value : table) {
+            out.writeString(value);
+        }
+
+        out.writeVarLong(actions.size());
+        long previousSeq = frame.isReset() ? 0L : frame.getFromSeq();
+        long previousTimestamp = 0L;
+        for (WhiteboardAction action : actions) {
+            out.writeZigZag(action.getSeq() - previousSeq);
+            previousSeq = action.getSeq();
+
+            int actionId = dictionaryId(ACTIONS, action.getAction());
+            out.writeVarLong(actionId);
+            if (actionId == 0) out.writeVarLong(ref(action.getAction(), strings));
+
+            int toolId = dictionaryId(TOOLS, action.getTool());
+            out.writeVarLong(toolId);
+            if (toolId == 0) out.writeVarLong(ref(action.getTool(), strings));
+
+            out.writeVarLong(ref(action.getColor(), strings));
+            out.writeVarLong(Math.max(0, action.getStrokeWidth()));
+            out.writeVarLong(ref(action.getStrokeId(), strings));
+            out.writeVarLong(ref(action.getUserName(), strings));
+            out.writeZigZag(action.getUserId() != null ? action.getUserId() : 0L);
+            out.writeZigZag(action.getTimestamp() - previousTimestamp);
+            previousTimestamp = action.getTimestamp();
+            out.writeVarLong(ref(action.getText(), strings));
+
+            List<String> erased = action.getErasedStrokeIds() != null ? action.getErasedStrokeIds() : new ArrayList<>();
+            out.writeVarLong(erased.size());
+            for (String strokeId : erased) {
+                out.writeVarLong(ref(strokeId, strings));
+            }
+
+            double[] points = pointsOf(action);
+            out.writeVarLong(points.length / 2);
+            long previous = 0L;
+            for (double coordinate : points) {
+                long quantized = Math.round(coordinate * QUANTUM);
+                out.writeZigZag(quantized - previous);
+                previous = quantized;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public WhiteboardFrame decode(byte[] data) {
+        Reader in = new Reader(data);
+        long version = in.readVarLong();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported whiteboard frame version: " + version);
+        }
+
+        WhiteboardFrame frame = new WhiteboardFrame();
+        frame.setCourseId(in.readVarLong());
+        frame.setFromSeq(in.readVarLong());
+        frame.setToSeq(frame.getFromSeq() + in.readVarLong());
+        frame.setReset((in.readVarLong() & 1) != 0);
+
+        String[] table = new String[(int) in.readVarLong()];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = in.readString();
+        }
+
+        int count = (int) in.readVarLong();
+        List<WhiteboardAction> actions = new ArrayList<>(count);
+        long previousSeq = frame.isReset() ? 0L : frame.getFromSeq();
+        long previousTimestamp = 0L;
+        for (int i = 0; i < count; i++) {
+            WhiteboardAction action = new WhiteboardAction();
+            previousSeq += in.readZigZag();
+            action.setSeq(previousSeq);
+
+            int actionId = (int) in.readVarLong();
+            action.setAction(actionId != 0 ? ACTIONS.get(actionId - 1) : lookup(table, in.readVarLong()));
+            int toolId = (int) in.readVarLong();
+            action.setTool(toolId != 0 ? TOOLS.get(toolId - 1) : lookup(table, in.readVarLong()));
+
+            action.setColor(lookup(table, in.readVarLong()));
+            action.setStrokeWidth((int) in.readVarLong());
+            action.setStrokeId(lookup(table, in.readVarLong()));
+            action.setUserName(lookup(table, in.readVarLong()));
+            long userId = in.readZigZag();
+            action.setUserId(userId != 0 ? userId : null);
+            previousTimestamp += in.readZigZag();
+            action.setTimestamp(previousTimestamp);
+            action.setText(lookup(table, in.readVarLong()));
+
+            int erasedCount = (int) in.readVarLong();
+            if (erasedCount > 0) {
+                List<String> erased = new ArrayList<>(erasedCount);
+                for (int e = 0; e < erasedCount; e++) {
+                    erased.add(lookup(table, in.readVarLong()));
+                }
+                action.setErasedStrokeIds(erased);
+            }
+
+            double[] points = new double[(int) in.readVarLong() * 2];
+            long previous = 0L;
+            for (int p = 0; p < points.length; p++) {
+                previous += in.readZigZag();
+                points[p] = previous / QUANTUM;
+            }
+            if (points.length >= 4) {
+                action.setStartX(points[0]);
+                action.setStartY(points[1]);
+                action.setEndX(points[points.length - 2]);
+                action.setEndY(points[points.length - 1]);
+            }
+            if (points.length > 4) {
+                action.setPoints(points);
+            }
+            actions.add(action);
+        }
+        frame.setActions(actions);
+        return frame;
+    }
+
+    private static double[] pointsOf(WhiteboardAction action) {
+        if (action.getPoints() != null && action.getPoints().length >= 4) {
+            return action.getPoints();
+        }
+        return new double[] { action.getStartX(), action.getStartY(), action.getEndX(), action.getEndY() };
+    }
+
+    private static int dictionaryId(List<String> dictionary, String value) {
+        return value != null ? dictionary.indexOf(value) + 1 : 0;
+    }
+
+    private static void intern(String value, Map<String, Integer> strings, List<String> table) {
+        if (value != null && !strings.containsKey(value)) {
+            strings.put(value, table.size());
+            table.add(value);
+        }
+    }
+
+    private static long ref(String value, Map<String, Integer> strings) {
+        return value != null ? strings.get(value) + 1 : 0;
+    }
+
+    private static String lookup(String[] table, long ref) {
+        return ref != 0 ? table[(int) ref - 1] : null;
+    }
+
+    private static final class Writer {
+        private byte[] buffer;
+        private int position;
+
+        Writer(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void writeZigZag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+
+        private void ensure(int extra) {
+            if (position + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buffer;
+        private int position;
+
+        Reader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        long readVarLong() {
+            long result = 0;
+            int shift = 0;
+            while (true) {
+                if (position >= buffer.length) {
+                    throw new IllegalArgumentException("Truncated whiteboard frame");
+                }
+                byte b = buffer[position++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+                shift += 7;
+                if (shift > 63) {
+                    throw new IllegalArgumentException("Malformed varint in whiteboard frame");
+                }
+            }
+        }
+
+        long readZigZag() {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String readString() {
+            int length = (int) readVarLong();
+            if (length < 0 || position + length > buffer.length) {
+                throw new IllegalArgumentException("Truncated whiteboard frame");
+            }
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
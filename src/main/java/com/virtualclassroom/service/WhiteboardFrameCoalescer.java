@@ -0,0 +1,214 @@
+package com.virtualclassroom.service;
+
+import com.virtualclassroom.config.OutboundBackpressureInterceptor;
+import com.virtualclassroom.config.WhiteboardSubscriptionInterceptor;
+import com.virtualclassroom.dto.WhiteboardAction;
+import com.virtualclassroom.dto.WhiteboardFrame;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Batches whiteboard broadcasts into one frame per course per frame window.
+ *
+ * Draw handlers only append to the board's log and mark the course dirty. On every tick
+ * the coalescer reads the log after the last broadcast sequence number, merges
+ * consecutive segments of the same stroke into polylines and sends a single
+ * {@link WhiteboardFrame}. Reading from the log keeps frames in sequence order no matter
+ * which inbound thread appended the actions.
+ */
+@Service
+public class WhiteboardFrameCoalescer {
+
+    private static final String ACTION_DRAW = "draw";
+
+    @Autowired
+    private WhiteboardService whiteboardService;
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private WhiteboardSubscriptionInterceptor subscriptions;
+
+    @Autowired
+    private WhiteboardBinaryCodec binaryCodec;
+
+    @Value("${app.websocket.broker.mode:simple}")
+    private String brokerMode;
+
+    // Tags the frames this node broadcasts; behind a broker relay, frames from other nodes
+    // carry sequence numbers of their logs, not ours
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final Set<Long> dirtyCourses = ConcurrentHashMap.newKeySet();
+
+    // Only written from the scheduler thread
+    private final Map<Long, Long> broadcastCursors = new ConcurrentHashMap<>();
+
+    /**
+     * Schedule a course's pending actions for the next frame.
+     * @param courseId The course ID
+     */
+    public void markDirty(Long courseId) {
+        dirtyCourses.add(courseId);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * One frame with everything broadcast for a course after {@code fromSeq}, for a session
+     * that has fallen behind. It ends exactly where a broadcast frame ended, so the frames
+     * it stands in for are those with a {@code toSeq} up to its own.
+     * @return The frame, or null if nothing was broadcast after fromSeq or the log has been
+     *         compacted past it
+     */
+    public WhiteboardFrame catchUpFrame(Long courseId, long fromSeq) {
+        long broadcastSeq = broadcastCursors.getOrDefault(courseId, 0L);
+        if (broadcastSeq <= fromSeq) {
+            return null;
+        }
+        WhiteboardActionLog.View delta = whiteboardService.readLogSince(courseId, fromSeq);
+        if (delta == null) {
+            return null;
+        }
+        // The tail runs on from fromSeq and may already hold actions not yet broadcast
+        List<WhiteboardAction> tail = delta.getTail();
+        int count = (int) Math.min(tail.size(), broadcastSeq - fromSeq);
+        return new WhiteboardFrame(courseId, fromSeq, fromSeq + count, false, coalesce(tail.subList(0, count)));
+    }
+
+    @Scheduled(fixedRateString = "${whiteboard.broadcast.frame-millis:33}")
+    public void flushFrames() {
+        Iterator<Long> it = dirtyCourses.iterator();
+        while (it.hasNext()) {
+            Long courseId = it.next();
+            // Remove before reading so actions appended meanwhile re-mark the course
+            it.remove();
+            flush(courseId);
+        }
+    }
+
+    private void flush(Long courseId) {
+        long cursor = broadcastCursors.getOrDefault(courseId, 0L);
+
+        WhiteboardFrame frame;
+        WhiteboardActionLog.View delta = whiteboardService.readLogSince(courseId, cursor);
+        if (delta != null) {
+            if (delta.getTail().isEmpty()) {
+                return;
+            }
+            frame = new WhiteboardFrame(courseId, cursor, delta.getLastSeq(), false, coalesce(delta.getTail()));
+        } else {
+            // Fell behind the compaction horizon within one window; resend the whole board
+            WhiteboardActionLog.View view = whiteboardService.readLog(courseId);
+            List<WhiteboardAction> actions = new ArrayList<>(view.getSnapshot().size() + view.getTail().size());
+            actions.addAll(view.getSnapshot());
+            actions.addAll(coalesce(view.getTail()));
+            frame = new WhiteboardFrame(courseId, cursor, view.getLastSeq(), true, actions);
+        }
+
+        broadcastCursors.put(courseId, frame.getToSeq());
+        String destination = "/topic/whiteboard/" + courseId;
+
+        // Each format is encoded once per frame, and only if someone subscribed to it. Behind
+        // a broker relay the subscribers may be on other nodes, so both formats always go out
+        boolean relay = "relay".equalsIgnoreCase(brokerMode);
+        if (relay || subscriptions.hasJsonSubscribers(courseId)) {
+            messagingTemplate.convertAndSend(destination, frame, null, message -> withSequence(message, frame));
+        }
+        if (relay || subscriptions.hasBinarySubscribers(courseId)) {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            accessor.setContentType(WhiteboardBinaryCodec.CONTENT_TYPE);
+            accessor.setLeaveMutable(true);
+            messagingTemplate.send(destination + WhiteboardSubscriptionInterceptor.BINARY_SUFFIX,
+                    withSequence(MessageBuilder.createMessage(binaryCodec.encode(frame), accessor.getMessageHeaders()), frame));
+        }
+    }
+
+    // Lets the outbound channel coalesce frames for lagging sessions without decoding them.
+    // Native headers, so they also come back through a broker relay
+    private <T> Message<T> withSequence(Message<T> message, WhiteboardFrame frame) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        accessor.setNativeHeader(OutboundBackpressureInterceptor.WHITEBOARD_NODE_HEADER, nodeId);
+        accessor.setNativeHeader(OutboundBackpressureInterceptor.WHITEBOARD_COURSE_HEADER, String.valueOf(frame.getCourseId()));
+        accessor.setNativeHeader(OutboundBackpressureInterceptor.WHITEBOARD_FROM_SEQ_HEADER, String.valueOf(frame.getFromSeq()));
+        accessor.setNativeHeader(OutboundBackpressureInterceptor.WHITEBOARD_TO_SEQ_HEADER, String.valueOf(frame.getToSeq()));
+        return MessageBuilder.createMessage(message.getPayload(), accessor.getMessageHeaders());
+    }
+
+    /**
+     * Merge runs of consecutive draw segments belonging to the same stroke into a single
+     * polyline action. The merged action carries the sequence number and timestamp of the
+     * last segment it covers; log entries themselves are never modified.
+     */
+    static List<WhiteboardAction> coalesce(List<WhiteboardAction> actions) {
+        List<WhiteboardAction> result = new ArrayList<>(actions.size());
+
+        int i = 0;
+        while (i < actions.size()) {
+            WhiteboardAction first = actions.get(i);
+            int end = i + 1;
+            if (isSegment(first)) {
+                while (end < actions.size()
+                        && isSegment(actions.get(end))
+                        && continuesStroke(first, actions.get(end))) {
+                    end++;
+                }
+            }
+            result.add(end - i == 1 ? first : toPolyline(actions.subList(i, end)));
+            i = end;
+        }
+        return result;
+    }
+
+    private static WhiteboardAction toPolyline(List<WhiteboardAction> segments) {
+        WhiteboardAction first = segments.get(0);
+        WhiteboardAction last = segments.get(segments.size() - 1);
+
+        double[] points = new double[2 * (segments.size() + 1)];
+        points[0] = first.getStartX();
+        points[1] = first.getStartY();
+        int n = 2;
+        for (WhiteboardAction segment : segments) {
+            points[n++] = segment.getEndX();
+            points[n++] = segment.getEndY();
+        }
+
+        WhiteboardAction polyline = new WhiteboardAction(first);
+        polyline.setPoints(points);
+        polyline.setEndX(last.getEndX());
+        polyline.setEndY(last.getEndY());
+        polyline.setSeq(last.getSeq());
+        polyline.setTimestamp(last.getTimestamp());
+        return polyline;
+    }
+
+    private static boolean isSegment(WhiteboardAction action) {
+        return ACTION_DRAW.equals(action.getAction())
+                && action.getStrokeId() != null
+                && action.getPoints() == null;
+    }
+
+    private static boolean continuesStroke(WhiteboardAction previous, WhiteboardAction next) {
+        return previous.getStrokeId().equals(next.getStrokeId())
+                && Objects.equals(previous.getUserId(), next.getUserId());
+    }
+}
@@ -0,0 +1,385 @@
+package com.virtualclassroom.service;
+
+import com.virtualclassroom.dto.WhiteboardAction;
+import com.virtualclassroom.exception.ResourceNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders whiteboards to PNG previews on the server.
+ *
+ * A board is rendered from its compacted log (snapshot + tail) with headless Java2D on a
+ * small bounded executor, producing a full-size image and a thumbnail. Both are stored
+ * through {@link FileStorageService} and cached per course, keyed by the log sequence
+ * number they reflect, so a board is only re-rendered after it actually changed. Files of
+ * a superseded preview are kept for a grace period, so a download that has just looked up
+ * the old preview still finds them.
+ */
+@Service
+public class WhiteboardRasterizer {
+
+    private static final Logger logger = LoggerFactory.getLogger(WhiteboardRasterizer.class);
+
+    private static final String PREVIEW_DIRECTORY = "whiteboard-previews";
+    private static final String ACTION_MOVE = "move";
+
+    @Autowired
+    private WhiteboardService whiteboardService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Value("${whiteboard.preview.max-width:1600}")
+    private int maxWidth;
+
+    @Value("${whiteboard.preview.max-height:900}")
+    private int maxHeight;
+
+    @Value("${whiteboard.preview.thumbnail-width:320}")
+    private int thumbnailWidth;
+
+    @Value("${whiteboard.preview.threads:1}")
+    private int threads;
+
+    @Value("${whiteboard.preview.queue-capacity:32}")
+    private int queueCapacity;
+
+    @Value("${whiteboard.preview.retain-millis:60000}")
+    private long retainMillis;
+
+    private final Map<Long, Preview> previews = new ConcurrentHashMap<>();
+    // Superseded previews, oldest first, with the time they were replaced
+    private final Queue<Retired> retired = new ConcurrentLinkedQueue<>();
+    private final Set<Long> rendering = ConcurrentHashMap.newKeySet();
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "whiteboard-raster-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Get the latest rendered preview of a board, scheduling a re-render if the board has
+     * changed since. The returned preview may therefore be slightly stale.
+     * @param courseId The course ID
+     * @return The preview, or null if none has been rendered yet
+     * @throws ResourceNotFoundException if the course has no whiteboard
+     */
+    public Preview getPreview(Long courseId) {
+        if (!whiteboardService.hasBoard(courseId)) {
+            throw new ResourceNotFoundException("No whiteboard for course " + courseId);
+        }
+        requestRender(courseId);
+        return previews.get(courseId);
+    }
+
+    /**
+     * Schedule a render unless the cached preview is current or a render is already queued.
+     * @param courseId The course ID
+     */
+    public void requestRender(Long courseId) {
+        if (!whiteboardService.hasBoard(courseId)) {
+            return;
+        }
+        long seq = whiteboardService.getLastSeq(courseId);
+        Preview cached = previews.get(courseId);
+        if ((cached != null && cached.getSeq() == seq) || !rendering.add(courseId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    render(courseId);
+                } catch (RuntimeException e) {
+                    logger.error("Failed to render whiteboard preview for course {}", courseId, e);
+                } finally {
+                    rendering.remove(courseId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Queue full; the next request or refresh sweep tries again
+            rendering.remove(courseId);
+        }
+    }
+
+    /**
+     * Keep previews of active boards reasonably fresh without waiting for a page view.
+     */
+    @Scheduled(fixedDelayString = "${whiteboard.preview.refresh-millis:60000}")
+    public void refreshPreviews() {
+        whiteboardService.getCourseIds().forEach(this::requestRender);
+    }
+
+    /**
+     * Delete the files of previews superseded longer than the grace period ago.
+     */
+    @Scheduled(fixedDelayString = "${whiteboard.preview.retain-millis:60000}")
+    public void deleteRetiredPreviews() {
+        long cutoff = System.nanoTime() - retainMillis * 1_000_000L;
+        Retired oldest;
+        while ((oldest = retired.peek()) != null && oldest.retiredAt - cutoff < 0) {
+            retired.poll();
+            fileStorageService.deleteFile(oldest.preview.getImagePath());
+            fileStorageService.deleteFile(oldest.preview.getThumbnailPath());
+        }
+    }
+
+    private void render(Long courseId) {
+        WhiteboardActionLog.View view = whiteboardService.readExistingLog(courseId);
+        if (view == null) {
+            return;
+        }
+        List<WhiteboardAction> actions = new ArrayList<>(view.getSnapshot().size() + view.getTail().size());
+        actions.addAll(view.getSnapshot());
+        actions.addAll(view.getTail());
+
+        BufferedImage image = rasterize(replay(actions));
+        BufferedImage thumbnail = scale(image, thumbnailWidth);
+
+        String directory = PREVIEW_DIRECTORY + "/" + courseId;
+        long seq = view.getLastSeq();
+        Preview preview = new Preview(seq,
+                fileStorageService.storeGeneratedFile(toPng(image), directory, seq + ".png"),
+                fileStorageService.storeGeneratedFile(toPng(thumbnail), directory, seq + "-thumb.png"),
+                image.getWidth(), image.getHeight());
+
+        Preview previous = previews.put(courseId, preview);
+        if (previous != null && previous.getSeq() != seq) {
+            retired.add(new Retired(previous, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Reduce the log to the objects still on the board, in drawing order, with moves
+     * folded into a per-object offset.
+     */
+    private static List<BoardObject> replay(List<WhiteboardAction> actions) {
+        Map<String, BoardObject> objects = new LinkedHashMap<>();
+        for (WhiteboardAction action : actions) {
+            if (WhiteboardActionLog.ACTION_CLEAR.equals(action.getAction())) {
+                objects.clear();
+            } else if (WhiteboardActionLog.ACTION_ERASE.equals(action.getAction())) {
+                if (action.getStrokeId() != null) {
+                    objects.remove(action.getStrokeId());
+                }
+                if (action.getErasedStrokeIds() != null) {
+                    action.getErasedStrokeIds().forEach(objects::remove);
+                }
+            } else if (ACTION_MOVE.equals(action.getAction())) {
+                BoardObject object = action.getStrokeId() != null ? objects.get(action.getStrokeId()) : null;
+                if (object != null) {
+                    object.offsetX += action.getEndX() - action.getStartX();
+                    object.offsetY += action.getEndY() - action.getStartY();
+                }
+            } else {
+                objects.computeIfAbsent(WhiteboardActionLog.objectKey(action), k -> new BoardObject())
+                        .actions.add(action);
+            }
+        }
+        return new ArrayList<>(objects.values());
+    }
+
+    private BufferedImage rasterize(List<BoardObject> objects) {
+        // The canvas origin is always included so previews keep the board's layout
+        Rectangle2D bounds = new Rectangle2D.Double(0, 0, 1, 1);
+        for (BoardObject object : objects) {
+            for (WhiteboardAction action : object.actions) {
+                double[] points = pointsOf(action);
+                for (int i = 0; i + 1 < points.length; i += 2) {
+                    bounds.add(points[i] + object.offsetX, points[i + 1] + object.offsetY);
+                }
+            }
+        }
+        double scale = Math.min(1.0, Math.min(maxWidth / bounds.getWidth(), maxHeight / bounds.getHeight()));
+        int width = Math.max(1, (int) Math.ceil(bounds.getWidth() * scale));
+        int height = Math.max(1, (int) Math.ceil(bounds.getHeight() * scale));
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+
+            AffineTransform base = new AffineTransform();
+            base.scale(scale, scale);
+            base.translate(-bounds.getX(), -bounds.getY());
+            for (BoardObject object : objects) {
+                AffineTransform transform = new AffineTransform(base);
+                transform.translate(object.offsetX, object.offsetY);
+                g.setTransform(transform);
+                object.actions.forEach(action -> draw(g, action));
+            }
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    private static void draw(Graphics2D g, WhiteboardAction action) {
+        String tool = action.getTool() != null ? action.getTool() : "pen";
+        float width = Math.max(action.getStrokeWidth(), 1);
+        g.setColor("eraser".equals(tool) ? Color.WHITE : parseColor(action.getColor()));
+        g.setStroke(new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+
+        double x = Math.min(action.getStartX(), action.getEndX());
+        double y = Math.min(action.getStartY(), action.getEndY());
+        double w = Math.abs(action.getEndX() - action.getStartX());
+        double h = Math.abs(action.getEndY() - action.getStartY());
+        switch (tool) {
+            case "rectangle":
+                g.draw(new Rectangle2D.Double(x, y, w, h));
+                break;
+            case "circle":
+                g.draw(new Ellipse2D.Double(x, y, w, h));
+                break;
+            case "text":
+                if (action.getText() != null) {
+                    g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, Math.max(12, action.getStrokeWidth() * 4)));
+                    g.drawString(action.getText(), (float) action.getStartX(), (float) action.getStartY());
+                }
+                break;
+            default:
+                double[] points = pointsOf(action);
+                Path2D.Double path = new Path2D.Double();
+                path.moveTo(points[0], points[1]);
+                for (int i = 2; i + 1 < points.length; i += 2) {
+                    path.lineTo(points[i], points[i + 1]);
+                }
+                g.draw(path);
+        }
+    }
+
+    private static double[] pointsOf(WhiteboardAction action) {
+        if (action.getPoints() != null && action.getPoints().length >= 4) {
+            return action.getPoints();
+        }
+        return new double[] { action.getStartX(), action.getStartY(), action.getEndX(), action.getEndY() };
+    }
+
+    private static Color parseColor(String color) {
+        if (color != null) {
+            try {
+                return Color.decode(color);
+            } catch (NumberFormatException ignored) {
+                // Named or malformed colors fall back to black
+            }
+        }
+        return Color.BLACK;
+    }
+
+    private static BufferedImage scale(BufferedImage source, int targetWidth) {
+        int width = Math.min(targetWidth, source.getWidth());
+        int height = Math.max(1, (int) Math.round(source.getHeight() * (width / (double) source.getWidth())));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    private static byte[] toPng(BufferedImage image) {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            ImageIO.write(image, "png", out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encode whiteboard preview", e);
+        }
+    }
+
+    private static final class Retired {
+        private final Preview preview;
+        private final long retiredAt;
+
+        Retired(Preview preview, long retiredAt) {
+            this.preview = preview;
+            this.retiredAt = retiredAt;
+        }
+    }
+
+    private static final class BoardObject {
+        private final List<WhiteboardAction> actions = new ArrayList<>();
+        private double offsetX;
+        private double offsetY;
+    }
+
+    /**
+     * Rendered preview of a board as of a log sequence number.
+     */
+    public static class Preview {
+        private final long seq;
+        private final String imagePath;
+        private final String thumbnailPath;
+        private final int width;
+        private final int height;
+
+        Preview(long seq, String imagePath, String thumbnailPath, int width, int height) {
+            this.seq = seq;
+            this.imagePath = imagePath;
+            this.thumbnailPath = thumbnailPath;
+            this.width = width;
+            this.height = height;
+        }
+
+        public long getSeq() { return seq; }
+
+        public String getImagePath() { return imagePath; }
+
+        public String getThumbnailPath() { return thumbnailPath; }
+
+        public int getWidth() { return width; }
+
+        public int getHeight() { return height; }
+    }
+}
@@ -0,0 +1,218 @@
+package com.virtualclassroom.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.virtualclassroom.dto.WhiteboardAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams a board's persisted action log with its original timing.
+ *
+ * Actions are written as newline-delimited JSON to a chunked HTTP response. The log is
+ * pulled from {@link WhiteboardSegmentStore} a few actions ahead of the playback clock, so
+ * only a small window is ever held in memory. Idle gaps longer than the configured maximum
+ * are shortened, so a quiet stretch of the lecture doesn't stall the replay. A replay shows
+ * the board being built from its first stroke; once its history has passed the replay
+ * retention, it starts from the board's compacted snapshot instead.
+ */
+@Service
+public class WhiteboardReplayService {
+
+    private static final Logger logger = LoggerFactory.getLogger(WhiteboardReplayService.class);
+
+    public static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    // Appends can race, so records may be slightly out of sequence order within a segment
+    private static final int REORDER_WINDOW = 64;
+    private static final double MIN_SPEED = 0.25;
+    private static final double MAX_SPEED = 64.0;
+
+    @Autowired
+    private WhiteboardSegmentStore segmentStore;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${whiteboard.replay.threads:2}")
+    private int threads;
+
+    @Value("${whiteboard.replay.max-concurrent:20}")
+    private int maxConcurrent;
+
+    @Value("${whiteboard.replay.max-gap-millis:3000}")
+    private long maxGapMillis;
+
+    private ScheduledExecutorService scheduler;
+    private Semaphore permits;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        scheduler = Executors.newScheduledThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "whiteboard-replay-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        permits = new Semaphore(maxConcurrent);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Start replaying a course's whiteboard.
+     * @param courseId The course ID
+     * @param speed Playback speed factor, clamped to [0.25, 64]
+     * @return The emitter the actions are streamed to
+     */
+    public ResponseBodyEmitter startReplay(Long courseId, double speed) {
+        if (!permits.tryAcquire()) {
+            throw new RuntimeException("Too many whiteboard replays in progress, try again later");
+        }
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(0L);
+        Replay replay;
+        try {
+            replay = new Replay(courseId, Math.max(MIN_SPEED, Math.min(MAX_SPEED, speed)), emitter);
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        emitter.onCompletion(replay::stop);
+        emitter.onTimeout(replay::stop);
+        emitter.onError(e -> replay.stop());
+        scheduler.execute(replay::tick);
+        return emitter;
+    }
+
+    /**
+     * State of one running replay. Ticks run one at a time on the scheduler; only
+     * {@link #stop()} is called from other threads.
+     */
+    private final class Replay {
+        private final Long courseId;
+        private final double speed;
+        private final ResponseBodyEmitter emitter;
+        private final WhiteboardSegmentStore.LogReader reader;
+        private final PriorityQueue<WhiteboardAction> window =
+                new PriorityQueue<>(Comparator.comparingLong(WhiteboardAction::getSeq));
+
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile boolean stopped;
+        private boolean exhausted;
+        private long lastSeq;
+        private long lastTimestamp;
+        // Playback clock: wall time at which the previous action was due
+        private long lastDueNanos;
+
+        Replay(Long courseId, double speed, ResponseBodyEmitter emitter) {
+            this.courseId = courseId;
+            this.speed = speed;
+            this.emitter = emitter;
+            this.reader = segmentStore.openReader(courseId);
+        }
+
+        void tick() {
+            if (stopped) {
+                closeReader();
+                return;
+            }
+            try {
+                fill();
+                long now = System.nanoTime();
+                if (lastDueNanos == 0) {
+                    lastDueNanos = now;
+                }
+
+                // Send everything that is due in one chunk, then sleep until the next action
+                StringBuilder chunk = new StringBuilder();
+                while (!window.isEmpty()) {
+                    WhiteboardAction next = window.peek();
+                    long due = lastTimestamp == 0 ? lastDueNanos : lastDueNanos + delayNanos(next);
+                    if (due > now) {
+                        break;
+                    }
+                    window.poll();
+                    if (next.getSeq() <= lastSeq) {
+                        continue; // duplicate or already covered
+                    }
+                    chunk.append(objectMapper.writeValueAsString(next)).append('\n');
+                    lastSeq = next.getSeq();
+                    lastTimestamp = next.getTimestamp();
+                    lastDueNanos = due;
+                    fill();
+                }
+                if (chunk.length() > 0) {
+                    emitter.send(chunk.toString(), NDJSON);
+                }
+
+                if (window.isEmpty() && exhausted) {
+                    emitter.complete();
+                    stop();
+                    closeReader();
+                    return;
+                }
+                long wait = lastDueNanos + delayNanos(window.peek()) - System.nanoTime();
+                scheduler.schedule(this::tick, Math.max(wait, 0L), TimeUnit.NANOSECONDS);
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Whiteboard replay for course {} ended: {}", courseId, e.getMessage());
+                emitter.completeWithError(e);
+                stop();
+                closeReader();
+            }
+        }
+
+        private void fill() throws IOException {
+            while (!exhausted && window.size() < REORDER_WINDOW) {
+                WhiteboardAction action = reader.next();
+                if (action == null) {
+                    exhausted = true;
+                } else {
+                    window.add(action);
+                }
+            }
+        }
+
+        private long delayNanos(WhiteboardAction next) {
+            long gap = Math.max(0L, Math.min(next.getTimestamp() - lastTimestamp, maxGapMillis));
+            return (long) (TimeUnit.MILLISECONDS.toNanos(gap) / speed);
+        }
+
+        /**
+         * Called from emitter callbacks on container threads as well; the reader itself is
+         * only closed by the next tick, which runs on the scheduler.
+         */
+        void stop() {
+            if (released.compareAndSet(false, true)) {
+                stopped = true;
+                permits.release();
+            }
+        }
+
+        private void closeReader() {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close whiteboard replay reader for course {}", courseId, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,697 @@
+package com.virtualclassroom.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.virtualclassroom.dto.WhiteboardAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+
+/**
+ * Durable, append-only storage of whiteboard action logs.
+ *
+ * Each course gets a directory under the file storage root holding memory-mapped segment
+ * files plus the latest compacted snapshot. An append is a copy into the mapped segment;
+ * pages are forced to disk by a background flush, so the draw path never waits on fsync.
+ *
+ * Record layout: int payload length, int CRC32 of the payload, long sequence number,
+ * JSON payload. A zero length marks the end of a segment. Recovery stops at the first
+ * record that is truncated or fails its checksum, which is what a crash mid-write leaves
+ * behind, and zero-fills from there before appending again.
+ *
+ * Sealed segments whose records are all covered by a durable snapshot are moved to the
+ * course's replay directory, where they are kept for replays until the board has been idle
+ * for the configured retention. A course that hasn't drawn for a while has its segment
+ * closed until the next append, so neither recovery time nor open files grow with the age
+ * of the board.
+ */
+@Service
+public class WhiteboardSegmentStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(WhiteboardSegmentStore.class);
+
+    private static final int HEADER_SIZE = 16;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_FILE = "snapshot.json";
+    private static final String REPLAY_DIRECTORY = "replay";
+
+    @Autowired
+    @Qualifier("initStorage")
+    private Path storageRoot;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${whiteboard.persistence.enabled:true}")
+    private boolean enabled;
+
+    @Value("${whiteboard.persistence.segment-size-mb:8}")
+    private int segmentSizeMb;
+
+    @Value("${whiteboard.persistence.idle-close-millis:600000}")
+    private long idleCloseMillis;
+
+    @Value("${whiteboard.persistence.replay-retention-days:30}")
+    private long replayRetentionDays;
+
+    private final Map<Long, SegmentWriter> writers = new ConcurrentHashMap<>();
+
+    // Highest sequence number in a sealed segment; sealed segments never change
+    private final Map<Path, Long> sealedMaxSeq = new ConcurrentHashMap<>();
+
+    // Segments that were rolled over but whose pages haven't been forced yet
+    private final Queue<MappedByteBuffer> retiredBuffers = new ConcurrentLinkedQueue<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Append an already sequenced action to a course's log.
+     * @param courseId The course ID
+     * @param action The action, carrying its sequence number
+     */
+    public void append(Long courseId, WhiteboardAction action) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            byte[] payload = objectMapper.writeValueAsBytes(action);
+            while (true) {
+                SegmentWriter writer = writers.computeIfAbsent(courseId, this::openWriter);
+                if (writer.append(action.getSeq(), payload)) {
+                    break;
+                }
+                // Closed for idleness in the meantime; open it again
+                writers.remove(courseId, writer);
+            }
+        } catch (IOException e) {
+            // Losing durability for one stroke must not break live drawing
+            logger.error("Failed to persist whiteboard action {} for course {}", action.getSeq(), courseId, e);
+        }
+    }
+
+    /**
+     * Atomically replace a course's persisted snapshot.
+     * @param courseId The course ID
+     * @param snapshot The compacted actions
+     * @param snapshotSeq The sequence number the snapshot covers up to
+     */
+    public void writeSnapshot(Long courseId, List<WhiteboardAction> snapshot, long snapshotSeq) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Path dir = courseDirectory(courseId);
+            Files.createDirectories(dir);
+            Path tmp = dir.resolve(SNAPSHOT_FILE + ".tmp");
+            // Sequence number first, so a reader streaming the actions knows it up front
+            Map<String, Object> content = new LinkedHashMap<>();
+            content.put("snapshotSeq", snapshotSeq);
+            content.put("actions", snapshot);
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(objectMapper.writeValueAsBytes(content)));
+                channel.force(true);
+            }
+            Files.move(tmp, dir.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory(dir);
+        } catch (IOException e) {
+            logger.error("Failed to write whiteboard snapshot for course {}", courseId, e);
+            return;
+        }
+        archiveCoveredSegments(courseId, snapshotSeq);
+    }
+
+    /**
+     * List the courses that have a persisted whiteboard.
+     * @return Course IDs
+     */
+    public List<Long> listCourses() {
+        List<Long> courseIds = new ArrayList<>();
+        Path root = whiteboardRoot();
+        if (!enabled || !Files.isDirectory(root)) {
+            return courseIds;
+        }
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path dir : dirs) {
+                try {
+                    courseIds.add(Long.valueOf(dir.getFileName().toString()));
+                } catch (NumberFormatException ignored) {
+                    // Not a course directory
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to list persisted whiteboards", e);
+        }
+        return courseIds;
+    }
+
+    /**
+     * Recover a course's log: the persisted snapshot plus every intact record after it,
+     * in sequence order.
+     * @param courseId The course ID
+     * @return The recovered state
+     */
+    public Recovered recover(Long courseId) {
+        Path dir = courseDirectory(courseId);
+        Recovered persisted = readSnapshot(courseId);
+        List<WhiteboardAction> snapshot = persisted.getSnapshot();
+        long snapshotSeq = persisted.getLastSeq();
+
+        TreeMap<Long, WhiteboardAction> replay = new TreeMap<>();
+        long lastSeq = snapshotSeq;
+        for (Path segment : listSegments(dir)) {
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (true) {
+                    Record record = readRecord(buffer);
+                    if (record == null) {
+                        break;
+                    }
+                    lastSeq = Math.max(lastSeq, record.seq);
+                    if (record.seq > snapshotSeq) {
+                        replay.put(record.seq, objectMapper.readValue(record.payload, WhiteboardAction.class));
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("Failed to read whiteboard segment {}", segment, e);
+            }
+        }
+        return new Recovered(snapshot, new ArrayList<>(replay.values()), lastSeq);
+    }
+
+    /**
+     * Open a sequential reader over a course's persisted log: every action from the first,
+     * or, once the oldest segments have passed the replay retention, the compacted snapshot
+     * followed by the records after it. The snapshot is streamed and segments are mapped one
+     * at a time, so even a long session is never loaded into the heap at once.
+     * @param courseId The course ID
+     * @return A reader positioned at the first action
+     */
+    public LogReader openReader(Long courseId) {
+        Path dir = courseDirectory(courseId);
+        List<Path> segments = listSegments(dir.resolve(REPLAY_DIRECTORY));
+        segments.addAll(listSegments(dir));
+        if (!segments.isEmpty() && segmentIndex(segments.get(0)) == 0) {
+            return new LogReader(null, segments);
+        }
+        Path snapshotFile = dir.resolve(SNAPSHOT_FILE);
+        return new LogReader(Files.exists(snapshotFile) ? snapshotFile : null, segments);
+    }
+
+    @Scheduled(fixedDelayString = "${whiteboard.persistence.flush-millis:1000}")
+    public void flush() {
+        MappedByteBuffer retired;
+        while ((retired = retiredBuffers.poll()) != null) {
+            retired.force();
+        }
+        long idleBefore = System.nanoTime() - idleCloseMillis * 1_000_000L;
+        for (Map.Entry<Long, SegmentWriter> entry : writers.entrySet()) {
+            SegmentWriter writer = entry.getValue();
+            // Closed before it is unmapped, so no append can still write through it once a
+            // racing append reopens the segment
+            if (idleCloseMillis > 0 && writer.closeIfIdle(idleBefore)) {
+                writers.remove(entry.getKey(), writer);
+            } else {
+                writer.force();
+            }
+        }
+    }
+
+    /**
+     * Delete the replay history of boards that haven't archived a segment within the
+     * retention. A board's history goes as a whole, so a replay is either complete or
+     * starts from the snapshot.
+     */
+    @Scheduled(fixedDelayString = "${whiteboard.persistence.replay-prune-millis:3600000}")
+    public void pruneReplayHistory() {
+        if (!enabled || replayRetentionDays <= 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - replayRetentionDays * 24L * 60 * 60 * 1000;
+        for (Long courseId : listCourses()) {
+            List<Path> archived = listSegments(courseDirectory(courseId).resolve(REPLAY_DIRECTORY));
+            try {
+                if (archived.isEmpty()
+                        || Files.getLastModifiedTime(archived.get(archived.size() - 1)).toMillis() >= cutoff) {
+                    continue;
+                }
+                for (Path segment : archived) {
+                    Files.deleteIfExists(segment);
+                }
+                logger.info("Deleted whiteboard replay history of course {} after {} days", courseId,
+                        replayRetentionDays);
+            } catch (IOException e) {
+                logger.warn("Failed to prune whiteboard replay history of course {}", courseId, e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+        writers.values().forEach(SegmentWriter::close);
+        writers.clear();
+    }
+
+    /**
+     * The persisted snapshot of a course, with the sequence number it covers as last seq.
+     */
+    private Recovered readSnapshot(Long courseId) {
+        Path snapshotFile = courseDirectory(courseId).resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshotFile)) {
+            try {
+                Map<String, Object> content = objectMapper.readValue(snapshotFile.toFile(),
+                        new TypeReference<Map<String, Object>>() {});
+                long snapshotSeq = ((Number) content.get("snapshotSeq")).longValue();
+                List<WhiteboardAction> snapshot = objectMapper.convertValue(content.get("actions"),
+                        new TypeReference<List<WhiteboardAction>>() {});
+                return new Recovered(snapshot, List.of(), snapshotSeq);
+            } catch (IOException | RuntimeException e) {
+                // The snapshot is always written atomically, so this means outside tampering;
+                // replay the segments from the start instead
+                logger.error("Ignoring unreadable whiteboard snapshot for course {}", courseId, e);
+            }
+        }
+        return new Recovered(new ArrayList<>(), List.of(), 0L);
+    }
+
+    /**
+     * Move the sealed segments of a course holding nothing after a durable snapshot out of
+     * the recovery path into its replay directory.
+     */
+    private void archiveCoveredSegments(Long courseId, long snapshotSeq) {
+        SegmentWriter writer = writers.get(courseId);
+        Path dir = courseDirectory(courseId);
+        List<Path> segments = listSegments(dir);
+        // The last segment is the one appended to (or reopened for appending next)
+        for (int i = 0; i < segments.size() - 1; i++) {
+            Path segment = segments.get(i);
+            if (writer != null && segmentIndex(segment) >= writer.index) {
+                break;
+            }
+            Long maxSeq = sealedMaxSeq.computeIfAbsent(segment, WhiteboardSegmentStore::scanMaxSeq);
+            if (maxSeq > snapshotSeq) {
+                continue;
+            }
+            try {
+                Path archived = dir.resolve(REPLAY_DIRECTORY);
+                Files.createDirectories(archived);
+                Files.move(segment, archived.resolve(segment.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+                sealedMaxSeq.remove(segment);
+            } catch (IOException e) {
+                logger.warn("Failed to archive compacted whiteboard segment {}", segment, e);
+            }
+        }
+        forceDirectory(dir);
+    }
+
+    private static Long scanMaxSeq(Path segment) {
+        long maxSeq = 0L;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Record record;
+            while ((record = readRecord(buffer)) != null) {
+                maxSeq = Math.max(maxSeq, record.seq);
+            }
+        } catch (IOException e) {
+            // Keep segments we can't read
+            return Long.MAX_VALUE;
+        }
+        return maxSeq;
+    }
+
+    // Makes a rename in the directory durable; not supported on every platform
+    private static void forceDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.debug("Could not sync directory {}: {}", dir, e.getMessage());
+        }
+    }
+
+    private SegmentWriter openWriter(Long courseId) {
+        try {
+            Path dir = courseDirectory(courseId);
+            Files.createDirectories(dir);
+            List<Path> segments = listSegments(dir);
+            if (segments.isEmpty()) {
+                return new SegmentWriter(dir, 0);
+            }
+            Path last = segments.get(segments.size() - 1);
+            return new SegmentWriter(dir, segmentIndex(last));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open whiteboard log for course " + courseId, e);
+        }
+    }
+
+    private Path whiteboardRoot() {
+        return storageRoot.resolve("whiteboard");
+    }
+
+    private Path courseDirectory(Long courseId) {
+        return whiteboardRoot().resolve(String.valueOf(courseId));
+    }
+
+    private static List<Path> listSegments(Path dir) {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(segments::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not list whiteboard segments in " + dir, e);
+        }
+        segments.sort(Comparator.comparingInt(WhiteboardSegmentStore::segmentIndex));
+        return segments;
+    }
+
+    private static int segmentIndex(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static Path segmentPath(Path dir, int index) {
+        return dir.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Read the record at the buffer's position, or return null (leaving the position on the
+     * record's start) if there is no intact record there.
+     */
+    private static Record readRecord(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.remaining() < HEADER_SIZE) {
+            return null;
+        }
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        long seq = buffer.getLong();
+        if (length <= 0 || length > buffer.remaining()) {
+            buffer.position(start);
+            return null;
+        }
+        byte[] payload = new byte[length];
+        buffer.get(payload);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != checksum) {
+            buffer.position(start);
+            return null;
+        }
+        return new Record(seq, payload);
+    }
+
+    /**
+     * Appends records to the current mapped segment of one course, rolling over to a new
+     * segment when the current one is full.
+     */
+    private final class SegmentWriter {
+        private final Path dir;
+        private volatile int index;
+        private FileChannel channel;
+        private volatile MappedByteBuffer buffer;
+        private volatile boolean dirty;
+        private volatile long lastAppendNanos = System.nanoTime();
+        private boolean closed;
+
+        SegmentWriter(Path dir, int index) throws IOException {
+            this.dir = dir;
+            open(index, segmentSizeMb * 1024 * 1024);
+        }
+
+        /**
+         * @return false if the writer has been closed and nothing was written
+         */
+        synchronized boolean append(long seq, byte[] payload) throws IOException {
+            if (closed) {
+                return false;
+            }
+            int recordSize = HEADER_SIZE + payload.length;
+            // Keep room for a zero length terminator after the record
+            if (buffer.remaining() < recordSize + 4) {
+                roll(recordSize + 4);
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+
+            buffer.putInt(payload.length);
+            buffer.putInt((int) crc.getValue());
+            buffer.putLong(seq);
+            buffer.put(payload);
+            dirty = true;
+            lastAppendNanos = System.nanoTime();
+            return true;
+        }
+
+        void force() {
+            MappedByteBuffer current = buffer;
+            if (dirty && current != null) {
+                dirty = false;
+                current.force();
+            }
+        }
+
+        /**
+         * Close the writer if nothing was appended since the given time.
+         * @return true if the writer is closed
+         */
+        synchronized boolean closeIfIdle(long idleBeforeNanos) {
+            if (!closed && lastAppendNanos - idleBeforeNanos >= 0) {
+                return false;
+            }
+            close();
+            return true;
+        }
+
+        synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                buffer.force();
+                // The mapping itself is released once the buffer is collected
+                buffer = null;
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close whiteboard segment in {}", dir, e);
+            }
+        }
+
+        private void roll(int minimumSize) throws IOException {
+            retiredBuffers.add(buffer);
+            channel.close();
+            open(index + 1, Math.max(segmentSizeMb * 1024 * 1024, minimumSize));
+        }
+
+        private void open(int segmentIndex, int size) throws IOException {
+            Path path = segmentPath(dir, segmentIndex);
+            FileChannel opened = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer mapped = opened.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, opened.size()));
+
+            // Skip the intact records, then wipe whatever a crash may have left after them
+            while (readRecord(mapped) != null) {
+                // advance
+            }
+            int end = mapped.position();
+            for (int i = end; i < mapped.limit() && mapped.get(i) != 0; i++) {
+                mapped.put(i, (byte) 0);
+            }
+            mapped.position(end);
+
+            this.index = segmentIndex;
+            this.channel = opened;
+            this.buffer = mapped;
+        }
+    }
+
+    private static final class Record {
+        private final long seq;
+        private final byte[] payload;
+
+        Record(long seq, byte[] payload) {
+            this.seq = seq;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * Reads the snapshot actions, if any, then the intact records after the snapshot in file
+     * order. Records of one segment are in append order, which can differ slightly from
+     * sequence order when appends raced; callers that need strict order reorder within a
+     * small window.
+     */
+    public class LogReader implements Closeable {
+        private JsonParser snapshot;
+        private long snapshotSeq;
+        private final Iterator<Path> segments;
+        private FileChannel channel;
+        private ByteBuffer buffer;
+
+        LogReader(Path snapshotFile, List<Path> segments) {
+            this.segments = segments.iterator();
+            if (snapshotFile != null) {
+                try {
+                    snapshot = objectMapper.getFactory().createParser(snapshotFile.toFile());
+                    if (snapshot.nextToken() != JsonToken.START_OBJECT) {
+                        throw new IOException("Not a snapshot object");
+                    }
+                    openSnapshotActions();
+                } catch (IOException e) {
+                    // Written atomically, so this means outside tampering; replay the
+                    // segments that are left instead
+                    logger.error("Ignoring unreadable whiteboard snapshot {}", snapshotFile, e);
+                    closeQuietly(snapshot);
+                    snapshot = null;
+                    snapshotSeq = 0L;
+                }
+            }
+        }
+
+        /**
+         * @return The next action, or null at the end of the log
+         */
+        public WhiteboardAction next() throws IOException {
+            if (snapshot != null) {
+                if (snapshot.nextToken() == JsonToken.START_OBJECT) {
+                    return objectMapper.readValue(snapshot, WhiteboardAction.class);
+                }
+                // End of the actions; the sequence number may still follow them
+                openSnapshotActions();
+                closeSnapshot();
+            }
+            while (true) {
+                if (buffer != null) {
+                    Record record = readRecord(buffer);
+                    if (record != null) {
+                        if (record.seq <= snapshotSeq) {
+                            continue;
+                        }
+                        return objectMapper.readValue(record.payload, WhiteboardAction.class);
+                    }
+                }
+                if (!segments.hasNext()) {
+                    return null;
+                }
+                closeSegment();
+                Path segment = segments.next();
+                try {
+                    channel = FileChannel.open(segment, StandardOpenOption.READ);
+                } catch (NoSuchFileException e) {
+                    // Archived since the reader was opened
+                    Path archived = segment.resolveSibling(REPLAY_DIRECTORY).resolve(segment.getFileName());
+                    channel = FileChannel.open(archived, StandardOpenOption.READ);
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            closeSnapshot();
+            closeSegment();
+        }
+
+        /**
+         * Read snapshot fields up to the start of the next element of the actions array, or
+         * to the end of the object if the actions have been read.
+         */
+        private void openSnapshotActions() throws IOException {
+            while (snapshot.nextToken() == JsonToken.FIELD_NAME) {
+                String field = snapshot.getCurrentName();
+                JsonToken value = snapshot.nextToken();
+                if ("snapshotSeq".equals(field)) {
+                    snapshotSeq = snapshot.getLongValue();
+                } else if ("actions".equals(field) && value == JsonToken.START_ARRAY) {
+                    return;
+                } else {
+                    snapshot.skipChildren();
+                }
+            }
+        }
+
+        private void closeQuietly(Closeable closeable) {
+            try {
+                if (closeable != null) {
+                    closeable.close();
+                }
+            } catch (IOException ignored) {
+                // Only read from
+            }
+        }
+
+        private void closeSnapshot() throws IOException {
+            if (snapshot != null) {
+                snapshot.close();
+                snapshot = null;
+            }
+        }
+
+        private void closeSegment() throws IOException {
+            buffer = null;
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * A course's log as found on disk.
+     */
+    public static class Recovered {
+        private final List<WhiteboardAction> snapshot;
+        private final List<WhiteboardAction> replay;
+        private final long lastSeq;
+
+        Recovered(List<WhiteboardAction> snapshot, List<WhiteboardAction> replay, long lastSeq) {
+            this.snapshot = snapshot;
+            this.replay = replay;
+            this.lastSeq = lastSeq;
+        }
+
+        public List<WhiteboardAction> getSnapshot() { return snapshot; }
+
+        public List<WhiteboardAction> getReplay() { return replay; }
+
+        public long getLastSeq() { return lastSeq; }
+    }
+}
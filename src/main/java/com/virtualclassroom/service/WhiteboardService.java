@@ -2,27 +2,134 @@ package com.virtualclassroom.service;
 
 import com.virtualclassroom.dto.WhiteboardAction;
 import com.virtualclassroom.model.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import jakarta.annotation.PostConstruct;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Service
 public class WhiteboardService {
     
+    private static final Logger logger = LoggerFactory.getLogger(WhiteboardService.class);
+    
     private final Map<Long, WhiteboardSession> whiteboardSessions = new ConcurrentHashMap<>();
     
-    public void saveAction(Long courseId, WhiteboardAction action) {
-        WhiteboardSession session = whiteboardSessions.computeIfAbsent(courseId, k -> new WhiteboardSession());
-        session.addAction(action);
+    @Value("${whiteboard.log.compaction-threshold:500}")
+    private int compactionThreshold;
+    
+    @Autowired
+    private WhiteboardSegmentStore segmentStore;
+    
+    /**
+     * Restore every persisted board before the first STOMP frame arrives.
+     */
+    @PostConstruct
+    public void recoverSessions() {
+        for (Long courseId : segmentStore.listCourses()) {
+            try {
+                WhiteboardSegmentStore.Recovered recovered = segmentStore.recover(courseId);
+                WhiteboardActionLog log = WhiteboardActionLog.restore(compactionThreshold,
+                        recovered.getSnapshot(), recovered.getReplay(), recovered.getLastSeq());
+                whiteboardSessions.put(courseId, new WhiteboardSession(log));
+            } catch (RuntimeException e) {
+                logger.error("Failed to recover whiteboard for course {}", courseId, e);
+            }
+        }
+    }
+    
+    /**
+     * Append an action to a board's log. An erase without a stroke ID is an eraser sweep
+     * from (startX, startY) to (endX, endY); the strokes it touches are resolved against
+     * the spatial index and recorded on the action.
+     * @return The sequenced action, or null if an eraser sweep hit nothing
+     */
+    public WhiteboardAction saveAction(Long courseId, WhiteboardAction action) {
+        WhiteboardSession session = getOrCreateSession(courseId);
+        if (WhiteboardActionLog.ACTION_ERASE.equals(action.getAction()) && action.getStrokeId() == null) {
+            List<String> hits;
+            session.indexLock.lock();
+            try {
+                hits = session.syncIndex().hitTest(action.getStartX(), action.getStartY(),
+                        action.getEndX(), action.getEndY(), Math.max(action.getStrokeWidth(), 1) / 2.0);
+            } finally {
+                session.indexLock.unlock();
+            }
+            if (hits.isEmpty()) {
+                return null;
+            }
+            action.setErasedStrokeIds(hits);
+        }
+        
+        WhiteboardAction saved = session.getLog().append(action);
+        segmentStore.append(courseId, saved);
+        
+        // Keep the index warm, but never make a drawer wait for it
+        if (session.indexLock.tryLock()) {
+            try {
+                session.syncIndex();
+            } finally {
+                session.indexLock.unlock();
+            }
+        }
+        return saved;
     }
     
-    public void clearWhiteboard(Long courseId) {
+    public WhiteboardAction clearWhiteboard(Long courseId, WhiteboardAction clearAction) {
+        // Clears are logged like any other action so replaying clients see them in order
+        clearAction.setAction(WhiteboardActionLog.ACTION_CLEAR);
+        WhiteboardAction saved = getOrCreateSession(courseId).getLog().append(clearAction);
+        segmentStore.append(courseId, saved);
+        return saved;
+    }
+    
+    /**
+     * Get the objects whose bounds intersect a viewport, for zoomed or paged boards that
+     * don't need the whole canvas. {@code seq} is the log position the result reflects, so
+     * the client can continue with deltas from there.
+     */
+    public Map<String, Object> getObjectsInViewport(Long courseId, double x, double y, double width, double height) {
+        Map<String, Object> result = new HashMap<>();
         WhiteboardSession session = whiteboardSessions.get(courseId);
-        if (session != null) {
-            session.clearActions();
+        if (session == null) {
+            result.put("objects", new ArrayList<>());
+            result.put("seq", 0L);
+            return result;
+        }
+        session.indexLock.lock();
+        try {
+            result.put("objects", session.syncIndex().query(x, y, x + width, y + height));
+            result.put("seq", session.indexedSeq);
+        } finally {
+            session.indexLock.unlock();
         }
+        return result;
+    }
+    
+    /**
+     * Persist compacted snapshots that advanced since the last run, so recovery only has
+     * to replay the segments written after them.
+     */
+    @Scheduled(fixedDelayString = "${whiteboard.persistence.snapshot-millis:10000}")
+    public void persistSnapshots() {
+        if (!segmentStore.isEnabled()) {
+            return;
+        }
+        whiteboardSessions.forEach((courseId, session) -> {
+            WhiteboardActionLog.View view = session.getLog().readSnapshot();
+            if (view.getSnapshotSeq() > session.persistedSnapshotSeq) {
+                segmentStore.writeSnapshot(courseId, view.getSnapshot(), view.getSnapshotSeq());
+                session.persistedSnapshotSeq = view.getSnapshotSeq();
+            }
+        });
     }
     
     public boolean hasDrawingPermission(Long courseId, User user) {
@@ -34,7 +141,7 @@ public class WhiteboardService {
     }
     
     public Map<String, Object> setDrawingPermission(Long courseId, Long userId, boolean hasPermission) {
-        WhiteboardSession session = whiteboardSessions.computeIfAbsent(courseId, k -> new WhiteboardSession());
+        WhiteboardSession session = getOrCreateSession(courseId);
         session.setDrawingPermission(userId, hasPermission);
         
         Map<String, Object> response = new HashMap<>();
@@ -47,14 +154,40 @@ public class WhiteboardService {
     }
     
     public Map<String, Object> getWhiteboardState(Long courseId, User user) {
+        return getWhiteboardState(courseId, user, null);
+    }
+    
+    /**
+     * Get whiteboard state, optionally as a delta after a client's sequence cursor.
+     * Cursors older than the compaction horizon fall back to snapshot + tail, flagged
+     * with {@code reset} so the client knows to redraw from scratch.
+     */
+    public Map<String, Object> getWhiteboardState(Long courseId, User user, Long since) {
         WhiteboardSession session = whiteboardSessions.get(courseId);
         
         Map<String, Object> state = new HashMap<>();
         if (session != null) {
-            state.put("actions", session.getActions());
+            WhiteboardActionLog.View delta = since != null ? session.getLog().readSince(since) : null;
+            if (delta != null) {
+                state.put("reset", false);
+                state.put("since", since);
+                state.put("actions", delta.getTail());
+                state.put("seq", delta.getLastSeq());
+            } else {
+                WhiteboardActionLog.View view = session.getLog().read();
+                state.put("reset", true);
+                state.put("snapshot", view.getSnapshot());
+                state.put("snapshotSeq", view.getSnapshotSeq());
+                state.put("actions", view.getTail());
+                state.put("seq", view.getLastSeq());
+            }
             state.put("hasDrawingPermission", session.hasDrawingPermission(user.getId()));
         } else {
+            state.put("reset", since == null || since != 0L);
+            state.put("snapshot", new ArrayList<>());
+            state.put("snapshotSeq", 0L);
             state.put("actions", new ArrayList<>());
+            state.put("seq", 0L);
             state.put("hasDrawingPermission", true);
         }
         
@@ -84,22 +217,84 @@ public class WhiteboardService {
         return response;
     }
     
+    /**
+     * Read a board's log after the given cursor; null if the board does not exist or the
+     * cursor has fallen behind the compaction horizon.
+     */
+    WhiteboardActionLog.View readLogSince(Long courseId, long since) {
+        WhiteboardSession session = whiteboardSessions.get(courseId);
+        return session != null ? session.getLog().readSince(since) : null;
+    }
+    
+    WhiteboardActionLog.View readLog(Long courseId) {
+        return getOrCreateSession(courseId).getLog().read();
+    }
+    
+    /**
+     * Read a board's full log without creating the board; null if it does not exist.
+     */
+    WhiteboardActionLog.View readExistingLog(Long courseId) {
+        WhiteboardSession session = whiteboardSessions.get(courseId);
+        return session != null ? session.getLog().read() : null;
+    }
+    
+    public boolean hasBoard(Long courseId) {
+        return whiteboardSessions.containsKey(courseId);
+    }
+    
+    long getLastSeq(Long courseId) {
+        WhiteboardSession session = whiteboardSessions.get(courseId);
+        return session != null ? session.getLog().getLastSeq() : 0L;
+    }
+    
+    Set<Long> getCourseIds() {
+        return whiteboardSessions.keySet();
+    }
+    
+    private WhiteboardSession getOrCreateSession(Long courseId) {
+        return whiteboardSessions.computeIfAbsent(courseId, k -> new WhiteboardSession(new WhiteboardActionLog(compactionThreshold)));
+    }
+    
     // Inner classes
+    // All state is safe for concurrent use by STOMP inbound and REST threads
     private static class WhiteboardSession {
-        private final List<WhiteboardAction> actions = new ArrayList<>();
+        private final WhiteboardActionLog log;
         private final Map<Long, Boolean> drawingPermissions = new ConcurrentHashMap<>();
-        private final List<WhiteboardSnapshot> snapshots = new ArrayList<>();
+        private final List<WhiteboardSnapshot> snapshots = new CopyOnWriteArrayList<>();
+        // Only touched from the snapshot scheduler
+        private long persistedSnapshotSeq;
+        
+        // The spatial index follows the log from its own cursor, guarded by indexLock
+        private final ReentrantLock indexLock = new ReentrantLock();
+        private WhiteboardSpatialIndex index = new WhiteboardSpatialIndex();
+        private long indexedSeq = -1L;
         
-        public void addAction(WhiteboardAction action) {
-            actions.add(action);
+        WhiteboardSession(WhiteboardActionLog log) {
+            this.log = log;
+            this.persistedSnapshotSeq = log.readSnapshot().getSnapshotSeq();
         }
         
-        public void clearActions() {
-            actions.clear();
+        public WhiteboardActionLog getLog() {
+            return log;
         }
         
-        public List<WhiteboardAction> getActions() {
-            return new ArrayList<>(actions);
+        /**
+         * Bring the index up to date with the log; rebuilt from scratch if it fell behind
+         * the compaction horizon. Caller must hold indexLock.
+         */
+        WhiteboardSpatialIndex syncIndex() {
+            WhiteboardActionLog.View delta = log.readSince(indexedSeq);
+            if (delta != null) {
+                delta.getTail().forEach(index::apply);
+                indexedSeq = delta.getLastSeq();
+                return index;
+            }
+            WhiteboardActionLog.View view = log.read();
+            index = new WhiteboardSpatialIndex();
+            view.getSnapshot().forEach(index::apply);
+            view.getTail().forEach(index::apply);
+            indexedSeq = view.getLastSeq();
+            return index;
         }
         
         public boolean hasDrawingPermission(Long userId) {
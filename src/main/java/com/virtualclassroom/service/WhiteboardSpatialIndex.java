@@ -0,0 +1,340 @@
+package com.virtualclassroom.service;
+
+import com.virtualclassroom.dto.WhiteboardAction;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Quadtree of the objects currently visible on a single whiteboard.
+ *
+ * An object is a stroke (all segments sharing a strokeId) or a standalone action such as a
+ * shape or text box. Each object is kept at the deepest node whose square fully contains
+ * its bounding box, so viewport queries and eraser hit tests only visit the nodes they
+ * overlap. The root doubles in size whenever an object lands outside it, which keeps the
+ * canvas unbounded.
+ *
+ * Not thread-safe; {@link WhiteboardService} guards each board's index with its own lock.
+ */
+class WhiteboardSpatialIndex {
+
+    private static final String ACTION_MOVE = "move";
+
+    private static final int NODE_CAPACITY = 16;
+    private static final double MIN_NODE_SIZE = 16.0;
+    private static final double INITIAL_SIZE = 2048.0;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private Node root = new Node(-INITIAL_SIZE / 2, -INITIAL_SIZE / 2, INITIAL_SIZE);
+
+    /**
+     * Apply a sequenced log action to the index.
+     * @param action The action, already carrying its sequence number
+     */
+    void apply(WhiteboardAction action) {
+        if (WhiteboardActionLog.ACTION_CLEAR.equals(action.getAction())) {
+            entries.clear();
+            root = new Node(-INITIAL_SIZE / 2, -INITIAL_SIZE / 2, INITIAL_SIZE);
+        } else if (WhiteboardActionLog.ACTION_ERASE.equals(action.getAction())) {
+            remove(action.getStrokeId());
+            if (action.getErasedStrokeIds() != null) {
+                action.getErasedStrokeIds().forEach(this::remove);
+            }
+        } else if (ACTION_MOVE.equals(action.getAction())) {
+            move(action);
+        } else {
+            add(action);
+        }
+    }
+
+    /**
+     * Find the objects whose geometry passes within {@code radius} of the eraser path.
+     * @return Keys of the hit objects (stroke IDs, or "#seq" for standalone actions)
+     */
+    List<String> hitTest(double x1, double y1, double x2, double y2, double radius) {
+        Bounds sweep = new Bounds(Math.min(x1, x2) - radius, Math.min(y1, y2) - radius,
+                Math.max(x1, x2) + radius, Math.max(y1, y2) + radius);
+        List<Entry> candidates = new ArrayList<>();
+        root.collect(sweep, candidates);
+
+        List<String> hits = new ArrayList<>();
+        for (Entry entry : candidates) {
+            if (entry.touches(x1, y1, x2, y2, radius)) {
+                hits.add(entry.key);
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Find the objects whose bounding boxes intersect a viewport.
+     * @return Their actions, in drawing order
+     */
+    List<WhiteboardAction> query(double minX, double minY, double maxX, double maxY) {
+        List<Entry> found = new ArrayList<>();
+        root.collect(new Bounds(minX, minY, maxX, maxY), found);
+        found.sort(Comparator.comparingLong(entry -> entry.firstSeq));
+
+        List<WhiteboardAction> actions = new ArrayList<>();
+        for (Entry entry : found) {
+            actions.addAll(entry.actions);
+        }
+        return actions;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private void add(WhiteboardAction action) {
+        Bounds bounds = boundsOf(action);
+        if (bounds == null) {
+            return;
+        }
+        String key = WhiteboardActionLog.objectKey(action);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(key, action.getSeq(), bounds);
+            entry.actions.add(action);
+            entries.put(key, entry);
+            insert(entry);
+            return;
+        }
+
+        // A move only shifts what was drawn before it, so a later segment keeps its own coordinates
+        entry.actions.add(action);
+        Bounds grown = entry.bounds.union(bounds);
+        if (entry.node.bounds.contains(grown)) {
+            // Growing never lets an object move deeper, so it can stay where it is
+            entry.bounds = grown;
+        } else {
+            entry.node.items.remove(entry);
+            entry.bounds = grown;
+            insert(entry);
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = key != null ? entries.remove(key) : null;
+        if (entry != null) {
+            entry.node.items.remove(entry);
+        }
+    }
+
+    private void move(WhiteboardAction action) {
+        Entry entry = action.getStrokeId() != null ? entries.get(action.getStrokeId()) : null;
+        if (entry == null) {
+            return;
+        }
+        double dx = action.getEndX() - action.getStartX();
+        double dy = action.getEndY() - action.getStartY();
+        // Keep the move with the object so viewport readers replay it too
+        entry.actions.add(action);
+        entry.node.items.remove(entry);
+        entry.bounds = entry.bounds.translate(dx, dy);
+        insert(entry);
+    }
+
+    private void insert(Entry entry) {
+        while (!root.bounds.contains(entry.bounds)) {
+            grow(entry.bounds);
+        }
+        root.insert(entry);
+    }
+
+    /**
+     * Double the root towards the given bounds, keeping the old root as one quadrant.
+     */
+    private void grow(Bounds towards) {
+        Bounds old = root.bounds;
+        double size = old.maxX - old.minX;
+        boolean left = towards.minX < old.minX;
+        boolean up = towards.minY < old.minY;
+        double minX = left ? old.minX - size : old.minX;
+        double minY = up ? old.minY - size : old.minY;
+
+        Node grown = new Node(minX, minY, size * 2);
+        grown.split();
+        grown.children[(left ? 1 : 0) + (up ? 2 : 0)] = root;
+        root = grown;
+    }
+
+    private static Bounds boundsOf(WhiteboardAction action) {
+        double[] points = action.getPoints() != null && action.getPoints().length >= 2
+                ? action.getPoints()
+                : new double[] { action.getStartX(), action.getStartY(), action.getEndX(), action.getEndY() };
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i + 1 < points.length; i += 2) {
+            minX = Math.min(minX, points[i]);
+            maxX = Math.max(maxX, points[i]);
+            minY = Math.min(minY, points[i + 1]);
+            maxY = Math.max(maxY, points[i + 1]);
+        }
+        if (Double.isNaN(minX + minY + maxX + maxY) || Double.isInfinite(minX + minY + maxX + maxY)) {
+            return null;
+        }
+        double pad = Math.max(action.getStrokeWidth(), 1) / 2.0;
+        return new Bounds(minX - pad, minY - pad, maxX + pad, maxY + pad);
+    }
+
+    private static double segmentDistance(double ax, double ay, double bx, double by,
+                                          double cx, double cy, double dx, double dy) {
+        if (segmentsIntersect(ax, ay, bx, by, cx, cy, dx, dy)) {
+            return 0.0;
+        }
+        return Math.min(Math.min(pointDistance(ax, ay, cx, cy, dx, dy), pointDistance(bx, by, cx, cy, dx, dy)),
+                Math.min(pointDistance(cx, cy, ax, ay, bx, by), pointDistance(dx, dy, ax, ay, bx, by)));
+    }
+
+    private static double pointDistance(double px, double py, double ax, double ay, double bx, double by) {
+        double vx = bx - ax, vy = by - ay;
+        double lengthSquared = vx * vx + vy * vy;
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * vx + (py - ay) * vy) / lengthSquared));
+        return Math.hypot(px - (ax + t * vx), py - (ay + t * vy));
+    }
+
+    private static boolean segmentsIntersect(double ax, double ay, double bx, double by,
+                                             double cx, double cy, double dx, double dy) {
+        double d1 = cross(cx, cy, dx, dy, ax, ay);
+        double d2 = cross(cx, cy, dx, dy, bx, by);
+        double d3 = cross(ax, ay, bx, by, cx, cy);
+        double d4 = cross(ax, ay, bx, by, dx, dy);
+        return ((d1 > 0 && d2 < 0) || (d1 < 0 && d2 > 0)) && ((d3 > 0 && d4 < 0) || (d3 < 0 && d4 > 0));
+    }
+
+    private static double cross(double ax, double ay, double bx, double by, double px, double py) {
+        return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+    }
+
+    private static final class Node {
+        private final Bounds bounds;
+        private final List<Entry> items = new ArrayList<>();
+        private Node[] children;
+
+        Node(double minX, double minY, double size) {
+            this.bounds = new Bounds(minX, minY, minX + size, minY + size);
+        }
+
+        void insert(Entry entry) {
+            if (children != null) {
+                for (Node child : children) {
+                    if (child.bounds.contains(entry.bounds)) {
+                        child.insert(entry);
+                        return;
+                    }
+                }
+            }
+            entry.node = this;
+            items.add(entry);
+
+            if (children == null && items.size() > NODE_CAPACITY && bounds.maxX - bounds.minX > MIN_NODE_SIZE) {
+                split();
+                List<Entry> current = new ArrayList<>(items);
+                items.clear();
+                current.forEach(this::insert);
+            }
+        }
+
+        void split() {
+            double half = (bounds.maxX - bounds.minX) / 2;
+            children = new Node[] {
+                new Node(bounds.minX, bounds.minY, half),
+                new Node(bounds.minX + half, bounds.minY, half),
+                new Node(bounds.minX, bounds.minY + half, half),
+                new Node(bounds.minX + half, bounds.minY + half, half)
+            };
+        }
+
+        void collect(Bounds area, List<Entry> result) {
+            if (!bounds.intersects(area)) {
+                return;
+            }
+            for (Entry entry : items) {
+                if (entry.bounds.intersects(area)) {
+                    result.add(entry);
+                }
+            }
+            if (children != null) {
+                for (Node child : children) {
+                    child.collect(area, result);
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final String key;
+        private final long firstSeq;
+        private final List<WhiteboardAction> actions = new ArrayList<>();
+        private Bounds bounds;
+        private Node node;
+
+        Entry(String key, long firstSeq, Bounds bounds) {
+            this.key = key;
+            this.firstSeq = firstSeq;
+            this.bounds = bounds;
+        }
+
+        boolean touches(double x1, double y1, double x2, double y2, double radius) {
+            // Logged actions keep their original coordinates; each one is shifted by the moves
+            // logged after it, so walk backwards accumulating them
+            double offsetX = 0, offsetY = 0;
+            for (int a = actions.size() - 1; a >= 0; a--) {
+                WhiteboardAction action = actions.get(a);
+                if (ACTION_MOVE.equals(action.getAction())) {
+                    offsetX += action.getEndX() - action.getStartX();
+                    offsetY += action.getEndY() - action.getStartY();
+                    continue;
+                }
+                double ex1 = x1 - offsetX, ey1 = y1 - offsetY, ex2 = x2 - offsetX, ey2 = y2 - offsetY;
+                double reach = radius + Math.max(action.getStrokeWidth(), 1) / 2.0;
+                double[] points = action.getPoints() != null && action.getPoints().length >= 4
+                        ? action.getPoints()
+                        : new double[] { action.getStartX(), action.getStartY(), action.getEndX(), action.getEndY() };
+                for (int i = 0; i + 3 < points.length; i += 2) {
+                    if (segmentDistance(points[i], points[i + 1], points[i + 2], points[i + 3],
+                            ex1, ey1, ex2, ey2) <= reach) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Bounds {
+        private final double minX;
+        private final double minY;
+        private final double maxX;
+        private final double maxY;
+
+        Bounds(double minX, double minY, double maxX, double maxY) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+        }
+
+        boolean contains(Bounds other) {
+            return other.minX >= minX && other.maxX <= maxX && other.minY >= minY && other.maxY <= maxY;
+        }
+
+        boolean intersects(Bounds other) {
+            return other.minX <= maxX && other.maxX >= minX && other.minY <= maxY && other.maxY >= minY;
+        }
+
+        Bounds union(Bounds other) {
+            return new Bounds(Math.min(minX, other.minX), Math.min(minY, other.minY),
+                    Math.max(maxX, other.maxX), Math.max(maxY, other.maxY));
+        }
+
+        Bounds translate(double dx, double dy) {
+            return new Bounds(minX + dx, minY + dy, maxX + dx, maxY + dy);
+        }
+    }
+}
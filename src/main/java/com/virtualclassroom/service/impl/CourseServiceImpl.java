@@ -5,6 +5,7 @@ import com.virtualclassroom.model.*;
 import com.virtualclassroom.repository.CourseRepository;
 import com.virtualclassroom.repository.CourseCategoryRepository;
 import com.virtualclassroom.repository.CourseEnrollmentRepository;
+import com.virtualclassroom.security.StompAuthorizationCache;
 import com.virtualclassroom.service.ICourseService;
 import com.virtualclassroom.service.FileStorageService;
 import com.virtualclassroom.service.NotificationService;
@@ -43,6 +44,9 @@ public class CourseServiceImpl implements ICourseService {
     @Autowired
     private FileStorageService fileStorageService;
     
+    @Autowired
+    private StompAuthorizationCache stompAuthorizationCache;
+    
     @Override
     public Page<CourseDTO> getAllPublicCourses(Pageable pageable) {
         Page<Course> coursePage = courseRepository.findPublicCourses(pageable);
@@ -117,6 +121,7 @@ public class CourseServiceImpl implements ICourseService {
         }
         
         courseRepository.delete(course);
+        stompAuthorizationCache.invalidateCourseAfterCommit(id);
     }
     
     @Override
@@ -158,12 +163,14 @@ public class CourseServiceImpl implements ICourseService {
                 enrollment.setStatus(EnrollmentStatus.ACTIVE);
                 enrollment.setEnrollmentDate(LocalDateTime.now());
                 enrollmentRepository.save(enrollment);
+                stompAuthorizationCache.invalidateAfterCommit(courseId, student.getId());
                 return;
             }
         }
         
         CourseEnrollment enrollment = new CourseEnrollment(student, course);
         enrollmentRepository.save(enrollment);
+        stompAuthorizationCache.invalidateAfterCommit(courseId, student.getId());
         
         // Create notification
         notificationService.createNotification(
@@ -185,6 +192,7 @@ public class CourseServiceImpl implements ICourseService {
         
         enrollment.setStatus(EnrollmentStatus.DROPPED);
         enrollmentRepository.save(enrollment);
+        stompAuthorizationCache.invalidateAfterCommit(courseId, student.getId());
     }
     
     @Override
@@ -0,0 +1,279 @@
+package com.virtualclassroom.config;
+
+import com.virtualclassroom.VirtualClassroomApplication;
+import com.virtualclassroom.model.Course;
+import com.virtualclassroom.model.CourseStatus;
+import com.virtualclassroom.model.Role;
+import com.virtualclassroom.model.User;
+import com.virtualclassroom.repository.CourseRepository;
+import com.virtualclassroom.repository.UserRepository;
+import com.virtualclassroom.security.JwtUtil;
+import org.apache.activemq.artemis.core.config.Configuration;
+import org.apache.activemq.artemis.core.config.impl.ConfigurationImpl;
+import org.apache.activemq.artemis.core.server.embedded.EmbeddedActiveMQ;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.stomp.StompBrokerRelayMessageHandler;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.messaging.support.AbstractMessageChannel;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two application nodes in relay mode sharing one STOMP broker: course chat and whiteboard
+ * frames published through one node reach a client connected to the other, whiteboard
+ * frames still carrying the sequence range used to coalesce them for lagging sessions.
+ *
+ * Each node has its own in-memory database, seeded with the same rows, standing in for
+ * the shared database.
+ */
+class BrokerRelayTwoNodeTest {
+
+    private static final long TIMEOUT_SECONDS = 20;
+    private static final String INSTRUCTOR = "relay-instructor";
+
+    @TempDir
+    static Path storage;
+
+    private static EmbeddedActiveMQ broker;
+    private static ThreadPoolTaskScheduler clientScheduler;
+    private static ConfigurableApplicationContext nodeA;
+    private static ConfigurableApplicationContext nodeB;
+
+    @BeforeAll
+    static void startNodes() throws Exception {
+        clientScheduler = new ThreadPoolTaskScheduler();
+        clientScheduler.initialize();
+        int relayPort = freePort();
+        broker = startBroker(relayPort);
+        nodeA = startNode("a", relayPort);
+        nodeB = startNode("b", relayPort);
+        for (ConfigurableApplicationContext node : List.of(nodeA, nodeB)) {
+            StompBrokerRelayMessageHandler relay = node.getBean(StompBrokerRelayMessageHandler.class);
+            awaitTrue(relay::isBrokerAvailable, "relay to connect to the broker");
+        }
+    }
+
+    @AfterAll
+    static void stopNodes() throws Exception {
+        for (ConfigurableApplicationContext node : new ConfigurableApplicationContext[] {nodeA, nodeB}) {
+            if (node != null) {
+                node.close();
+            }
+        }
+        if (broker != null) {
+            broker.stop();
+        }
+        if (clientScheduler != null) {
+            clientScheduler.shutdown();
+        }
+    }
+
+    @Test
+    void fansOutCourseChatAndWhiteboardAcrossNodes() throws Exception {
+        Long courseId = seedCourse(nodeA);
+        assertEquals(courseId, seedCourse(nodeB));
+        User instructor = nodeA.getBean(UserRepository.class).findByUsername(INSTRUCTOR).orElseThrow();
+        String token = nodeA.getBean(JwtUtil.class).generateTokenForUser(instructor);
+
+        // The sequence range the outbound channel coalesces by must survive the broker
+        BlockingQueue<String> relayedSeqs = new LinkedBlockingQueue<>();
+        nodeB.getBean("clientOutboundChannel", AbstractMessageChannel.class).addInterceptor(0, new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                String toSeq = SimpMessageHeaderAccessor.getFirstNativeHeader(
+                        OutboundBackpressureInterceptor.WHITEBOARD_TO_SEQ_HEADER, message.getHeaders());
+                if (toSeq != null) {
+                    relayedSeqs.add(toSeq);
+                }
+                return message;
+            }
+        });
+
+        // Subscriber on node B
+        StompSession receiver = connect(nodeB, token);
+        BlockingQueue<Map<String, Object>> chat = new LinkedBlockingQueue<>();
+        BlockingQueue<Map<String, Object>> whiteboard = new LinkedBlockingQueue<>();
+        BlockingQueue<StompHeaders> whiteboardHeaders = new LinkedBlockingQueue<>();
+        receiver.setAutoReceipt(true);
+        CountDownLatch subscribed = new CountDownLatch(2);
+        receiver.subscribe("/topic/course/" + courseId, collectInto(chat, new LinkedBlockingQueue<>())).addReceiptTask(subscribed::countDown);
+        receiver.subscribe("/topic/whiteboard/" + courseId, collectInto(whiteboard, whiteboardHeaders)).addReceiptTask(subscribed::countDown);
+        assertTrue(subscribed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS), "Subscriptions not confirmed by the broker");
+
+        // Sender on node A
+        StompSession sender = connect(nodeA, token);
+        String content = "Hello from node A " + UUID.randomUUID();
+        sender.send("/app/chat.sendMessage/" + courseId, Map.of(
+                "content", content,
+                "clientMessageId", UUID.randomUUID().toString()));
+        String strokeId = "stroke-" + UUID.randomUUID();
+        sender.send("/app/whiteboard.draw/" + courseId, Map.of(
+                "action", "draw",
+                "tool", "pen",
+                "strokeId", strokeId,
+                "color", "#1e88e5",
+                "strokeWidth", 3,
+                "startX", 10.0,
+                "startY", 10.0,
+                "endX", 20.0,
+                "endY", 25.0));
+
+        Map<String, Object> message = awaitFrame(chat, frame -> content.equals(frame.get("content")));
+        assertEquals("TEXT", message.get("type"));
+        Map<String, Object> frame = awaitFrame(whiteboard, candidate -> hasStroke(candidate, strokeId));
+        assertEquals(courseId.intValue(), ((Number) frame.get("courseId")).intValue());
+        assertTrue(relayedSeqs.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS) != null,
+                "Whiteboard sequence headers lost through the relay");
+        // ...and is not passed on to clients
+        assertTrue(whiteboardHeaders.stream().noneMatch(headers -> headers.containsKey(
+                OutboundBackpressureInterceptor.WHITEBOARD_TO_SEQ_HEADER)));
+
+        sender.disconnect();
+        receiver.disconnect();
+    }
+
+    private static Long seedCourse(ConfigurableApplicationContext node) {
+        User instructor = new User();
+        instructor.setUsername(INSTRUCTOR);
+        instructor.setEmail(INSTRUCTOR + "@virtualclassroom.com");
+        instructor.setPassword("not-used");
+        instructor.setFirstName("Relay");
+        instructor.setLastName("Instructor");
+        instructor.setRole(Role.INSTRUCTOR);
+        instructor = node.getBean(UserRepository.class).save(instructor);
+
+        Course course = new Course();
+        course.setTitle("Broker Relay");
+        course.setCourseCode("RELAY-101");
+        course.setStatus(CourseStatus.PUBLISHED);
+        course.setInstructor(instructor);
+        return node.getBean(CourseRepository.class).save(course).getId();
+    }
+
+    private static ConfigurableApplicationContext startNode(String name, int relayPort) {
+        // As command line arguments, so they override application.properties
+        return new SpringApplicationBuilder(VirtualClassroomApplication.class).run(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:node-" + name,
+                "--file.upload-dir=" + storage.resolve(name),
+                "--app.websocket.broker.mode=relay",
+                "--app.websocket.broker.relay-host=localhost",
+                "--app.websocket.broker.relay-port=" + relayPort,
+                "--chat.archive.enabled=false",
+                "--spring.devtools.restart.enabled=false",
+                "--spring.devtools.livereload.enabled=false");
+    }
+
+    // The same setup as EmbeddedStompBroker, which only exists in -Pembedded-broker builds
+    private static EmbeddedActiveMQ startBroker(int port) throws Exception {
+        Path dataDir = storage.resolve("stomp-broker");
+        Configuration configuration = new ConfigurationImpl()
+                .setPersistenceEnabled(false)
+                .setSecurityEnabled(false)
+                .setJMXManagementEnabled(false)
+                .setPagingDirectory(dataDir.resolve("paging").toString())
+                .setBindingsDirectory(dataDir.resolve("bindings").toString())
+                .setJournalDirectory(dataDir.resolve("journal").toString())
+                .setLargeMessagesDirectory(dataDir.resolve("large-messages").toString())
+                .addAcceptorConfiguration("stomp", "tcp://localhost:" + port
+                        + "?protocols=STOMP;anycastPrefix=/queue/;multicastPrefix=/topic/");
+        EmbeddedActiveMQ started = new EmbeddedActiveMQ();
+        started.setConfiguration(configuration);
+        started.start();
+        return started;
+    }
+
+    private static StompSession connect(ConfigurableApplicationContext node, String token) throws Exception {
+        WebSocketStompClient client = new WebSocketStompClient(new StandardWebSocketClient());
+        client.setMessageConverter(new MappingJackson2MessageConverter());
+        // Needed for receipts
+        client.setTaskScheduler(clientScheduler);
+        WebSocketHttpHeaders headers = new WebSocketHttpHeaders();
+        headers.setBearerAuth(token);
+        String url = "ws://localhost:" + node.getEnvironment().getProperty("local.server.port") + "/ws/websocket";
+        return client.connectAsync(url, headers, new StompSessionHandlerAdapter() {})
+                .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static StompFrameHandler collectInto(BlockingQueue<Map<String, Object>> frames,
+                                                 BlockingQueue<StompHeaders> headers) {
+        return new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Map.class;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public void handleFrame(StompHeaders frameHeaders, Object payload) {
+                headers.add(frameHeaders);
+                frames.add((Map<String, Object>) payload);
+            }
+        };
+    }
+
+    private static Map<String, Object> awaitFrame(BlockingQueue<Map<String, Object>> frames,
+                                                  Predicate<Map<String, Object>> match) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        long remaining;
+        while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+            Map<String, Object> frame = frames.poll(remaining, TimeUnit.MILLISECONDS);
+            if (frame != null && match.test(frame)) {
+                return frame;
+            }
+        }
+        throw new AssertionError("No matching frame arrived on the other node");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean hasStroke(Map<String, Object> frame, String strokeId) {
+        Object actions = frame.get("actions");
+        return actions instanceof List<?> list && list.stream()
+                .anyMatch(action -> strokeId.equals(((Map<String, Object>) action).get("strokeId")));
+    }
+
+    private static void awaitTrue(BooleanSupplier condition, String what) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for " + what);
+            Thread.sleep(50);
+        }
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
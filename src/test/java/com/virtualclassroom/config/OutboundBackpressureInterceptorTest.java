@@ -0,0 +1,226 @@
+package com.virtualclassroom.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.virtualclassroom.dto.WhiteboardFrame;
+import com.virtualclassroom.service.WhiteboardBinaryCodec;
+import com.virtualclassroom.service.WhiteboardFrameCoalescer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OutboundBackpressureInterceptorTest {
+
+    private static final Long COURSE = 1L;
+    private static final String CHAT = "/topic/course/1";
+    private static final String TYPING = "/topic/course/1/typing";
+    private static final String WHITEBOARD = "/topic/whiteboard/1";
+    private static final String SLOW = "slow";
+    private static final String FAST = "fast";
+    private static final String NODE = "this-node";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final WhiteboardFrameCoalescer coalescer = mock(WhiteboardFrameCoalescer.class);
+
+    // Holds the slow session's first frame in the outbound channel until released
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final Map<String, List<Message<?>>> delivered = new ConcurrentHashMap<>();
+
+    private ThreadPoolTaskExecutor outboundExecutor;
+    private SimpleBrokerMessageHandler broker;
+
+    @BeforeEach
+    void setUp() {
+        OutboundBackpressureInterceptor interceptor = new OutboundBackpressureInterceptor();
+        ReflectionTestUtils.setField(interceptor, "whiteboardFrameCoalescer", coalescer);
+        ReflectionTestUtils.setField(interceptor, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(interceptor, "binaryCodec", new WhiteboardBinaryCodec());
+        ReflectionTestUtils.setField(interceptor, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(interceptor, "dropAfterMillis", 200L);
+        ReflectionTestUtils.setField(interceptor, "coalesceAfterMillis", 200L);
+        ReflectionTestUtils.setField(interceptor, "droppable", new String[] {"/topic/course/*/typing"});
+        interceptor.init();
+        when(coalescer.getNodeId()).thenReturn(NODE);
+
+        outboundExecutor = new ThreadPoolTaskExecutor();
+        outboundExecutor.setCorePoolSize(2);
+        outboundExecutor.initialize();
+        ExecutorSubscribableChannel outbound = new ExecutorSubscribableChannel(outboundExecutor);
+        outbound.addInterceptor(interceptor);
+        outbound.subscribe(message -> {
+            if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE) {
+                return;
+            }
+            String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+            List<Message<?>> received = delivered.computeIfAbsent(sessionId, id -> new CopyOnWriteArrayList<>());
+            received.add(message);
+            if (SLOW.equals(sessionId) && received.size() == 1) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        broker = new SimpleBrokerMessageHandler(new ExecutorSubscribableChannel(), outbound,
+                new ExecutorSubscribableChannel(), List.of("/topic"));
+        broker.setPreservePublishOrder(true);
+        broker.setHeaderInitializer(new OutboundBackpressureInterceptor.QueueTimestamps());
+        broker.start();
+        for (String sessionId : List.of(SLOW, FAST)) {
+            broker.handleMessage(control(SimpMessageType.CONNECT, sessionId, null));
+            for (String destination : List.of(CHAT, TYPING, WHITEBOARD)) {
+                broker.handleMessage(control(SimpMessageType.SUBSCRIBE, sessionId, destination));
+            }
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        broker.stop();
+        outboundExecutor.shutdown();
+    }
+
+    @Test
+    void dropsAndCoalescesFramesQueuedForBlockedSession() throws Exception {
+        WhiteboardFrame catchUp = new WhiteboardFrame(COURSE, 0, 3, false, new ArrayList<>());
+        when(coalescer.catchUpFrame(COURSE, 0L)).thenReturn(catchUp);
+
+        // The slow session blocks on the chat frame; everything after queues behind it
+        publish(CHAT, Map.of("content", "hello"));
+        publish(TYPING, Map.of("typing", List.of()));
+        for (long seq = 0; seq < 3; seq++) {
+            publishWhiteboard(new WhiteboardFrame(COURSE, seq, seq + 1, false, new ArrayList<>()), NODE);
+        }
+        awaitTrue(() -> received(FAST).size() == 5);
+        Thread.sleep(400);
+        release.countDown();
+
+        awaitTrue(() -> coalesced() == 3 && dropped() == 1);
+        List<Message<?>> slow = received(SLOW);
+        assertEquals(2, slow.size());
+        assertEquals(CHAT, SimpMessageHeaderAccessor.getDestination(slow.get(0).getHeaders()));
+        Message<?> frame = slow.get(1);
+        assertEquals(WHITEBOARD, SimpMessageHeaderAccessor.getDestination(frame.getHeaders()));
+        assertArrayEquals(objectMapper.writeValueAsBytes(catchUp), (byte[]) frame.getPayload());
+
+        // The session that kept up got every frame as published
+        assertEquals(5, received(FAST).size());
+        assertTrue(delivered.values().stream().flatMap(List::stream).noneMatch(this::hasWhiteboardHeaders));
+    }
+
+    @Test
+    void passesOnFramesOfOtherNodesUncoalesced() throws Exception {
+        // Behind a relay, another node's frames number their actions by its own log
+        publish(CHAT, Map.of("content", "hello"));
+        for (long seq = 0; seq < 3; seq++) {
+            publishWhiteboard(new WhiteboardFrame(COURSE, seq, seq + 1, false, new ArrayList<>()), "other-node");
+        }
+        awaitTrue(() -> received(FAST).size() == 4);
+        Thread.sleep(400);
+        release.countDown();
+
+        awaitTrue(() -> received(SLOW).size() == 4);
+        assertEquals(0.0, coalesced());
+        verify(coalescer, never()).catchUpFrame(any(), anyLong());
+        assertTrue(received(SLOW).stream().noneMatch(this::hasWhiteboardHeaders));
+    }
+
+    @Test
+    void deliversEverythingToSessionKeepingUp() throws Exception {
+        release.countDown();
+        publish(CHAT, Map.of("content", "hello"));
+        publish(TYPING, Map.of("typing", List.of()));
+        publishWhiteboard(new WhiteboardFrame(COURSE, 0, 1, false, new ArrayList<>()), NODE);
+
+        awaitTrue(() -> received(SLOW).size() == 3 && received(FAST).size() == 3);
+        assertTrue(received(SLOW).stream()
+                .allMatch(m -> m.getHeaders().containsKey(OutboundBackpressureInterceptor.QUEUED_AT_HEADER)));
+        assertEquals(0.0, dropped() + coalesced());
+    }
+
+    private void publish(String destination, Object payload) throws Exception {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        broker.handleMessage(MessageBuilder.createMessage(objectMapper.writeValueAsBytes(payload), accessor.getMessageHeaders()));
+    }
+
+    // As the coalescer sends them: the origin and sequence range ride along as native headers
+    private void publishWhiteboard(WhiteboardFrame frame, String node) throws Exception {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(WHITEBOARD);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setNativeHeader(OutboundBackpressureInterceptor.WHITEBOARD_NODE_HEADER, node);
+        accessor.setNativeHeader(OutboundBackpressureInterceptor.WHITEBOARD_COURSE_HEADER, String.valueOf(frame.getCourseId()));
+        accessor.setNativeHeader(OutboundBackpressureInterceptor.WHITEBOARD_FROM_SEQ_HEADER, String.valueOf(frame.getFromSeq()));
+        accessor.setNativeHeader(OutboundBackpressureInterceptor.WHITEBOARD_TO_SEQ_HEADER, String.valueOf(frame.getToSeq()));
+        broker.handleMessage(MessageBuilder.createMessage(objectMapper.writeValueAsBytes(frame), accessor.getMessageHeaders()));
+    }
+
+    private static Message<byte[]> control(SimpMessageType type, String sessionId, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        if (destination != null) {
+            accessor.setSubscriptionId(destination);
+            accessor.setDestination(destination);
+        }
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private boolean hasWhiteboardHeaders(Message<?> message) {
+        return SimpMessageHeaderAccessor.getFirstNativeHeader(
+                OutboundBackpressureInterceptor.WHITEBOARD_TO_SEQ_HEADER, message.getHeaders()) != null;
+    }
+
+    private List<Message<?>> received(String sessionId) {
+        return delivered.getOrDefault(sessionId, List.of());
+    }
+
+    private double dropped() {
+        return meterRegistry.get("websocket.outbound.dropped").tag("destination", "/topic/course/*/typing").counter().count();
+    }
+
+    private double coalesced() {
+        return meterRegistry.get("websocket.outbound.coalesced").tag("format", "json").counter().count();
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for delivery");
+            Thread.sleep(10);
+        }
+    }
+}
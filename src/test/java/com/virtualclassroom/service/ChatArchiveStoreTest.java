@@ -0,0 +1,90 @@
+package com.virtualclassroom.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.virtualclassroom.model.ChatMessage;
+import com.virtualclassroom.model.Course;
+import com.virtualclassroom.model.MessageType;
+import com.virtualclassroom.model.User;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ChatArchiveStoreTest {
+
+    private static final Long COURSE = 3L;
+
+    @TempDir
+    Path storageRoot;
+
+    private ChatArchiveStore newStore() {
+        ChatArchiveStore store = new ChatArchiveStore();
+        ReflectionTestUtils.setField(store, "storageRoot", storageRoot);
+        ReflectionTestUtils.setField(store, "objectMapper", new ObjectMapper().findAndRegisterModules());
+        return store;
+    }
+
+    @Test
+    void deletedMessagesAreLeftOutOfReads() {
+        ChatArchiveStore store = newStore();
+        store.appendSegment(COURSE, List.of(message(1), message(2), message(3)));
+        store.appendSegment(COURSE, List.of(message(4), message(5)));
+
+        assertEquals(Long.valueOf(COURSE), store.find(4L).getCourse().getId());
+        store.markDeleted(COURSE, 4L);
+        store.markDeleted(COURSE, 2L);
+
+        assertEquals(List.of(5L, 3L, 1L), ids(store.read(course(), null, 0, 10)));
+        assertNull(store.find(4L));
+
+        // Tombstones survive a restart
+        ChatArchiveStore reopened = newStore();
+        assertEquals(List.of(5L, 3L), ids(reopened.read(course(), null, 0, 2)));
+        assertNull(reopened.find(2L));
+        assertEquals(Long.valueOf(3L), reopened.find(3L).getId());
+    }
+
+    @Test
+    void findMissesMessagesOfNoArchive() {
+        ChatArchiveStore store = newStore();
+        assertNull(store.find(1L));
+
+        store.appendSegment(COURSE, List.of(message(1), message(2)));
+        assertNull(store.find(9L));
+    }
+
+    private static Course course() {
+        Course course = new Course();
+        course.setId(COURSE);
+        return course;
+    }
+
+    private static ChatMessage message(long id) {
+        User sender = new User();
+        sender.setId(10L);
+        sender.setUsername("student");
+        ChatMessage message = new ChatMessage();
+        message.setId(id);
+        message.setContent("message " + id);
+        message.setType(MessageType.TEXT);
+        message.setCreatedAt(LocalDateTime.of(2024, 1, 1, 12, 0).plusMinutes(id));
+        message.setSender(sender);
+        message.setCourse(course());
+        return message;
+    }
+
+    private static List<Long> ids(List<ChatMessage> messages) {
+        List<Long> ids = new ArrayList<>();
+        for (ChatMessage message : messages) {
+            ids.add(message.getId());
+        }
+        return ids;
+    }
+}
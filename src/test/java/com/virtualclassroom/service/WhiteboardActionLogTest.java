@@ -0,0 +1,125 @@
+package com.virtualclassroom.service;
+
+import com.virtualclassroom.dto.WhiteboardAction;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WhiteboardActionLogTest {
+
+    @Test
+    void compactsOlderHalfOfTailAtThreshold() {
+        WhiteboardActionLog log = new WhiteboardActionLog(4);
+        for (int i = 1; i <= 4; i++) {
+            log.append(draw("s" + i));
+        }
+
+        WhiteboardActionLog.View view = log.read();
+        assertEquals(2, view.getSnapshotSeq());
+        assertEquals(List.of("s1", "s2"), strokes(view.getSnapshot()));
+        assertEquals(List.of(3L, 4L), seqs(view.getTail()));
+        assertEquals(4, view.getLastSeq());
+
+        // Cursors behind the snapshot reload; cursors after it get a delta
+        assertNull(log.readSince(1));
+        assertEquals(List.of(4L), seqs(log.readSince(3).getTail()));
+    }
+
+    @Test
+    void dropsErasedStrokesFromSnapshot() {
+        WhiteboardActionLog log = new WhiteboardActionLog(4);
+        for (int i = 1; i <= 4; i++) {
+            log.append(draw("s" + i));
+        }
+        WhiteboardAction erase = new WhiteboardAction(WhiteboardActionLog.ACTION_ERASE, "eraser");
+        erase.setErasedStrokeIds(List.of("s1", "s3"));
+        log.append(erase);
+        for (int i = 6; i <= 8; i++) {
+            log.append(draw("s" + i));
+        }
+
+        // Once the erase is folded, the strokes it erased and the erase itself are gone
+        WhiteboardActionLog.View view = log.read();
+        assertEquals(6, view.getSnapshotSeq());
+        assertEquals(List.of("s2", "s4", "s6"), strokes(view.getSnapshot()));
+        assertEquals(List.of("s7", "s8"), strokes(view.getTail()));
+    }
+
+    @Test
+    void clearEmptiesSnapshot() {
+        WhiteboardActionLog log = new WhiteboardActionLog(100);
+        log.append(draw("s1"));
+        log.append(draw("s2"));
+        log.append(new WhiteboardAction(WhiteboardActionLog.ACTION_CLEAR, null));
+
+        WhiteboardActionLog.View view = log.read();
+        assertEquals(3, view.getSnapshotSeq());
+        assertTrue(view.getSnapshot().isEmpty());
+        assertTrue(view.getTail().isEmpty());
+
+        log.append(draw("s3"));
+        view = log.read();
+        assertTrue(view.getSnapshot().isEmpty());
+        assertEquals(List.of("s3"), strokes(view.getTail()));
+    }
+
+    @Test
+    void clearAsFirstActionOfTailEmptiesSnapshot() {
+        WhiteboardActionLog log = new WhiteboardActionLog(4);
+        for (int i = 1; i <= 4; i++) {
+            log.append(draw("s" + i));
+        }
+        // Tail is now s3, s4; a clear anywhere in it drops the snapshot too
+        log.append(new WhiteboardAction(WhiteboardActionLog.ACTION_CLEAR, null));
+
+        WhiteboardActionLog.View view = log.read();
+        assertEquals(5, view.getSnapshotSeq());
+        assertTrue(view.getSnapshot().isEmpty());
+        assertTrue(view.getTail().isEmpty());
+    }
+
+    @Test
+    void restoreFoldsRecoveredActions() {
+        WhiteboardAction clear = new WhiteboardAction(WhiteboardActionLog.ACTION_CLEAR, null);
+        clear.setSeq(3);
+        WhiteboardActionLog log = WhiteboardActionLog.restore(100,
+                List.of(withSeq(draw("s1"), 1)), List.of(withSeq(draw("s2"), 2), clear, withSeq(draw("s4"), 4)), 4);
+
+        WhiteboardActionLog.View view = log.read();
+        assertEquals(4, view.getSnapshotSeq());
+        assertEquals(List.of("s4"), strokes(view.getSnapshot()));
+        assertEquals(5, log.append(draw("s5")).getSeq());
+    }
+
+    private static WhiteboardAction draw(String strokeId) {
+        WhiteboardAction action = new WhiteboardAction("draw", "pen");
+        action.setStrokeId(strokeId);
+        return action;
+    }
+
+    private static WhiteboardAction withSeq(WhiteboardAction action, long seq) {
+        action.setSeq(seq);
+        return action;
+    }
+
+    private static List<String> strokes(List<WhiteboardAction> actions) {
+        List<String> strokes = new ArrayList<>();
+        for (WhiteboardAction action : actions) {
+            strokes.add(action.getStrokeId());
+        }
+        return strokes;
+    }
+
+    private static List<Long> seqs(List<WhiteboardAction> actions) {
+        List<Long> seqs = new ArrayList<>();
+        for (WhiteboardAction action : actions) {
+            seqs.add(action.getSeq());
+        }
+        return seqs;
+    }
+}
@@ -0,0 +1,194 @@
+package com.virtualclassroom.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.virtualclassroom.dto.WhiteboardAction;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class WhiteboardSegmentStoreTest {
+
+    private static final Long COURSE = 7L;
+
+    @TempDir
+    Path storageRoot;
+
+    private WhiteboardSegmentStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = newStore();
+    }
+
+    private WhiteboardSegmentStore newStore() {
+        WhiteboardSegmentStore created = new WhiteboardSegmentStore();
+        ReflectionTestUtils.setField(created, "storageRoot", storageRoot);
+        ReflectionTestUtils.setField(created, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(created, "enabled", true);
+        // Segments are rounded up to at least one record, so every append rolls over
+        ReflectionTestUtils.setField(created, "segmentSizeMb", 0);
+        ReflectionTestUtils.setField(created, "idleCloseMillis", 600_000L);
+        return created;
+    }
+
+    @Test
+    void archivesSegmentsCoveredBySnapshot() throws Exception {
+        for (long seq = 1; seq <= 5; seq++) {
+            store.append(COURSE, action(seq));
+        }
+        // The first, empty segment plus one per record
+        assertEquals(6, segmentCount(courseDirectory()));
+
+        store.writeSnapshot(COURSE, List.of(action(1), action(2), action(3)), 3);
+
+        // Segments holding 1..3 are archived; 4 is sealed but not covered, 5 is open
+        assertEquals(2, segmentCount(courseDirectory()));
+        assertEquals(4, segmentCount(courseDirectory().resolve("replay")));
+        store.close();
+
+        WhiteboardSegmentStore.Recovered recovered = newStore().recover(COURSE);
+        assertEquals(3, recovered.getSnapshot().size());
+        assertEquals(List.of(4L, 5L), seqs(recovered.getReplay()));
+        assertEquals(5, recovered.getLastSeq());
+    }
+
+    @Test
+    void readerReplaysFullHistory() throws Exception {
+        for (long seq = 1; seq <= 4; seq++) {
+            store.append(COURSE, action(seq));
+        }
+        store.writeSnapshot(COURSE, List.of(action(2)), 3);
+
+        assertEquals(List.of(1L, 2L, 3L, 4L), seqs(readAll()));
+    }
+
+    @Test
+    void readerStartsFromSnapshotOnceHistoryIsPruned() throws Exception {
+        for (long seq = 1; seq <= 4; seq++) {
+            store.append(COURSE, action(seq));
+        }
+        store.writeSnapshot(COURSE, List.of(action(2)), 3);
+
+        ReflectionTestUtils.setField(store, "replayRetentionDays", 1L);
+        store.pruneReplayHistory();
+        assertEquals(4, segmentCount(courseDirectory().resolve("replay")));
+
+        FileTime old = FileTime.from(Instant.now().minus(2, ChronoUnit.DAYS));
+        try (Stream<Path> files = Files.list(courseDirectory().resolve("replay"))) {
+            for (Path file : files.toList()) {
+                Files.setLastModifiedTime(file, old);
+            }
+        }
+        store.pruneReplayHistory();
+        assertEquals(0, segmentCount(courseDirectory().resolve("replay")));
+
+        assertEquals(List.of(2L, 4L), seqs(readAll()));
+    }
+
+    @Test
+    void idleWriterIsClosedAndReopenedOnAppend() throws Exception {
+        ReflectionTestUtils.setField(store, "idleCloseMillis", 1L);
+        store.append(COURSE, action(1));
+        Thread.sleep(5);
+        store.flush();
+        assertNull(((Map<?, ?>) ReflectionTestUtils.getField(store, "writers")).get(COURSE));
+
+        store.append(COURSE, action(2));
+        store.close();
+        assertEquals(List.of(1L, 2L), seqs(newStore().recover(COURSE).getReplay()));
+    }
+
+    @Test
+    void appendsRacingIdleCloseAreAllKept() throws Exception {
+        ReflectionTestUtils.setField(store, "segmentSizeMb", 1);
+        ReflectionTestUtils.setField(store, "idleCloseMillis", 1L);
+        AtomicLong seqs = new AtomicLong();
+        AtomicBoolean drawing = new AtomicBoolean(true);
+        List<Thread> appenders = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            Thread appender = new Thread(() -> {
+                for (int i = 1; i <= 500; i++) {
+                    store.append(COURSE, action(seqs.incrementAndGet()));
+                    if (i % 25 == 0) {
+                        // Pauses long enough for the writer to count as idle
+                        LockSupport.parkNanos(2_000_000L);
+                    }
+                }
+            });
+            appender.start();
+            appenders.add(appender);
+        }
+        Thread flusher = new Thread(() -> {
+            while (drawing.get()) {
+                store.flush();
+            }
+        });
+        flusher.start();
+        for (Thread appender : appenders) {
+            appender.join();
+        }
+        drawing.set(false);
+        flusher.join();
+        store.close();
+
+        List<Long> expected = new ArrayList<>();
+        for (long seq = 1; seq <= 1000; seq++) {
+            expected.add(seq);
+        }
+        assertEquals(expected, seqs(newStore().recover(COURSE).getReplay()));
+    }
+
+    private List<WhiteboardAction> readAll() throws Exception {
+        List<WhiteboardAction> read = new ArrayList<>();
+        try (WhiteboardSegmentStore.LogReader reader = store.openReader(COURSE)) {
+            WhiteboardAction next;
+            while ((next = reader.next()) != null) {
+                read.add(next);
+            }
+        }
+        return read;
+    }
+
+    private Path courseDirectory() {
+        return storageRoot.resolve("whiteboard").resolve(String.valueOf(COURSE));
+    }
+
+    private static long segmentCount(Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".log")).count();
+        }
+    }
+
+    private static WhiteboardAction action(long seq) {
+        WhiteboardAction action = new WhiteboardAction("draw", "pen");
+        action.setSeq(seq);
+        action.setStrokeId("s" + seq);
+        action.setTimestamp(seq);
+        return action;
+    }
+
+    private static List<Long> seqs(List<WhiteboardAction> actions) {
+        List<Long> seqs = new ArrayList<>();
+        for (WhiteboardAction action : actions) {
+            seqs.add(action.getSeq());
+        }
+        return seqs;
+    }
+}
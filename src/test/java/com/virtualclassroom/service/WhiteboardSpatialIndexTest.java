@@ -0,0 +1,60 @@
+package com.virtualclassroom.service;
+
+import com.virtualclassroom.dto.WhiteboardAction;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class WhiteboardSpatialIndexTest {
+
+    @Test
+    void segmentsDrawnAfterMoveKeepTheirCoordinates() {
+        WhiteboardSpatialIndex index = new WhiteboardSpatialIndex();
+        index.apply(segment(1, 0, 0, 10, 0));
+        index.apply(move(2, 0, 0, 100, 0));
+        index.apply(segment(3, 0, 50, 10, 50));
+
+        // The first segment now sits at x 100..110, the later one where it was drawn
+        assertEquals(List.of("s1"), index.hitTest(105, 0, 105, 0, 1));
+        assertEquals(List.of("s1"), index.hitTest(5, 50, 5, 50, 1));
+        assertEquals(List.of(), index.hitTest(5, 0, 5, 0, 1));
+        assertEquals(List.of(), index.hitTest(105, 50, 105, 50, 1));
+
+        assertEquals(3, index.query(0, 45, 20, 55).size());
+        assertEquals(3, index.query(100, -5, 110, 5).size());
+    }
+
+    @Test
+    void movesAccumulateOnEarlierSegmentsOnly() {
+        WhiteboardSpatialIndex index = new WhiteboardSpatialIndex();
+        index.apply(segment(1, 0, 0, 10, 0));
+        index.apply(move(2, 0, 0, 0, 100));
+        index.apply(segment(3, 0, 0, 10, 0));
+        index.apply(move(4, 0, 0, 0, 100));
+
+        // Moved twice and once respectively
+        assertEquals(List.of("s1"), index.hitTest(5, 200, 5, 200, 1));
+        assertEquals(List.of("s1"), index.hitTest(5, 100, 5, 100, 1));
+        assertEquals(List.of(), index.hitTest(5, 0, 5, 0, 1));
+    }
+
+    private static WhiteboardAction segment(long seq, double x1, double y1, double x2, double y2) {
+        WhiteboardAction action = new WhiteboardAction("draw", "pen");
+        action.setSeq(seq);
+        action.setStrokeId("s1");
+        action.setStrokeWidth(2);
+        action.setStartX(x1);
+        action.setStartY(y1);
+        action.setEndX(x2);
+        action.setEndY(y2);
+        return action;
+    }
+
+    private static WhiteboardAction move(long seq, double fromX, double fromY, double toX, double toY) {
+        WhiteboardAction action = segment(seq, fromX, fromY, toX, toY);
+        action.setAction("move");
+        return action;
+    }
+}